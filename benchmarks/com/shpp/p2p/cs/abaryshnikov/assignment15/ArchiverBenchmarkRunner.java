@@ -0,0 +1,45 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * This class runs JMH benchmarks with gc profiler (allocation rate and bytes
+ * per operation, number and time of collections) and saves results in JSON
+ * to 'benchmarks/results', so results of releases can be compared.
+ * Usual JMH options can be given, e.g. regexp of benchmarks:
+ *
+ *  java -jar target/benchmarks.jar                 - all benchmarks
+ *  java -jar target/benchmarks.jar CodecBenchmark  - only compressing/decompressing
+ */
+public class ArchiverBenchmarkRunner {
+
+    private static final String RESULTS_DIR = "benchmarks/results";
+
+    public static void main(String[] args) throws Exception {
+
+        Path resultsDir = Paths.get(RESULTS_DIR);
+        Files.createDirectories(resultsDir);
+        String resultFName = resultsDir.resolve("jmh-"
+            + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".json").toString();
+
+        Options options = new OptionsBuilder()
+            .parent(new CommandLineOptions(args))
+            .addProfiler(GCProfiler.class)
+            .resultFormat(ResultFormatType.JSON)
+            .result(resultFName)
+            .build();
+        new Runner(options).run();
+    }
+
+}
@@ -0,0 +1,54 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * This class gives data sets that are shared by benchmarks: files from 'mytest'
+ * directory (benchmarks are run from the root of project) and synthetic data.
+ */
+class BenchmarkData {
+
+    static final String RANDOM = "random";
+    static final String SKEWED = "skewed";
+
+    private static final int SYNTHETIC_DATA_SIZE = 4194304; // 4 MB
+
+    /**
+     * This method returns bytes of data set
+     *
+     * @param name          path to file, 'random' or 'skewed';
+     * @return              bytes of data set;
+     * @throws IOException  when file can`t be read.
+     */
+    static byte[] load(String name) throws IOException {
+        if (name.equals(RANDOM)) {
+            return randomData(SYNTHETIC_DATA_SIZE);
+        }
+        if (name.equals(SKEWED)) {
+            return skewedData(SYNTHETIC_DATA_SIZE);
+        }
+        try (InputStream fin = IOStreamManager.createInputStream(name)) {
+            return IOStreamManager.readAllFromStreamToBuffer(fin);
+        }
+    }
+
+    /** uniformly distributed bytes - the worst case for Huffman code */
+    private static byte[] randomData(int size) {
+        byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+        return data;
+    }
+
+    /** bytes with normal distribution around 128 - typical case with skewed frequencies */
+    private static byte[] skewedData(int size) {
+        byte[] data = new byte[size];
+        Random random = new Random(42);
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) Math.max(0, Math.min(255, (int) (128 + random.nextGaussian() * 12)));
+        }
+        return data;
+    }
+
+}
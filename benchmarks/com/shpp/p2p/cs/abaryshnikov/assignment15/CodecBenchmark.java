@@ -0,0 +1,96 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * This class measures the whole compressing and decompressing of file through
+ * Compressor.compress and Decompressor.decompress, the same way as they are called
+ * from command line. Files are in temporary directory, so after warming up
+ * they are mostly read from page cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class CodecBenchmark implements Constants {
+
+    @Param({"mytest/dictionary.txt", "mytest/mono.bmp", BenchmarkData.RANDOM, BenchmarkData.SKEWED})
+    public String dataset;
+
+    @Param({"1", "4"})
+    public int threadsNumber;
+
+    private Path directory;
+    private String inputFName;
+    private String comprFName;
+    private String outputFName;
+    private ArchiverOptions options;
+
+    /**
+     * This method writes data set to temporary file and compresses it once,
+     * so decompressing has its input from the start
+     */
+    @Setup
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("par-benchmark");
+        inputFName = directory.resolve("input").toString();
+        comprFName = directory.resolve("input.par").toString();
+        outputFName = directory.resolve("output").toString();
+        Files.write(directory.resolve("input"), BenchmarkData.load(dataset));
+
+        options = new ArchiverOptions();
+        options.setThreadsNumber(threadsNumber);
+        options.setVerbose(false);
+        compress();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public int compress() {
+        return checkResult(Compressor.compress(inputFName, comprFName, options));
+    }
+
+    @Benchmark
+    public int decompress() {
+        return checkResult(Decompressor.decompress(comprFName, outputFName, options));
+    }
+
+    /**
+     * this method makes failed run fail the benchmark instead of measuring it
+     */
+    private int checkResult(int result) {
+        if (result != RETURN_VALUE_SUCCESS) {
+            throw new IllegalStateException("Benchmark of [" + dataset + "] failed");
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,148 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class measures separate stages of compressing/decompressing on data
+ * that are already in RAM, so disk I/O doesn`t affect the results: building
+ * of Huffman tree and canonical code from histogram, coding of bytes, decoding
+ * bit by bit and with lookup table and parsing of legacy header.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class StageBenchmark implements Constants {
+
+    @Param({"mytest/dictionary.txt", "mytest/mono.bmp", BenchmarkData.RANDOM, BenchmarkData.SKEWED})
+    public String dataset;
+
+    private byte[] data;
+    private long[] histogram;
+    private Map<Byte, Integer> frequencies;
+    private HTree tree;
+    private byte[] treeStructure;
+    private byte[] treeLeaves;
+    private HCanonicalCode code;
+    private HDecodingTable decodingTable;
+    private byte[] legacyStream;
+    private byte[] canonicalStream;
+
+    /**
+     * This method prepares everything that stages need: histogram in both forms
+     * that are used by the code, tree, canonical code and bitstreams coded with them
+     */
+    @Setup
+    public void setUp() throws Exception {
+        data = BenchmarkData.load(dataset);
+
+        histogram = ByteHistogram.count(data, 0, data.length);
+        frequencies = new TreeMap<>();
+        for (int i = 0; i < BYTE_ALPHABET_SIZE; i++) {
+            if (histogram[i] > 0) {
+                frequencies.put((byte) i, (int) histogram[i]);
+            }
+        }
+
+        tree = new HTree(frequencies);
+        treeStructure = tree.getTreeStructure();
+        treeLeaves = tree.getTreeLeaves();
+        code = new HCanonicalCode(HTree.limitCodeLengths(histogram, DEFAULT_MAX_CODE_LENGTH));
+        decodingTable = new HDecodingTable(code);
+
+        ByteArrayOutputStream treeBitstream = new ByteArrayOutputStream(data.length);
+        BitWriter treeWriter = new BitWriter(treeBitstream, OUTPUT_CHUNK_SIZE);
+        for (byte bt : data) {
+            int[] bits = tree.encodeByte(bt);
+            treeWriter.writeBits(bits[0], bits[1]);
+        }
+        treeWriter.finish();
+        legacyStream = treeBitstream.toByteArray();
+
+        ByteArrayOutputStream canonicalBitstream = new ByteArrayOutputStream(data.length);
+        BitWriter canonicalWriter = new BitWriter(canonicalBitstream, OUTPUT_CHUNK_SIZE);
+        canonicalWriter.writeSymbols(data, 0, data.length, code.getCodes(), code.getLengths());
+        canonicalWriter.finish();
+        canonicalStream = canonicalBitstream.toByteArray();
+    }
+
+    @Benchmark
+    public long[] histogram() {
+        return ByteHistogram.count(data, 0, data.length);
+    }
+
+    @Benchmark
+    public HTree treeFromHistogram() throws Exception {
+        return new HTree(frequencies);
+    }
+
+    @Benchmark
+    public HCanonicalCode canonicalCodeLengths() throws Exception {
+        return new HCanonicalCode(HTree.limitCodeLengths(histogram, DEFAULT_MAX_CODE_LENGTH));
+    }
+
+    @Benchmark
+    public long encodeByte() throws Exception {
+        long bits = 0;
+        for (byte bt : data) {
+            bits += tree.encodeByte(bt)[1];
+        }
+        return bits;
+    }
+
+    @Benchmark
+    public long encodeLoop() throws Exception {
+        BitWriter bitWriter = new BitWriter(OutputStream.nullOutputStream(), OUTPUT_CHUNK_SIZE);
+        bitWriter.writeSymbols(data, 0, data.length, code.getCodes(), code.getLengths());
+        bitWriter.finish();
+        return bitWriter.getWrittenBytes();
+    }
+
+    @Benchmark
+    public long decodeBitByBit() {
+        long checksum = 0;
+        int bitIndex = 0;
+        for (int i = 0; i < data.length; i++) {
+            while (!tree.isByteDecoded()) {
+                tree.decode((byte) ((legacyStream[bitIndex >>> 3] >>> (bitIndex & 7)) & 1));
+                ++bitIndex;
+            }
+            checksum += tree.getDecodedByte();
+        }
+        return checksum;
+    }
+
+    @Benchmark
+    public long decodeWithTable() throws Exception {
+        BitReader bitReader = new BitReader(canonicalStream, 0, canonicalStream.length);
+        long checksum = 0;
+        for (int i = 0; i < data.length; i++) {
+            checksum += decodingTable.decodeSymbol(bitReader);
+        }
+        return checksum;
+    }
+
+    @Benchmark
+    public HTree parseLegacyHeader() throws Exception {
+        return new HTree(treeStructure, treeLeaves);
+    }
+
+}
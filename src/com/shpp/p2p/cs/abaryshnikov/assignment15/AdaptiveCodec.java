@@ -0,0 +1,74 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * This class is used for compressing/decompressing with adaptive Huffman code.
+ * Input is read only once and no tree is stored in the compressed file,
+ * so it works with data that can`t be read twice.
+ */
+public class AdaptiveCodec implements Constants {
+
+    /**
+     * This method compresses all the data of input stream in one pass
+     *
+     * @param fin           input stream with uncompressed data;
+     * @param fout          output stream that is positioned after the header;
+     * @return              number of compressed bytes;
+     * @throws Exception    when compressing is failed.
+     */
+    static long compress(InputStream fin, OutputStream fout) throws Exception {
+        AdaptiveHTree tree = new AdaptiveHTree();
+        byte[] outputBuffer = BufferPool.acquire(OUTPUT_BUFFER_SIZE);
+        byte[] inputBuffer = BufferPool.acquire(INPUT_BUFFER_SIZE);
+        BitWriter bitWriter = new BitWriter(fout, outputBuffer);
+
+        try {
+            int read;
+            while ((read = fin.read(inputBuffer, 0, inputBuffer.length)) > 0) {
+                for (int i = 0; i < read; i++) {
+                    tree.encode(inputBuffer[i] & 0xFF, bitWriter);
+                }
+            }
+
+            bitWriter.finish();
+        } finally {
+            BufferPool.release(inputBuffer);
+            BufferPool.release(outputBuffer);
+        }
+        return bitWriter.getWrittenBytes();
+    }
+
+    /**
+     * This method decompresses given number of bytes from input stream
+     *
+     * @param uncomprFileSize   size of decompressed (original) file;
+     * @param fin               input stream that is positioned at the start of bitstream;
+     * @param fout              output stream for decompressed data;
+     * @throws Exception        when decompressing is failed.
+     */
+    static void decompress(long uncomprFileSize, InputStream fin, OutputStream fout) throws Exception {
+        AdaptiveHTree tree = new AdaptiveHTree();
+        byte[] outputBuffer = BufferPool.acquire(OUTPUT_BUFFER_SIZE);
+        byte[] inputBuffer = BufferPool.acquire(INPUT_BUFFER_SIZE);
+        BitReader bitReader = new BitReader(fin, inputBuffer);
+        int outputBufferSize = 0;
+
+        try {
+            for (long decodedBytesCounter = 0; decodedBytesCounter < uncomprFileSize; ++decodedBytesCounter) {
+                outputBuffer[outputBufferSize++] = (byte) tree.decode(bitReader);
+                if (outputBufferSize == OUTPUT_BUFFER_SIZE) {
+                    IOStreamManager.writeFromBufferToStream(fout, outputBuffer, outputBufferSize);
+                    outputBufferSize = 0;
+                }
+            }
+
+            IOStreamManager.writeFromBufferToStream(fout, outputBuffer, outputBufferSize);
+        } finally {
+            BufferPool.release(inputBuffer);
+            BufferPool.release(outputBuffer);
+        }
+    }
+
+}
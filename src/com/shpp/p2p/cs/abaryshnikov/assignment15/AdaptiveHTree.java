@@ -0,0 +1,197 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This class presents adaptive Huffman tree (FGK algorithm) that is updated
+ * after every coded byte, so compressor and decompressor build the same tree
+ * in one pass and no tree is stored in the compressed file.
+ *
+ * Nodes are kept in primitive arrays indexed by node number. Numbers grow with weights
+ * (sibling property), the root has the greatest number and NYT ("not yet transmitted")
+ * node has the least one. A byte that appears for the first time is coded as code
+ * of NYT node followed by 8 bits of the byte itself.
+ */
+public class AdaptiveHTree implements Constants {
+
+    private static final int MAX_NODES = 2 * BYTE_ALPHABET_SIZE + 1;
+    private static final int ROOT = MAX_NODES - 1;
+
+    private static final int INTERNAL = -1;
+    private static final int NYT = -2;
+
+    /* node content by node number */
+    private final long[] weight = new long[MAX_NODES];
+    private final int[] parent = new int[MAX_NODES];
+    private final int[] leftChild = new int[MAX_NODES];
+    private final int[] rightChild = new int[MAX_NODES];
+    private final int[] symbol = new int[MAX_NODES];
+
+    /* number of the leaf of every byte or -1 */
+    private final int[] leafOf = new int[BYTE_ALPHABET_SIZE];
+    private int nytNode = ROOT;
+
+    /* path from leaf to root, used while encoding */
+    private final int[] path = new int[MAX_NODES];
+
+    AdaptiveHTree() {
+        Arrays.fill(leafOf, -1);
+        symbol[ROOT] = NYT;
+        parent[ROOT] = -1;
+    }
+
+    /**
+     * This method writes code of the byte and updates the tree
+     *
+     * @param bt        byte value (0..255);
+     * @param bitWriter output bitstream.
+     */
+    void encode(int bt, BitWriter bitWriter) throws IOException {
+        int leaf = leafOf[bt];
+        if (leaf >= 0) {
+            writePath(leaf, bitWriter);
+        } else {
+            writePath(nytNode, bitWriter);
+            bitWriter.writeBits(bt, 8);
+        }
+        update(bt);
+    }
+
+    /**
+     * This method reads code of the next byte and updates the tree
+     *
+     * @param bitReader input bitstream;
+     * @return          decoded byte value (0..255).
+     */
+    int decode(BitReader bitReader) throws IOException {
+        int node = ROOT;
+        while (symbol[node] == INTERNAL) {
+            node = bitReader.readBits(1) == 0 ? leftChild[node] : rightChild[node];
+        }
+        int bt = symbol[node] == NYT ? bitReader.readBits(8) : symbol[node];
+        update(bt);
+        return bt;
+    }
+
+    /**
+     * this method writes bits of the path from root to the node
+     */
+    private void writePath(int node, BitWriter bitWriter) throws IOException {
+        int depth = 0;
+        while (node != ROOT) {
+            int parentNode = parent[node];
+            path[depth++] = rightChild[parentNode] == node ? 1 : 0;
+            node = parentNode;
+        }
+
+        /* bits are written from the root, by portions of up to 32 bits */
+        while (depth > 0) {
+            int portion = Math.min(depth, 32);
+            int bits = 0;
+            for (int i = 0; i < portion; i++) {
+                bits |= path[depth - 1 - i] << i;
+            }
+            bitWriter.writeBits(bits, portion);
+            depth -= portion;
+        }
+    }
+
+    /**
+     * This method increments weight of the byte keeping sibling property:
+     * before increment every node is swapped with the node of the greatest number
+     * among nodes of the same weight (the leader of its block).
+     */
+    private void update(int bt) {
+        int node = leafOf[bt];
+
+        if (node < 0) {
+            /* NYT node gives birth to new NYT node (left) and leaf of the byte (right) */
+            int oldNyt = nytNode;
+            int newLeaf = oldNyt - 1;
+            nytNode = oldNyt - 2;
+
+            symbol[oldNyt] = INTERNAL;
+            leftChild[oldNyt] = nytNode;
+            rightChild[oldNyt] = newLeaf;
+
+            symbol[newLeaf] = bt;
+            weight[newLeaf] = 0;
+            parent[newLeaf] = oldNyt;
+            leafOf[bt] = newLeaf;
+
+            symbol[nytNode] = NYT;
+            weight[nytNode] = 0;
+            parent[nytNode] = oldNyt;
+
+            node = newLeaf;
+        }
+
+        while (node != ROOT) {
+            int leader = findBlockLeader(node);
+            if (leader != node && leader != parent[node]) {
+                swap(node, leader);
+                node = leader;
+            }
+            ++weight[node];
+            node = parent[node];
+        }
+        ++weight[ROOT];
+    }
+
+    /**
+     * This method returns the greatest number of node which weight is equal to
+     * weight of the given node. Weights don`t decrease with numbers,
+     * so binary search is used.
+     */
+    private int findBlockLeader(int node) {
+        long nodeWeight = weight[node];
+        int low = node;
+        int high = ROOT;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (weight[middle] == nodeWeight) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * This method swaps subtrees of two nodes of equal weight.
+     * Nodes stay at their places in numbering, only their contents are exchanged.
+     */
+    private void swap(int first, int second) {
+        int tmp = symbol[first];
+        symbol[first] = symbol[second];
+        symbol[second] = tmp;
+
+        tmp = leftChild[first];
+        leftChild[first] = leftChild[second];
+        leftChild[second] = tmp;
+
+        tmp = rightChild[first];
+        rightChild[first] = rightChild[second];
+        rightChild[second] = tmp;
+
+        relink(first);
+        relink(second);
+    }
+
+    /**
+     * this method fixes references to the node after its content is changed
+     */
+    private void relink(int node) {
+        if (symbol[node] == INTERNAL) {
+            parent[leftChild[node]] = node;
+            parent[rightChild[node]] = node;
+        } else if (symbol[node] == NYT) {
+            nytNode = node;
+        } else {
+            leafOf[symbol[node]] = node;
+        }
+    }
+
+}
@@ -0,0 +1,198 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * This class collects cumulative counters of all runs of compressing/decompressing
+ * in this JVM. The only instance is available through JMX as
+ * 'com.shpp.p2p.cs.abaryshnikov.assignment15:type=ArchiverMetrics'.
+ */
+public class ArchiverMetrics implements ArchiverMetricsMXBean {
+
+    static final String OBJECT_NAME = "com.shpp.p2p.cs.abaryshnikov.assignment15:type=ArchiverMetrics";
+
+    /* system property that turns on registration of the MBean: -Dshpp.archiver.jmx=true */
+    static final String JMX_PROPERTY = "shpp.archiver.jmx";
+
+    private static final ArchiverMetrics INSTANCE = new ArchiverMetrics();
+
+    private final LongAdder filesCompressed = new LongAdder();
+    private final LongAdder filesDecompressed = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder bytesReadByCompressor = new LongAdder();
+    private final LongAdder bytesWrittenByCompressor = new LongAdder();
+    private final LongAdder bytesReadByDecompressor = new LongAdder();
+    private final LongAdder bytesWrittenByDecompressor = new LongAdder();
+    private final LongAdder compressNanos = new LongAdder();
+    private final LongAdder decompressNanos = new LongAdder();
+    private final Map<String, LongAdder> phaseNanos = new ConcurrentHashMap<>();
+
+    /* creating of platform MBean server takes hundreds of milliseconds, so the MBean is
+     * registered at once only in JVM that is started with JMX, other hosts call registerMBean() */
+    static {
+        if (System.getProperty("com.sun.management.jmxremote") != null || Boolean.getBoolean(JMX_PROPERTY)) {
+            registerMBean();
+        }
+    }
+
+    /**
+     * This method registers metrics in platform MBean server (if they are not registered yet)
+     */
+    public static synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(INSTANCE, name);
+            }
+        } catch (Exception e) {
+            /* metrics are still collected, they are only not visible through JMX */
+            System.err.println("Can`t register metrics MBean: " + e.getMessage());
+        }
+    }
+
+    private ArchiverMetrics() {}
+
+    static ArchiverMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * This method adds successfully compressed file
+     *
+     * @param inputSize     size of original file;
+     * @param outputSize    size of compressed file;
+     * @param nanos         time of compressing.
+     */
+    void addCompressed(long inputSize, long outputSize, long nanos) {
+        filesCompressed.increment();
+        bytesReadByCompressor.add(inputSize);
+        bytesWrittenByCompressor.add(outputSize);
+        compressNanos.add(nanos);
+    }
+
+    /**
+     * This method adds successfully decompressed file
+     *
+     * @param inputSize     size of compressed file;
+     * @param outputSize    size of decompressed file;
+     * @param nanos         time of decompressing.
+     */
+    void addDecompressed(long inputSize, long outputSize, long nanos) {
+        filesDecompressed.increment();
+        bytesReadByDecompressor.add(inputSize);
+        bytesWrittenByDecompressor.add(outputSize);
+        decompressNanos.add(nanos);
+    }
+
+    void addFailure() {
+        failures.increment();
+    }
+
+    void addPhaseTime(String operation, String phase, long nanos) {
+        phaseNanos.computeIfAbsent(operation + "." + phase, key -> new LongAdder()).add(nanos);
+    }
+
+    @Override
+    public long getFilesCompressed() {
+        return filesCompressed.sum();
+    }
+
+    @Override
+    public long getFilesDecompressed() {
+        return filesDecompressed.sum();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public long getBytesReadByCompressor() {
+        return bytesReadByCompressor.sum();
+    }
+
+    @Override
+    public long getBytesWrittenByCompressor() {
+        return bytesWrittenByCompressor.sum();
+    }
+
+    @Override
+    public long getBytesReadByDecompressor() {
+        return bytesReadByDecompressor.sum();
+    }
+
+    @Override
+    public long getBytesWrittenByDecompressor() {
+        return bytesWrittenByDecompressor.sum();
+    }
+
+    @Override
+    public long getCompressTimeMillis() {
+        return compressNanos.sum() / 1_000_000;
+    }
+
+    @Override
+    public long getDecompressTimeMillis() {
+        return decompressNanos.sum() / 1_000_000;
+    }
+
+    @Override
+    public double getCompressThroughput() {
+        return megabytesPerSecond(bytesReadByCompressor.sum(), compressNanos.sum());
+    }
+
+    @Override
+    public double getDecompressThroughput() {
+        return megabytesPerSecond(bytesWrittenByDecompressor.sum(), decompressNanos.sum());
+    }
+
+    @Override
+    public Map<String, Long> getPhaseTimesMillis() {
+        Map<String, Long> times = new TreeMap<>();
+        phaseNanos.forEach((phase, nanos) -> times.put(phase, nanos.sum() / 1_000_000));
+        return times;
+    }
+
+    @Override
+    public long getBufferPoolHits() {
+        return BufferPool.getHits();
+    }
+
+    @Override
+    public long getBufferPoolMisses() {
+        return BufferPool.getMisses();
+    }
+
+    @Override
+    public double getBufferPoolHitRate() {
+        return BufferPool.getHitRate();
+    }
+
+    @Override
+    public void reset() {
+        filesCompressed.reset();
+        filesDecompressed.reset();
+        failures.reset();
+        bytesReadByCompressor.reset();
+        bytesWrittenByCompressor.reset();
+        bytesReadByDecompressor.reset();
+        bytesWrittenByDecompressor.reset();
+        compressNanos.reset();
+        decompressNanos.reset();
+        phaseNanos.clear();
+        BufferPool.resetStatistics();
+    }
+
+    private static double megabytesPerSecond(long bytes, long nanos) {
+        return nanos == 0 ? 0 : bytes / 1048576.0 / (nanos / 1e9);
+    }
+
+}
@@ -0,0 +1,49 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import java.util.Map;
+
+/**
+ * This interface presents cumulative counters of the archiver that are
+ * available through JMX (jconsole, Prometheus JMX exporter etc.)
+ */
+public interface ArchiverMetricsMXBean {
+
+    long getFilesCompressed();
+
+    long getFilesDecompressed();
+
+    long getFailures();
+
+    long getBytesReadByCompressor();
+
+    long getBytesWrittenByCompressor();
+
+    long getBytesReadByDecompressor();
+
+    long getBytesWrittenByDecompressor();
+
+    long getCompressTimeMillis();
+
+    long getDecompressTimeMillis();
+
+    /** average speed of compressing in MB of original data per second */
+    double getCompressThroughput();
+
+    /** average speed of decompressing in MB of original data per second */
+    double getDecompressThroughput();
+
+    /** total time of every phase in milliseconds, keys are 'operation.phase' */
+    Map<String, Long> getPhaseTimesMillis();
+
+    /** requests of buffers that are served by free buffers of BufferPool */
+    long getBufferPoolHits();
+
+    /** requests of buffers that allocate new buffers */
+    long getBufferPoolMisses();
+
+    /** part of requests of buffers that are served without allocation, from 0 to 1 */
+    double getBufferPoolHitRate();
+
+    void reset();
+
+}
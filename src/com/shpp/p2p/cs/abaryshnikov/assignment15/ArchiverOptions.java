@@ -0,0 +1,149 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * This class contains settings of one run of compressing/decompressing
+ * that are provided with command line parameters
+ */
+public class ArchiverOptions implements Constants {
+
+    private int maxCodeLength = DEFAULT_MAX_CODE_LENGTH;
+    private int threadsNumber = Runtime.getRuntime().availableProcessors();
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+    private IOBackend ioBackend = IOBackend.STREAM;
+    private boolean adaptive = false;
+    private boolean order1 = false;
+    private boolean lz = false;
+    private boolean bwt = false;
+    private int level = DEFAULT_LZ_LEVEL;
+    private boolean pipelined = true;
+    private ParDictionary dictionary = null;
+    private boolean verbose = true;
+
+    /* pool that is shared by several files or null if each file creates its own pool */
+    private ExecutorService executor = null;
+
+    public int getMaxCodeLength() {
+        return maxCodeLength;
+    }
+
+    public void setMaxCodeLength(int maxCodeLength) {
+        this.maxCodeLength = maxCodeLength;
+    }
+
+    public int getThreadsNumber() {
+        return threadsNumber;
+    }
+
+    public void setThreadsNumber(int threadsNumber) {
+        this.threadsNumber = threadsNumber;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    public IOBackend getIOBackend() {
+        return ioBackend;
+    }
+
+    public void setIOBackend(IOBackend ioBackend) {
+        this.ioBackend = ioBackend;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    public boolean isOrder1() {
+        return order1;
+    }
+
+    public void setOrder1(boolean order1) {
+        this.order1 = order1;
+    }
+
+    public boolean isLz() {
+        return lz;
+    }
+
+    public void setLz(boolean lz) {
+        this.lz = lz;
+    }
+
+    public boolean isBwt() {
+        return bwt;
+    }
+
+    public void setBwt(boolean bwt) {
+        this.bwt = bwt;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    public ParDictionary getDictionary() {
+        return dictionary;
+    }
+
+    public void setDictionary(ParDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    public boolean isVerbose() {
+        return verbose;
+    }
+
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * This method returns shared pool of threads or creates new pool
+     * that must be closed with releasePool()
+     */
+    ExecutorService acquirePool() {
+        return executor != null ? executor : Executors.newFixedThreadPool(threadsNumber);
+    }
+
+    /**
+     * This method closes pool that was created by acquirePool(), shared pool stays open
+     */
+    void releasePool(ExecutorService pool) {
+        if (pool != executor) {
+            pool.shutdownNow();
+        }
+    }
+
+}
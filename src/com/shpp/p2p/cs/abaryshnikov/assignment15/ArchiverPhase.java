@@ -0,0 +1,90 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import jdk.jfr.FlightRecorder;
+
+/**
+ * This class measures one phase of compressing/decompressing. Time of the phase
+ * is added to ArchiverMetrics and, if Flight Recorder is running, the phase
+ * is reported as PhaseEvent.
+ *
+ * Loading of JFR event classes takes hundreds of milliseconds, so events
+ * are not touched at all while Flight Recorder is not initialized.
+ */
+public class ArchiverPhase {
+
+    static final String COMPRESS = "compress";
+    static final String DECOMPRESS = "decompress";
+
+    static final String HISTOGRAM = "histogram";
+    static final String TREE = "tree";
+    static final String HEADER = "header";
+    static final String ENCODE = "encode";
+    static final String DECODE = "decode";
+    static final String FLUSH = "flush";
+
+    private final String operation;
+    private final String phase;
+    private final long startNanos;
+    private final PhaseEvent event;
+
+    private ArchiverPhase(String operation, String phase, String fileName) {
+        this.operation = operation;
+        this.phase = phase;
+        this.event = FlightRecorder.isInitialized() ? createEvent(operation, phase, fileName) : null;
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * This method starts timing of the phase
+     *
+     * @param operation compress or decompress;
+     * @param phase     name of phase;
+     * @param fileName  name of input file;
+     * @return          started phase.
+     */
+    static ArchiverPhase start(String operation, String phase, String fileName) {
+        return new ArchiverPhase(operation, phase, fileName);
+    }
+
+    private static PhaseEvent createEvent(String operation, String phase, String fileName) {
+        PhaseEvent event = new PhaseEvent();
+        event.operation = operation;
+        event.phase = phase;
+        event.fileName = fileName;
+        event.begin();
+        return event;
+    }
+
+    /**
+     * This method adds statistics of code that is built or read in this phase to the event
+     *
+     * @param lengths       code length of every symbol (0 if symbol has no code);
+     * @param frequencies   frequency of every symbol or null if they are unknown.
+     */
+    void setCode(byte[] lengths, long[] frequencies) {
+        if (event != null) {
+            event.setCode(lengths, frequencies);
+        }
+    }
+
+    /**
+     * This method ends the phase, adds its time to metrics and commits the event
+     *
+     * @param bytesIn   number of bytes that are read in this phase;
+     * @param bytesOut  number of bytes that are written in this phase.
+     */
+    void finish(long bytesIn, long bytesOut) {
+        long nanos = System.nanoTime() - startNanos;
+        ArchiverMetrics.getInstance().addPhaseTime(operation, phase, nanos);
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.bytesIn = bytesIn;
+                event.bytesOut = bytesOut;
+                event.bytesPerSecond = Math.max(bytesIn, bytesOut) * 1_000_000_000L / Math.max(nanos, 1);
+                event.commit();
+            }
+        }
+    }
+
+}
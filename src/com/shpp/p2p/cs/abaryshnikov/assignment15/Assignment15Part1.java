@@ -1,5 +1,7 @@
 package com.shpp.p2p.cs.abaryshnikov.assignment15;
 
+import java.util.Arrays;
+
 /**
  * ShPP Archiver
  *
@@ -23,11 +25,50 @@ public class Assignment15Part1 implements Constants {
         String name_of_archived_file;
         String name_of_unarchived_file;
 
+        /* options go before other parameters */
+        ArchiverOptions options = new ArchiverOptions();
+        int firstParameter = parseOptions(args, options);
+        if (firstParameter < 0) {
+            System.err.println("Please, check parameters input or use parameter '-help' to get help:)");
+            return;
+        }
+        args = Arrays.copyOfRange(args, firstParameter, args.length);
+
+        /* compressing/decompressing many files */
+        if (args.length > 0 && args[0].equals("-batch")) {
+            if (args.length < 3 || !(args[1].equals("a") || args[1].equals("u"))) {
+                System.err.println("Please, check parameters input or use parameter '-help' to get help:)");
+                return;
+            }
+            BatchProcessor.run(args[1].equals("a"), Arrays.copyOfRange(args, 2, args.length), options);
+            return;
+        }
+
+        /* training of shared code table on samples */
+        if (args.length > 0 && args[0].equals("-train")) {
+            if (args.length != 3) {
+                System.err.println("Please, check parameters input or use parameter '-help' to get help:)");
+                return;
+            }
+            if (ParDictionary.train(args[1], args[2], options) != RETURN_VALUE_SUCCESS) {
+                System.err.println("Some error occurred during training of dictionary.");
+                return;
+            }
+            System.out.println("Dictionary is trained successfully!");
+            return;
+        }
+
+        /* working with multi-file archives */
+        if (args.length > 0 && (args[0].equals("-pack") || args[0].equals("-list") || args[0].equals("-unpack"))) {
+            processArchive(args, options);
+            return;
+        }
+
         /* default logic, no parameters are provided */
         if (args.length == 0) {
             name_of_input_file = "test.txt";
             name_of_archived_file = "test.txt.par";
-            int result = Compressor.compress(name_of_input_file, name_of_archived_file);
+            int result = Compressor.compress(name_of_input_file, name_of_archived_file, options);
             ifCompressedCorrectly(result);
             return;
         }
@@ -42,27 +83,62 @@ public class Assignment15Part1 implements Constants {
 
             name_of_input_file = args[0];
             int indexOfExtDot = name_of_input_file.lastIndexOf( ".");
-            String extension = name_of_input_file.substring(indexOfExtDot );
+            String extension = indexOfExtDot < 0 ? "" : name_of_input_file.substring(indexOfExtDot );
 
             if ( extension.equals(".par") ){
-                int result = Decompressor.decompress(name_of_input_file, (name_of_input_file.substring(0, indexOfExtDot ) + ".uar"));
+                int result = Decompressor.decompress(name_of_input_file, (name_of_input_file.substring(0, indexOfExtDot ) + ".uar"), options);
                 ifDecompressedCorrectly(result);
                 return;
             }
 
             name_of_archived_file = name_of_input_file + ".par";
-            int result =  Compressor.compress(name_of_input_file, name_of_archived_file);
+            int result =  Compressor.compress(name_of_input_file, name_of_archived_file, options);
             ifCompressedCorrectly(result);
             return;
         }
 
+        /* decoding and checking of compressed file without writing of the result */
+        if (args.length == 2 && args[0].equals("-test")) {
+            int result = Decompressor.test(args[1], options);
+            if (result != RETURN_VALUE_SUCCESS) {
+                System.err.println("Compressed file is corrupted or can`t be read.");
+                return;
+            }
+            System.out.println("File is OK!");
+            return;
+        }
+
+        /* decompressing of range of original data: '-range f.par offset length out' */
+        if (args.length == 5 && args[0].equals("-range")) {
+            if (IOStreamManager.isStandardStream(args[4])) {
+                System.setOut(System.err);
+            }
+            long offset;
+            long length;
+            try {
+                offset = Long.parseLong(args[2]);
+                length = Long.parseLong(args[3]);
+            } catch (NumberFormatException e) {
+                System.err.println("Please, check parameters input or use parameter '-help' to get help:)");
+                return;
+            }
+            int result = RangeDecoder.decompressRange(args[1], args[4], offset, length, options);
+            ifDecompressedCorrectly(result);
+            return;
+        }
+
         /* compressing/decompressing when additional flags are provided */
         if (args.length == 3) {
 
+            /* standard output is taken by data, so messages are printed to standard error */
+            if (IOStreamManager.isStandardStream(args[2])) {
+                System.setOut(System.err);
+            }
+
             if (args[0].equals("-a") ){
                 name_of_input_file = args[1];
                 name_of_archived_file = args[2];
-                int result = Compressor.compress(name_of_input_file, name_of_archived_file);
+                int result = Compressor.compress(name_of_input_file, name_of_archived_file, options);
                 ifCompressedCorrectly(result);
                 return;
             }
@@ -70,7 +146,7 @@ public class Assignment15Part1 implements Constants {
             if (args[0].equals("-u") ){
                 name_of_archived_file = args[1];
                 name_of_unarchived_file = args[2];
-                int result = Decompressor.decompress(name_of_archived_file, name_of_unarchived_file);
+                int result = Decompressor.decompress(name_of_archived_file, name_of_unarchived_file, options);
                 ifDecompressedCorrectly(result);
                 return;
             }
@@ -82,6 +158,124 @@ public class Assignment15Part1 implements Constants {
         System.err.println("Please, check parameters input or use parameter '-help' to get help:)");
     }
 
+    /**
+     * This method reads options ('-t N' - number of threads, '-b N' - size of block in MB,
+     * '-io stream|channel|mmap' - I/O backend, '-m huffman|adaptive|order1|lz|bwt' - method of compressing,
+     * '-l N' - level of LZ compression, '-pipe on|off' - reading and writing by separate threads,
+     * '-dict f' - shared code table)
+     * that go before other parameters
+     * and puts them into settings.
+     *
+     * @param args      command line parameters;
+     * @param options   settings that are filled with options;
+     * @return          index of the first parameter that is not an option or -1 if options are wrong.
+     */
+    private static int parseOptions(String[] args, ArchiverOptions options) {
+        int i = 0;
+        while (i + 1 < args.length && (args[i].equals("-t") || args[i].equals("-b")
+            || args[i].equals("-io") || args[i].equals("-m") || args[i].equals("-l") || args[i].equals("-pipe")
+            || args[i].equals("-dict"))) {
+
+            if (args[i].equals("-m")) {
+                String method = args[i + 1];
+                if (!method.equals("huffman") && !method.equals("adaptive")
+                    && !method.equals("order1") && !method.equals("lz") && !method.equals("bwt")) {
+                    return -1;
+                }
+                options.setAdaptive(method.equals("adaptive"));
+                options.setOrder1(method.equals("order1"));
+                options.setLz(method.equals("lz"));
+                options.setBwt(method.equals("bwt"));
+                i += 2;
+                continue;
+            }
+
+            if (args[i].equals("-pipe")) {
+                if (!args[i + 1].equals("on") && !args[i + 1].equals("off")) {
+                    return -1;
+                }
+                options.setPipelined(args[i + 1].equals("on"));
+                i += 2;
+                continue;
+            }
+
+            if (args[i].equals("-dict")) {
+                try {
+                    options.setDictionary(ParDictionary.load(args[i + 1]));
+                } catch (Exception e) {
+                    System.err.println("Can`t load dictionary [" + args[i + 1] + "]: " + e.getMessage());
+                    return -1;
+                }
+                i += 2;
+                continue;
+            }
+
+            if (args[i].equals("-io")) {
+                IOBackend backend = IOBackend.fromName(args[i + 1]);
+                if (backend == null) {
+                    return -1;
+                }
+                options.setIOBackend(backend);
+                i += 2;
+                continue;
+            }
+
+            int value;
+            try {
+                value = Integer.parseInt(args[i + 1]);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+
+            if (args[i].equals("-t")) {
+                if (value < 1) {
+                    return -1;
+                }
+                options.setThreadsNumber(value);
+            } else if (args[i].equals("-l")) {
+                if (value < MIN_LZ_LEVEL || value > MAX_LZ_LEVEL) {
+                    return -1;
+                }
+                options.setLevel(value);
+            } else {
+                if (value < MIN_BLOCK_SIZE_MB || value > MAX_BLOCK_SIZE_MB) {
+                    return -1;
+                }
+                options.setBlockSize(value << 20);
+            }
+            i += 2;
+        }
+        return i;
+    }
+
+    /**
+     * This method packs, lists or unpacks multi-file archive:
+     * '-pack dir f.par', '-list f.par' or '-unpack f.par dir [entry]'.
+     *
+     * @param args      command line parameters without options;
+     * @param options   settings of compressing/decompressing.
+     */
+    private static void processArchive(String[] args, ArchiverOptions options) {
+
+        int result;
+        if (args[0].equals("-pack") && args.length == 3) {
+            result = ParArchive.pack(args[1], args[2], options);
+        } else if (args[0].equals("-list") && args.length == 2) {
+            result = ParArchive.list(args[1]);
+        } else if (args[0].equals("-unpack") && (args.length == 3 || args.length == 4)) {
+            result = ParArchive.unpack(args[1], args[2], args.length == 4 ? args[3] : null, options);
+        } else {
+            System.err.println("Please, check parameters input or use parameter '-help' to get help:)");
+            return;
+        }
+
+        if (result != RETURN_VALUE_SUCCESS) {
+            System.err.println("Some error occurred while working with archive.");
+            return;
+        }
+        System.out.println("Done!");
+    }
+
     /**
      * This method checks the returned result of the decompressing function
      * and provides appropriate CLI output.
@@ -141,6 +335,66 @@ public class Assignment15Part1 implements Constants {
                            "  |    >*program*  -a f.ext f.ext.par |      f.ext compressed to f.ext.par   |\n" +
                            "  |    >*program*  -u f.ext.par f.ext |      f.ext.par decompressed to f.ext |\n" +
                            "  ----------------------------------------------------------------------------\n" +
+                           "    Name '-' means standard input/output (such data are compressed by frames,\n" +
+                           "so the whole input is never kept in memory). For example:\n" +
+                           "  >*program*  -a - f.ext.par < f.ext\n" +
+                           "  >*program*  -u f.ext.par - | less\n" +
+                           "Methods '-m adaptive|lz|bwt' code standard input and named pipes in one pass\n" +
+                           "too, their size is written to header after coding, so output must be a file.\n" +
+                           "\n" +
+                           "    Compressed data contain checksums (CRC32C), so damaged file is detected\n" +
+                           "when it is decompressed. File can be checked without writing of the result:\n" +
+                           "  >*program*  -test f.ext.par\n" +
+                           "\n" +
+                           "    Part of original data is decoded without decoding of the whole file: only\n" +
+                           "regions of 1 MB (or blocks) that overlap the range are read, recently decoded\n" +
+                           "regions are kept in memory for the next reads. Files of 'huffman' method\n" +
+                           "(without filter), files of blocks and files with dictionary are supported:\n" +
+                           "  >*program*  -range f.ext.par 1048576 4096 part.ext  - 4 KB from offset 1 MB\n" +
+                           "\n" + 
+                           "    Several files are packed into one archive with its own directory, so files\n" +
+                           "can be listed and extracted one by one without decoding of the whole archive:\n" +
+                           "  >*program*  -pack dir dir.par              - packs files and empty directories\n" +
+                           "  >*program*  -list dir.par                  - shows files of archive\n" +
+                           "  >*program*  -unpack dir.par out            - extracts all files into 'out'\n" +
+                           "  >*program*  -unpack dir.par out a/b.txt    - extracts one file\n" +
+                           "\n" +
+                           "    Small files of one kind are compressed better with shared code table that\n" +
+                           "is trained on samples and kept in dictionary file. Compressed file keeps only\n" +
+                           "ID of the dictionary, the same dictionary is needed to decompress it:\n" +
+                           "  >*program*  -train samples dict.pdc           - trains dictionary\n" +
+                           "  >*program*  -dict dict.pdc -batch a logs      - compresses with it\n" +
+                           "  >*program*  -dict dict.pdc -batch u logs      - decompresses\n" +
+                           "\n" +
+                           "    Many files are compressed/decompressed at once with '-batch a' / '-batch u'.\n" +
+                           "Files may be given by names, directories, patterns or lists ('@list.txt'),\n" +
+                           "each 'f' is compressed to 'f.par' and each 'f.par' is decompressed to 'f.uar':\n" +
+                           "  >*program*  -batch a logs '*.txt' @list.txt\n" +
+                           "  >*program*  -batch u logs\n" +
+                           "\n" +
+                           "    Options go before other parameters:\n" +
+                           "  -t N   number of threads (all cores by default). Files that are larger\n" +
+                           "         than one block are compressed in independent blocks in parallel;\n" +
+                           "         '-t 1' always gives single-tree '.par' file\n" +
+                           "  -b N   size of block in MB, from 1 to 16 (4 by default)\n" +
+                           "  -io X  the way files are read and written: 'stream' (by default),\n" +
+                           "         'channel' (FileChannel with direct buffers) or 'mmap' (files are\n" +
+                           "         mapped into memory, decompressed file is preallocated)\n" +
+                           "  -m X   method of compressing: 'huffman' (by default), 'adaptive' -\n" +
+                           "         adaptive Huffman code, input file is read only once, or\n" +
+                           "         'order1' - code table is chosen by the previous byte (texts),\n" +
+                           "         'lz' - repeated strings are replaced with references back,\n" +
+                           "         or 'bwt' - blocks are sorted (Burrows-Wheeler) on all cores\n" +
+                           "  -l N   level of 'lz' method, from 1 (fast) to 9 (best), 6 by default\n" +
+                           "  -pipe X  'on' (by default) - files are read and written by separate threads\n" +
+                           "         while data are coded, the stall report shows the slowest stage,\n" +
+                           "         or 'off' - everything is done in one thread\n" +
+                           "  -dict F  dictionary that is trained with '-train' (see above)\n" +
+                           "\n" +
+                           "    Data that coding doesn`t make smaller (already compressed media) are stored\n" +
+                           "as they are by 'huffman' and 'order1' methods and in blocks. 'adaptive' method\n" +
+                           "writes its code while it reads the input, so it has no such fallback and such\n" +
+                           "data grow a little.\n" +
                            "\n" +
                            "    Have fun!:)\n");
     }
@@ -0,0 +1,221 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Stream;
+
+/**
+ * This class compresses/decompresses many files in one run.
+ *
+ * Every file is a job on work-stealing ForkJoinPool. The same pool is given to
+ * compressor/decompressor of each file, so blocks of large files are coded as separate
+ * tasks of the pool and threads that are free take them instead of waiting for one
+ * huge file. Large buffers are taken from BufferPool and reused between files.
+ */
+public class BatchProcessor implements Constants {
+
+    /**
+     * This method processes all files that are given by names, directories,
+     * glob patterns ('dir/*.txt', 'logs/**.log') or lists of files ('@list.txt').
+     * Each file 'f' is compressed to 'f.par', each file 'f.par' is decompressed to 'f.uar'.
+     *
+     * @param isCompressing true for compressing, false for decompressing;
+     * @param inputs        names, directories, patterns or lists of files;
+     * @param options       settings of compressing/decompressing;
+     * @return              result that is successful if all files are processed.
+     */
+    public static int run(boolean isCompressing, String[] inputs, ArchiverOptions options) {
+
+        Set<Path> files = new LinkedHashSet<>();
+        try {
+            for (String input : inputs) {
+                collectFiles(input, isCompressing, files);
+            }
+        } catch (IOException e) {
+            System.err.println("Can`t read list of files: " + e.getMessage());
+            return RETURN_VALUE_FAIL;
+        }
+        if (files.isEmpty()) {
+            System.err.println("No files to process");
+            return RETURN_VALUE_FAIL;
+        }
+
+        System.out.println((isCompressing ? "Compressing" : "Decompressing") + " [" + files.size() + "] files ...");
+        long start = System.currentTimeMillis();
+
+        /* files and their blocks share one pool, messages of single files are not printed */
+        ForkJoinPool pool = new ForkJoinPool(options.getThreadsNumber());
+        options.setExecutor(pool);
+        options.setVerbose(false);
+
+        List<FileJob> jobs = new ArrayList<>();
+        for (Path file : files) {
+            jobs.add(new FileJob(isCompressing, file.toString(), outputName(file.toString(), isCompressing), options));
+        }
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    ForkJoinTask.invokeAll(jobs);
+                }
+            });
+        } finally {
+            pool.shutdownNow();
+            options.setExecutor(null);
+        }
+
+        return printSummary(jobs, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * this method prints aggregate sizes, throughput and failed files
+     */
+    private static int printSummary(List<FileJob> jobs, long time) {
+        long inputBytes = 0;
+        long outputBytes = 0;
+        List<String> failed = new ArrayList<>();
+        for (FileJob job : jobs) {
+            if (job.result == RETURN_VALUE_SUCCESS) {
+                inputBytes += job.inputSize;
+                outputBytes += job.outputSize;
+            } else {
+                failed.add(job.inputFName);
+            }
+        }
+
+        double megabytesPerSecond = inputBytes / 1048576.0 / Math.max(time, 1) * 1000;
+        System.out.println("Time of processing: \t\t[" + time + "] ms"
+            + "\nFiles processed: \t\t\t[" + (jobs.size() - failed.size()) + "]"
+            + "\nFiles failed: \t\t\t\t[" + failed.size() + "]"
+            + "\nSize of input files: \t\t[" + inputBytes + "] bytes"
+            + "\nSize of output files: \t\t[" + outputBytes + "] bytes"
+            + "\nThroughput: \t\t\t\t[" + String.format("%.1f", megabytesPerSecond) + "] MB/s"
+            + "\n" + BufferPool.statistics());
+        for (String fName : failed) {
+            System.err.println("Failed: [" + fName + "]");
+        }
+
+        return failed.isEmpty() ? RETURN_VALUE_SUCCESS : RETURN_VALUE_FAIL;
+    }
+
+    /**
+     * This method adds files that are given by one input parameter to the set
+     *
+     * @param input         name of file or directory, glob pattern or '@' with name of list;
+     * @param isCompressing '.par' files are skipped in directories when compressing
+     *                      and only they are taken when decompressing;
+     * @param files         set of files.
+     */
+    private static void collectFiles(String input, boolean isCompressing, Set<Path> files) throws IOException {
+
+        /* list of files, one name (or pattern) per line */
+        if (input.startsWith("@")) {
+            for (String line : Files.readAllLines(Paths.get(input.substring(1)))) {
+                if (!line.isBlank()) {
+                    collectFiles(line.trim(), isCompressing, files);
+                }
+            }
+            return;
+        }
+
+        /* glob pattern, the part before the first wildcard is the directory to walk */
+        int wildcard = indexOfWildcard(input);
+        if (wildcard >= 0) {
+            int separator = input.lastIndexOf('/', wildcard);
+            Path base = Paths.get(separator < 0 ? "" : input.substring(0, separator + 1));
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + input);
+            try (Stream<Path> walk = Files.walk(base)) {
+                walk.filter(Files::isRegularFile)
+                    .filter(matcher::matches)
+                    .filter(file -> isSuitable(file, isCompressing))
+                    .sorted()
+                    .forEach(files::add);
+            }
+            return;
+        }
+
+        Path path = Paths.get(input);
+        if (Files.isDirectory(path)) {
+            try (Stream<Path> walk = Files.walk(path)) {
+                walk.filter(Files::isRegularFile)
+                    .filter(file -> isSuitable(file, isCompressing))
+                    .sorted()
+                    .forEach(files::add);
+            }
+            return;
+        }
+
+        /* file that is named directly is always taken */
+        files.add(path);
+    }
+
+    private static int indexOfWildcard(String input) {
+        for (int i = 0; i < input.length(); i++) {
+            if ("*?[{".indexOf(input.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isSuitable(Path file, boolean isCompressing) {
+        return file.toString().endsWith(".par") != isCompressing;
+    }
+
+    /**
+     * this method returns name of output file in the same way as it is done for one file
+     */
+    private static String outputName(String inputFName, boolean isCompressing) {
+        if (isCompressing) {
+            return inputFName + ".par";
+        }
+        return inputFName.endsWith(".par")
+            ? inputFName.substring(0, inputFName.length() - ".par".length()) + ".uar"
+            : inputFName + ".uar";
+    }
+
+    /**
+     * This class is a job of compressing/decompressing of one file
+     */
+    private static class FileJob extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final boolean isCompressing;
+        private final String inputFName;
+        private final String outputFName;
+        private final ArchiverOptions options;
+
+        private int result = RETURN_VALUE_FAIL;
+        private long inputSize = 0;
+        private long outputSize = 0;
+
+        FileJob(boolean isCompressing, String inputFName, String outputFName, ArchiverOptions options) {
+            this.isCompressing = isCompressing;
+            this.inputFName = inputFName;
+            this.outputFName = outputFName;
+            this.options = options;
+        }
+
+        @Override
+        protected void compute() {
+            result = isCompressing
+                ? Compressor.compress(inputFName, outputFName, options)
+                : Decompressor.decompress(inputFName, outputFName, options);
+            inputSize = IOStreamManager.getFileSize(inputFName);
+            outputSize = IOStreamManager.getFileSize(outputFName);
+        }
+    }
+
+}
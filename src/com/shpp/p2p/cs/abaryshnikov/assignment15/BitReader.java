@@ -0,0 +1,146 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * This class reads compressed bitstream from input stream (or from byte array)
+ * through 64-bit accumulator. Bits are taken in the same order as they are written
+ * by compressor: from the least significant bit of each byte to the most significant one.
+ */
+public class BitReader implements Constants {
+
+    private static final VarHandle LONG_LE =
+        MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final InputStream fin;
+    private final byte[] buffer;
+    private final int startOffset;
+    private int position;
+    private int limit;
+
+    /* accumulator of bits that are read from buffer but not consumed yet */
+    long bitBuffer = 0;
+    int bitCount = 0;
+
+    /**
+     * Constructor for reading bits from input stream
+     *
+     * @param fin           input stream that is positioned at the start of bitstream;
+     * @param bufferSize    size of internal buffer in bytes.
+     */
+    BitReader(InputStream fin, int bufferSize) {
+        this(fin, new byte[bufferSize]);
+    }
+
+    /**
+     * Constructor for reading bits from input stream through given buffer
+     *
+     * @param fin       input stream that is positioned at the start of bitstream;
+     * @param buffer    buffer that is used by reader.
+     */
+    BitReader(InputStream fin, byte[] buffer) {
+        this.fin = fin;
+        this.buffer = buffer;
+        this.startOffset = 0;
+        this.position = 0;
+        this.limit = 0;
+    }
+
+    /**
+     * Constructor for reading bits from byte array that is already in RAM
+     *
+     * @param data      array that contains bitstream;
+     * @param offset    index of the first byte of bitstream;
+     * @param length    number of bytes of bitstream.
+     */
+    BitReader(byte[] data, int offset, int length) {
+        this.fin = null;
+        this.buffer = data;
+        this.startOffset = offset;
+        this.position = offset;
+        this.limit = offset + length;
+    }
+
+    /**
+     * This method fills accumulator with at least 57 bits
+     * if input contains enough data. Otherwise all remaining bits are taken
+     * and unused high bits of accumulator stay zeroes.
+     */
+    void refill() throws IOException {
+
+        /* fast path: taking whole word at once while buffer has at least 8 bytes */
+        if (limit - position >= LONG_SIZE_IN_BYTES) {
+            long word = (long) LONG_LE.get(buffer, position);
+            bitBuffer |= word << bitCount;
+            int bytesTaken = (63 - bitCount) >>> 3;
+            position += bytesTaken;
+            bitCount += bytesTaken << 3;
+            return;
+        }
+
+        /* slow path: taking bytes one by one near the end of buffer */
+        while (bitCount <= 56) {
+            if (position == limit && !fillBuffer()) {
+                return;
+            }
+            bitBuffer |= (buffer[position++] & 0xFFL) << bitCount;
+            bitCount += 8;
+        }
+    }
+
+    /**
+     * This method reads next chunk of data from input stream into internal buffer.
+     * Returns false if there is no more data.
+     */
+    private boolean fillBuffer() throws IOException {
+        if (fin == null) {
+            return false;
+        }
+        int read = fin.read(buffer, 0, buffer.length);
+        position = 0;
+        limit = Math.max(read, 0);
+        return read > 0;
+    }
+
+    /**
+     * This method drops given number of bits from accumulator
+     *
+     * @param bitsNumber number of consumed bits, must not exceed number of available bits.
+     */
+    void consume(int bitsNumber) {
+        bitBuffer >>>= bitsNumber;
+        bitCount -= bitsNumber;
+    }
+
+    /**
+     * This method reads given number of bits
+     *
+     * @param bitsNumber    number of bits (up to 32);
+     * @return              read bits, the first read bit is the lowest one;
+     * @throws IOException  when bitstream ends before all bits are read.
+     */
+    int readBits(int bitsNumber) throws IOException {
+        if (bitCount < bitsNumber) {
+            refill();
+            if (bitCount < bitsNumber) {
+                throw new IOException("Compressed data is corrupted or truncated");
+            }
+        }
+        int bits = (int) (bitBuffer & ((1L << bitsNumber) - 1));
+        consume(bitsNumber);
+        return bits;
+    }
+
+    /**
+     * This method returns number of bits that are consumed from the start of byte array.
+     * It is used only for readers that are created on byte array.
+     */
+    long getBitPosition() {
+        return ((long) (position - startOffset) << 3) - bitCount;
+    }
+
+}
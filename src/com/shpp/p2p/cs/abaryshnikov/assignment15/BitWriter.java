@@ -0,0 +1,190 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * This class writes compressed bitstream to output stream through 64-bit accumulator
+ * and reusable byte buffer. Bits are put starting from the least significant bit
+ * of each byte, the last byte is completed with zero bits.
+ */
+public class BitWriter implements Constants {
+
+    private static final VarHandle INT_LE =
+        MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final OutputStream fout;
+    private final byte[] buffer;
+    private int position = 0;
+
+    /* accumulator of bits that are not written to buffer yet, always less than 32 bits between calls */
+    private long bitBuffer = 0;
+    private int bitCount = 0;
+
+    /* number of bytes that are passed to output stream */
+    private long writtenBytes = 0;
+
+    /**
+     * Constructor for writing bits to output stream
+     *
+     * @param fout          output stream;
+     * @param bufferSize    size of internal buffer in bytes (at least 8 bytes).
+     */
+    BitWriter(OutputStream fout, int bufferSize) {
+        this(fout, new byte[bufferSize]);
+    }
+
+    /**
+     * Constructor for writing bits to output stream through given buffer
+     *
+     * @param fout      output stream;
+     * @param buffer    buffer that is used by writer until finish() (at least 8 bytes).
+     */
+    BitWriter(OutputStream fout, byte[] buffer) {
+        this.fout = fout;
+        this.buffer = buffer;
+    }
+
+    /**
+     * This method appends bits to bitstream
+     *
+     * @param bits          bits to be written, the lowest bit is written first;
+     * @param bitsNumber    number of significant bits (up to 32).
+     */
+    void writeBits(int bits, int bitsNumber) throws IOException {
+        bitBuffer |= (bits & 0xFFFFFFFFL) << bitCount;
+        bitCount += bitsNumber;
+        if (bitCount >= 32) {
+            if (position > buffer.length - INT_SIZE_IN_BYTES) {
+                flushBuffer();
+            }
+            INT_LE.set(buffer, position, (int) bitBuffer);
+            position += INT_SIZE_IN_BYTES;
+            bitBuffer >>>= 32;
+            bitCount -= 32;
+        }
+    }
+
+    /**
+     * This method encodes bytes of data with given code table and appends the codes
+     * to bitstream. Accumulator is kept in local variables, nothing is allocated.
+     *
+     * @param data      array with bytes to be encoded;
+     * @param offset    index of the first byte;
+     * @param length    number of bytes;
+     * @param codes     code of every byte value (the lowest bit is written first);
+     * @param lengths   code length of every byte value (up to 32 bits).
+     */
+    void writeSymbols(byte[] data, int offset, int length, int[] codes, byte[] lengths) throws IOException {
+        long accumulator = bitBuffer;
+        int accumulatedBits = bitCount;
+        int pos = position;
+        int end = offset + length;
+
+        for (int i = offset; i < end; i++) {
+            int symbol = data[i] & 0xFF;
+            accumulator |= (codes[symbol] & 0xFFFFFFFFL) << accumulatedBits;
+            accumulatedBits += lengths[symbol];
+
+            if (accumulatedBits >= 32) {
+                if (pos > buffer.length - INT_SIZE_IN_BYTES) {
+                    position = pos;
+                    flushBuffer();
+                    pos = 0;
+                }
+                INT_LE.set(buffer, pos, (int) accumulator);
+                pos += INT_SIZE_IN_BYTES;
+                accumulator >>>= 32;
+                accumulatedBits -= 32;
+            }
+        }
+
+        bitBuffer = accumulator;
+        bitCount = accumulatedBits;
+        position = pos;
+    }
+
+    /**
+     * This method encodes bytes of data with order-1 code: code table of every byte
+     * is chosen by the previous byte. Tables are kept one after another in flat arrays.
+     *
+     * @param data              array with bytes to be encoded;
+     * @param offset            index of the first byte;
+     * @param length            number of bytes;
+     * @param previous          byte that precedes the first byte (0 at the start of data);
+     * @param codes             codes of all tables;
+     * @param lengths           code lengths of all tables;
+     * @param contextOffsets    index of the first entry of table for every previous byte.
+     */
+    void writeContextSymbols(byte[] data, int offset, int length, int previous,
+                             int[] codes, byte[] lengths, int[] contextOffsets) throws IOException {
+        long accumulator = bitBuffer;
+        int accumulatedBits = bitCount;
+        int pos = position;
+        int end = offset + length;
+
+        for (int i = offset; i < end; i++) {
+            int symbol = data[i] & 0xFF;
+            int index = contextOffsets[previous] + symbol;
+            previous = symbol;
+            accumulator |= (codes[index] & 0xFFFFFFFFL) << accumulatedBits;
+            accumulatedBits += lengths[index];
+
+            if (accumulatedBits >= 32) {
+                if (pos > buffer.length - INT_SIZE_IN_BYTES) {
+                    position = pos;
+                    flushBuffer();
+                    pos = 0;
+                }
+                INT_LE.set(buffer, pos, (int) accumulator);
+                pos += INT_SIZE_IN_BYTES;
+                accumulator >>>= 32;
+                accumulatedBits -= 32;
+            }
+        }
+
+        bitBuffer = accumulator;
+        bitCount = accumulatedBits;
+        position = pos;
+    }
+
+    /**
+     * This method completes the last byte with zero bits and writes
+     * all remaining data to output stream
+     */
+    void finish() throws IOException {
+        while (bitCount > 0) {
+            if (position == buffer.length) {
+                flushBuffer();
+            }
+            buffer[position++] = (byte) bitBuffer;
+            bitBuffer >>>= 8;
+            bitCount = Math.max(bitCount - 8, 0);
+        }
+        bitBuffer = 0;
+        flushBuffer();
+    }
+
+    /**
+     * this method writes content of internal buffer to output stream
+     */
+    private void flushBuffer() throws IOException {
+        IOStreamManager.writeFromBufferToStream(fout, buffer, position);
+        writtenBytes += position;
+        position = 0;
+    }
+
+    /** returns number of bits that are written to bitstream (including buffered ones) */
+    long getBitPosition() {
+        return ((writtenBytes + position) << 3) + bitCount;
+    }
+
+    /** returns number of bytes that are written to output stream */
+    long getWrittenBytes() {
+        return writtenBytes;
+    }
+
+}
@@ -0,0 +1,380 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32C;
+
+/**
+ * This class is used for compressing/decompressing files in block mode.
+ *
+ * Input is cut into blocks of fixed size and each block gets its own canonical
+ * Huffman code and bitstream, so blocks are coded in parallel on a pool of threads
+ * and written in order. Layout of the compressed file:
+ *
+ *  header | block size | block 0 | block 1 | ... | block table | blocks number | table offset | checksum
+ *
+ * where each block is code lengths followed by bitstream (or zero byte followed by
+ * stored data if coding doesn`t make the block smaller) and each entry of block table
+ * contains offset of the block in file, its compressed size, its original size and
+ * CRC32C of its original bytes. Since version 3 of format checksum of the whole data
+ * follows the footer, older files have neither checksums of blocks nor the last one.
+ */
+public class BlockCodec implements Constants {
+
+    /*
+     * Following chunk of code contains methods for compressing
+     *  |
+     *  V
+     */
+
+    /**
+     * This method compresses input stream block by block and writes blocks
+     * and block table to output stream
+     *
+     * @param fin           input stream that contains uncompressed data;
+     * @param fout          output stream that is positioned after the header;
+     * @param headerSize    number of bytes that are already written to output file;
+     * @param options       block size, maximal code length and number of threads;
+     * @throws Exception    when compressing is failed.
+     */
+    static void compressBlocks(InputStream fin, OutputStream fout, long headerSize,
+                               ArchiverOptions options) throws Exception {
+
+        int blockSize = options.getBlockSize();
+        int maxCodeLength = options.getMaxCodeLength();
+        int threadsNumber = options.getThreadsNumber();
+
+        List<long[]> blockTable = new ArrayList<>();
+        long offset = headerSize;
+
+        ExecutorService pool = options.acquirePool();
+        try {
+            /* number of blocks that are coded at the same time is limited to save memory,
+             * arrays of blocks are given back to BufferPool when their coding is finished */
+            Deque<Future<byte[]>> inProgress = new ArrayDeque<>();
+            Deque<int[]> inProgressEntries = new ArrayDeque<>();
+            Deque<byte[]> inProgressBlocks = new ArrayDeque<>();
+
+            while (true) {
+                byte[] block = BufferPool.acquire(blockSize);
+                int read = fin.readNBytes(block, 0, blockSize);
+                if (read > 0) {
+                    inProgress.add(pool.submit(() -> encodeBlock(block, read, maxCodeLength)));
+                    inProgressEntries.add(new int[]{read, checksum(block, read)});
+                    inProgressBlocks.add(block);
+                } else {
+                    BufferPool.release(block);
+                }
+
+                /* writing coded blocks in order */
+                while (!inProgress.isEmpty() && (read < blockSize || inProgress.size() >= 2 * threadsNumber)) {
+                    byte[] compressedBlock = inProgress.poll().get();
+                    BufferPool.release(inProgressBlocks.poll());
+                    IOStreamManager.writeFromBufferToStream(fout, compressedBlock, compressedBlock.length);
+                    int[] entry = inProgressEntries.poll();
+                    blockTable.add(new long[]{offset, compressedBlock.length, entry[0], entry[1]});
+                    offset += compressedBlock.length;
+                }
+
+                if (read < blockSize) {
+                    break;
+                }
+            }
+        } finally {
+            options.releasePool(pool);
+        }
+
+        writeBlockTable(fout, blockTable, offset);
+    }
+
+    /**
+     * This method encodes one block: code lengths are followed by bitstream.
+     * Size of coded block is known before coding, so block that can`t be compressed
+     * is stored as it is after zero byte (number of coded symbols is never zero).
+     *
+     * @param block         array with uncompressed data;
+     * @param length        number of bytes in the block;
+     * @param maxCodeLength maximal length of Huffman code in bits;
+     * @return              compressed block.
+     */
+    static byte[] encodeBlock(byte[] block, int length, int maxCodeLength) throws Exception {
+
+        long[] frequencies = ByteHistogram.count(block, 0, length);
+        ensureTwoSymbols(frequencies);
+        HCanonicalCode code = new HCanonicalCode(HTree.limitCodeLengths(frequencies, maxCodeLength));
+
+        ByteArrayOutputStream compressedBlock = new ByteArrayOutputStream(length / 2 + 64);
+        code.writeLengths(compressedBlock);
+
+        if (!isWorthCoding(compressedBlock.size() + code.getCodedSize(frequencies), length)) {
+            byte[] storedBlock = new byte[length + 1];
+            System.arraycopy(block, 0, storedBlock, 1, length);
+            return storedBlock;
+        }
+
+        BitWriter bitWriter = new BitWriter(compressedBlock, OUTPUT_CHUNK_SIZE);
+        bitWriter.writeSymbols(block, 0, length, code.getCodes(), code.getLengths());
+        bitWriter.finish();
+
+        return compressedBlock.toByteArray();
+    }
+
+    /**
+     * This method checks if coded data are enough smaller than original ones
+     *
+     * @param codedSize     size of coded data with code lengths;
+     * @param originalSize  size of original data.
+     */
+    static boolean isWorthCoding(long codedSize, long originalSize) {
+        return codedSize < originalSize - originalSize * MIN_SAVED_PERCENT / 100;
+    }
+
+    /**
+     * Huffman code needs at least two symbols, so if the data consist of one
+     * repeated byte (or are empty), another byte gets frequency of 1. It doesn`t appear
+     * in the data and costs nothing but one code in the table.
+     */
+    static void ensureTwoSymbols(long[] frequencies) {
+        int symbolsNumber = 0;
+        int presentSymbol = 0;
+        for (int symbol = 0; symbol < frequencies.length; symbol++) {
+            if (frequencies[symbol] > 0) {
+                ++symbolsNumber;
+                presentSymbol = symbol;
+            }
+        }
+        if (symbolsNumber < 2) {
+            frequencies[presentSymbol] = Math.max(frequencies[presentSymbol], 1);
+            frequencies[presentSymbol ^ 1] = 1;
+        }
+    }
+
+    /**
+     * This method calculates CRC32C of given part of array
+     *
+     * @param data      array with data;
+     * @param length    number of bytes from the start of array;
+     * @return          checksum.
+     */
+    static int checksum(byte[] data, int length) {
+        CRC32C checksum = new CRC32C();
+        checksum.update(data, 0, length);
+        return (int) checksum.getValue();
+    }
+
+    /**
+     * this method writes block table and footer that points to it
+     */
+    private static void writeBlockTable(OutputStream fout, List<long[]> blockTable, long tableOffset) throws IOException {
+        int entrySize = BLOCK_TABLE_ENTRY_SIZE + CHECKSUM_SIZE;
+        ByteBuffer table = ByteBuffer.allocate(blockTable.size() * entrySize + BLOCK_FOOTER_SIZE);
+        for (long[] entry : blockTable) {
+            table.putLong(entry[0]);
+            table.putInt((int) entry[1]);
+            table.putInt((int) entry[2]);
+            table.putInt((int) entry[3]);
+        }
+        table.putInt(blockTable.size());
+        table.putLong(tableOffset);
+        IOStreamManager.writeFromBufferToStream(fout, table.array());
+    }
+
+    /*
+     * Following chunk of code contains methods for decompressing
+     *  |
+     *  V
+     */
+
+    /**
+     * This method reads block table of compressed file, decodes blocks
+     * in parallel and writes them to output stream in order
+     *
+     * @param inputFName    path to compressed file;
+     * @param fout          output stream for decompressed data;
+     * @param hasChecksums  true if blocks and the whole data have checksums;
+     * @param options       number of threads;
+     * @return              number of decompressed bytes;
+     * @throws Exception    when decompressing is failed.
+     */
+    static long decompressBlocks(String inputFName, OutputStream fout, boolean hasChecksums,
+                                 ArchiverOptions options) throws Exception {
+
+        int threadsNumber = options.getThreadsNumber();
+        long decompressedBytes = 0;
+        CRC32C checksum = new CRC32C();
+
+        try (FileChannel channel = FileChannel.open(Paths.get(inputFName), StandardOpenOption.READ)) {
+
+            long[][] blockTable = readBlockTable(channel, hasChecksums);
+
+            ExecutorService pool = options.acquirePool();
+            try {
+                Deque<Future<byte[]>> inProgress = new ArrayDeque<>();
+                int nextBlock = 0;
+                int writtenBlock = 0;
+
+                while (nextBlock < blockTable.length || !inProgress.isEmpty()) {
+
+                    /* submitting blocks while there are free places in the window */
+                    while (nextBlock < blockTable.length && inProgress.size() < 2 * threadsNumber) {
+                        long[] entry = blockTable[nextBlock++];
+                        inProgress.add(pool.submit(() -> decodeBlock(channel, entry, hasChecksums)));
+                    }
+
+                    /* writing decoded blocks in order, arrays of blocks are taken from BufferPool
+                     * and may be larger than blocks */
+                    byte[] block = inProgress.poll().get();
+                    int blockSize = (int) blockTable[writtenBlock++][2];
+                    IOStreamManager.writeFromBufferToStream(fout, block, blockSize);
+                    checksum.update(block, 0, blockSize);
+                    decompressedBytes += blockSize;
+                    BufferPool.release(block);
+                }
+            } finally {
+                options.releasePool(pool);
+            }
+
+            /* checksum of the whole data is the last bytes of file */
+            if (hasChecksums) {
+                int storedChecksum = readFully(channel, channel.size() - CHECKSUM_SIZE, CHECKSUM_SIZE).getInt();
+                if (storedChecksum != (int) checksum.getValue()) {
+                    throw new IOException("Checksum of decompressed data doesn`t match, compressed file is corrupted");
+                }
+            }
+        }
+
+        return decompressedBytes;
+    }
+
+    /**
+     * this method reads footer and block table from the end of compressed file
+     */
+    static long[][] readBlockTable(FileChannel channel, boolean hasChecksums) throws IOException {
+        int entrySize = hasChecksums ? BLOCK_TABLE_ENTRY_SIZE + CHECKSUM_SIZE : BLOCK_TABLE_ENTRY_SIZE;
+        long footerEnd = channel.size() - (hasChecksums ? CHECKSUM_SIZE : 0);
+        if (footerEnd < BLOCK_FOOTER_SIZE) {
+            throw new IOException("Block table of compressed file is corrupted");
+        }
+        ByteBuffer footer = readFully(channel, footerEnd - BLOCK_FOOTER_SIZE, BLOCK_FOOTER_SIZE);
+        int blocksNumber = footer.getInt();
+        long tableOffset = footer.getLong();
+        if (blocksNumber < 0 || tableOffset < 0
+            || tableOffset + (long) blocksNumber * entrySize + BLOCK_FOOTER_SIZE != footerEnd) {
+            throw new IOException("Block table of compressed file is corrupted");
+        }
+
+        ByteBuffer table = readFully(channel, tableOffset, blocksNumber * entrySize);
+        long[][] blockTable = new long[blocksNumber][];
+        for (int i = 0; i < blocksNumber; i++) {
+            blockTable[i] = new long[]{table.getLong(), table.getInt(), table.getInt(), hasChecksums ? table.getInt() : 0};
+        }
+        return blockTable;
+    }
+
+    /**
+     * This method reads and decodes one block of block table and checks its checksum
+     *
+     * @param channel       channel of compressed file;
+     * @param entry         offset, compressed size, original size and checksum of the block;
+     * @param hasChecksums  true if checksum of the block is present;
+     * @return              array from BufferPool that starts with decoded block.
+     */
+    static byte[] decodeBlock(FileChannel channel, long[] entry, boolean hasChecksums) throws Exception {
+        int originalSize = (int) entry[2];
+        ByteBuffer compressedBlock = readFully(channel, entry[0], (int) entry[1]);
+        byte[] block = BufferPool.acquire(originalSize);
+        decodeBlock(compressedBlock.array(), (int) entry[1], block, originalSize);
+        if (hasChecksums && checksum(block, originalSize) != (int) entry[3]) {
+            throw new IOException("Checksum of block doesn`t match, compressed file is corrupted");
+        }
+        return block;
+    }
+
+    /**
+     * This method reads one compressed block from file and decodes it
+     *
+     * @param channel           channel of compressed file (it is read with absolute positions,
+     *                          so it may be shared between threads);
+     * @param offset            offset of the block in file;
+     * @param compressedSize    size of compressed block;
+     * @param originalSize      size of decoded block;
+     * @return                  decoded block.
+     */
+    static byte[] decodeBlock(FileChannel channel, long offset, int compressedSize, int originalSize) throws Exception {
+        ByteBuffer compressedBlock = readFully(channel, offset, compressedSize);
+        return decodeBlock(compressedBlock.array(), compressedSize, originalSize);
+    }
+
+    /**
+     * This method decodes one block that is already in RAM
+     *
+     * @param compressedBlock   code lengths followed by bitstream;
+     * @param compressedSize    size of compressed block;
+     * @param originalSize      size of decoded block;
+     * @return                  decoded block.
+     */
+    static byte[] decodeBlock(byte[] compressedBlock, int compressedSize, int originalSize) throws Exception {
+        byte[] block = new byte[originalSize];
+        decodeBlock(compressedBlock, compressedSize, block, originalSize);
+        return block;
+    }
+
+    /**
+     * This method decodes one block into given array, so the array may be reused
+     *
+     * @param compressedBlock   code lengths followed by bitstream;
+     * @param compressedSize    size of compressed block;
+     * @param block             array for decoded block;
+     * @param originalSize      size of decoded block.
+     */
+    static void decodeBlock(byte[] compressedBlock, int compressedSize, byte[] block, int originalSize) throws Exception {
+
+        /* stored block */
+        if (compressedSize > 0 && compressedBlock[0] == 0) {
+            if (compressedSize - 1 != originalSize) {
+                throw new IOException("Compressed data is corrupted or truncated");
+            }
+            System.arraycopy(compressedBlock, 1, block, 0, originalSize);
+            return;
+        }
+
+        ByteArrayInputStream lengthsStream = new ByteArrayInputStream(compressedBlock, 0, compressedSize);
+        HCanonicalCode code = HCanonicalCode.readLengths(lengthsStream, BYTE_ALPHABET_SIZE);
+        HDecodingTable decodingTable = new HDecodingTable(code);
+
+        int bitstreamOffset = compressedSize - lengthsStream.available();
+        BitReader bitReader = new BitReader(compressedBlock, bitstreamOffset, compressedSize - bitstreamOffset);
+
+        for (int i = 0; i < originalSize; i++) {
+            block[i] = (byte) decodingTable.decodeSymbol(bitReader);
+        }
+    }
+
+    /**
+     * this method reads given number of bytes from absolute position of file
+     */
+    static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+}
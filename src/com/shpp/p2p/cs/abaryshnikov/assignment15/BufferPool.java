@@ -0,0 +1,195 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class keeps large byte buffers that are not used at the moment,
+ * so files that are processed one after another (or by many threads)
+ * don`t allocate new buffers of 10 MB each time.
+ *
+ * Buffer is taken with acquire() (or acquireDirect() for direct buffer of channels)
+ * and must be given back with release() when it is not needed anymore.
+ * Content of taken buffer is undefined.
+ *
+ * Requested sizes are rounded up to size classes: each power of two is divided
+ * into four steps, so buffer is at most 25% larger than requested and buffers
+ * of close sizes (blocks of 4 MB and blocks with LZ window) are shared.
+ * Free buffers are bounded both in number per class and in total bytes.
+ */
+public class BufferPool implements Constants {
+
+    /* smaller buffers are cheap to allocate, larger ones are rare and would hold too much memory */
+    static final int MIN_POOLED_SIZE = OUTPUT_CHUNK_SIZE;
+    static final int MAX_POOLED_SIZE = 2 * (MAX_BLOCK_SIZE_MB << 20);
+
+    /* number of free buffers of one size class that are kept: blocks in flight on all cores
+     * and chunks of reading and writing stages of pipeline */
+    private static final int MAX_FREE_BUFFERS = 2 * Runtime.getRuntime().availableProcessors() + 2 * PIPELINE_CHUNKS;
+
+    /* total size of free buffers of each kind that are kept */
+    private static final long MAX_FREE_BYTES = Math.min(Runtime.getRuntime().maxMemory() / 8, 512L << 20);
+
+    private static final Map<Integer, Queue<byte[]>> FREE_BUFFERS = new ConcurrentHashMap<>();
+    private static final Map<Integer, Queue<ByteBuffer>> FREE_DIRECT_BUFFERS = new ConcurrentHashMap<>();
+    private static final AtomicLong FREE_BYTES = new AtomicLong();
+    private static final AtomicLong FREE_DIRECT_BYTES = new AtomicLong();
+
+    /* hits are requests that are served by free buffers, misses are requests that allocate new ones */
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+    private static final LongAdder DIRECT_HITS = new LongAdder();
+    private static final LongAdder DIRECT_MISSES = new LongAdder();
+
+    /**
+     * This method returns size class of given size
+     *
+     * @param size  requested size in bytes (from MIN_POOLED_SIZE to MAX_POOLED_SIZE);
+     * @return      size of buffers that serve the request.
+     */
+    static int sizeClass(int size) {
+        int step = Integer.highestOneBit(size - 1) >>> 2;
+        return (size + step - 1) & -step;
+    }
+
+    /**
+     * This method checks if buffers of given size are kept by pool
+     */
+    private static boolean isPooled(int size) {
+        return size >= MIN_POOLED_SIZE && size <= MAX_POOLED_SIZE;
+    }
+
+    /**
+     * This method returns free buffer of given size class or creates new one
+     *
+     * @param size  minimal size of buffer in bytes;
+     * @return      buffer that is at least of given size.
+     */
+    static byte[] acquire(int size) {
+        if (!isPooled(size)) {
+            return new byte[size];
+        }
+        int classSize = sizeClass(size);
+        Queue<byte[]> free = FREE_BUFFERS.get(classSize);
+        byte[] buffer = free == null ? null : free.poll();
+        if (buffer == null) {
+            MISSES.increment();
+            return new byte[classSize];
+        }
+        FREE_BYTES.addAndGet(-buffer.length);
+        HITS.increment();
+        return buffer;
+    }
+
+    /**
+     * This method gives buffer back to pool. Extra buffers are left to garbage collector.
+     *
+     * @param buffer    buffer that was taken with acquire() or null.
+     */
+    static void release(byte[] buffer) {
+        if (buffer == null || !isPooled(buffer.length) || sizeClass(buffer.length) != buffer.length) {
+            return;
+        }
+        Queue<byte[]> free = FREE_BUFFERS.computeIfAbsent(buffer.length, size -> new ConcurrentLinkedQueue<>());
+        if (free.size() < MAX_FREE_BUFFERS && reserve(FREE_BYTES, buffer.length)) {
+            free.offer(buffer);
+        }
+    }
+
+    /**
+     * This method returns free direct buffer of given size class or creates new one.
+     * Position of buffer is zero and limit is equal to its capacity.
+     *
+     * @param size  minimal capacity of buffer in bytes;
+     * @return      direct buffer that is at least of given capacity.
+     */
+    static ByteBuffer acquireDirect(int size) {
+        if (!isPooled(size)) {
+            return ByteBuffer.allocateDirect(size);
+        }
+        int classSize = sizeClass(size);
+        Queue<ByteBuffer> free = FREE_DIRECT_BUFFERS.get(classSize);
+        ByteBuffer buffer = free == null ? null : free.poll();
+        if (buffer == null) {
+            DIRECT_MISSES.increment();
+            return ByteBuffer.allocateDirect(classSize);
+        }
+        FREE_DIRECT_BYTES.addAndGet(-buffer.capacity());
+        DIRECT_HITS.increment();
+        return buffer.clear();
+    }
+
+    /**
+     * This method gives direct buffer back to pool. Memory of extra buffers is freed
+     * by garbage collector.
+     *
+     * @param buffer    buffer that was taken with acquireDirect() or null.
+     */
+    static void releaseDirect(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || !isPooled(buffer.capacity())
+            || sizeClass(buffer.capacity()) != buffer.capacity()) {
+            return;
+        }
+        Queue<ByteBuffer> free = FREE_DIRECT_BUFFERS.computeIfAbsent(buffer.capacity(), size -> new ConcurrentLinkedQueue<>());
+        if (free.size() < MAX_FREE_BUFFERS && reserve(FREE_DIRECT_BYTES, buffer.capacity())) {
+            free.offer(buffer);
+        }
+    }
+
+    /**
+     * this method adds size of buffer to counter of free bytes if the limit is not exceeded
+     */
+    private static boolean reserve(AtomicLong counter, int size) {
+        while (true) {
+            long current = counter.get();
+            if (current + size > MAX_FREE_BYTES) {
+                return false;
+            }
+            if (counter.compareAndSet(current, current + size)) {
+                return true;
+            }
+        }
+    }
+
+    static long getHits() {
+        return HITS.sum() + DIRECT_HITS.sum();
+    }
+
+    static long getMisses() {
+        return MISSES.sum() + DIRECT_MISSES.sum();
+    }
+
+    /**
+     * This method returns part of requests that are served without allocation (from 0 to 1)
+     */
+    static double getHitRate() {
+        long requests = getHits() + getMisses();
+        return requests == 0 ? 0 : (double) getHits() / requests;
+    }
+
+    /**
+     * This method returns hits and misses of heap and direct buffers and size of free buffers
+     */
+    static String statistics() {
+        return "Buffer pool: \t\t\t\t[" + String.format("%.1f", getHitRate() * 100) + "]% hits"
+            + " (heap " + HITS.sum() + "/" + (HITS.sum() + MISSES.sum())
+            + ", direct " + DIRECT_HITS.sum() + "/" + (DIRECT_HITS.sum() + DIRECT_MISSES.sum())
+            + ", free " + ((FREE_BYTES.get() + FREE_DIRECT_BYTES.get()) >> 20) + " MB)";
+    }
+
+    /**
+     * This method drops counters of hits and misses, free buffers are kept
+     */
+    static void resetStatistics() {
+        HITS.reset();
+        MISSES.reset();
+        DIRECT_HITS.reset();
+        DIRECT_MISSES.reset();
+    }
+
+}
@@ -0,0 +1,415 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32C;
+
+/**
+ * This class is used for compressing/decompressing with block-sorting pipeline
+ * (like bzip2): Burrows-Wheeler transform groups bytes with similar contexts,
+ * move-to-front turns them into small numbers, runs of zeroes are coded with
+ * two symbols in bijective base 2, and the result is Huffman-coded.
+ *
+ * Blocks are transformed in parallel and written in order:
+ *
+ *  block size | [original size | payload size | payload | checksum] ...
+ *
+ * where payload is code lengths, index of the original row and bitstream that ends
+ * with end-of-block symbol, or zero byte followed by stored data, and checksum is
+ * CRC32C of original block (since version 3 of format).
+ */
+public class BwtCodec implements Constants {
+
+    /* symbols of zero runs, MTF index i > 0 is coded as i + 1 */
+    private static final int RUN_A = 0;
+    private static final int RUN_B = 1;
+    private static final int END_OF_BLOCK = BYTE_ALPHABET_SIZE + 1;
+    private static final int ALPHABET_SIZE = BYTE_ALPHABET_SIZE + 2;
+
+    /*
+     * Following chunk of code contains methods for compressing
+     *  |
+     *  V
+     */
+
+    /**
+     * This method compresses input stream block by block on pool of threads
+     *
+     * @param fin           input stream with uncompressed data;
+     * @param fout          output stream that is positioned after the header;
+     * @param options       block size, maximal code length and number of threads;
+     * @return              number of compressed bytes;
+     * @throws Exception    when compressing is failed.
+     */
+    static long compress(InputStream fin, OutputStream fout, ArchiverOptions options) throws Exception {
+
+        int blockSize = options.getBlockSize();
+        int maxCodeLength = options.getMaxCodeLength();
+        int threadsNumber = options.getThreadsNumber();
+        long compressedBytes = 0;
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        IOStreamManager.writeVarLong(header, blockSize);
+        IOStreamManager.writeFromBufferToStream(fout, header.toByteArray(), header.size());
+        compressedBytes += header.size();
+
+        ExecutorService pool = options.acquirePool();
+        try {
+            /* number of blocks that are transformed at the same time is limited to save memory,
+             * arrays of blocks are given back to BufferPool when their coding is finished */
+            Deque<Future<byte[]>> inProgress = new ArrayDeque<>();
+            Deque<byte[]> inProgressBlocks = new ArrayDeque<>();
+
+            while (true) {
+                byte[] block = BufferPool.acquire(blockSize);
+                int read = fin.readNBytes(block, 0, blockSize);
+                if (read > 0) {
+                    inProgress.add(pool.submit(() -> encodeBlock(block, read, maxCodeLength)));
+                    inProgressBlocks.add(block);
+                } else {
+                    BufferPool.release(block);
+                }
+
+                /* writing coded blocks in order */
+                while (!inProgress.isEmpty() && (read < blockSize || inProgress.size() >= threadsNumber + 1)) {
+                    byte[] compressedBlock = inProgress.poll().get();
+                    BufferPool.release(inProgressBlocks.poll());
+                    IOStreamManager.writeFromBufferToStream(fout, compressedBlock, compressedBlock.length);
+                    compressedBytes += compressedBlock.length;
+                }
+
+                if (read < blockSize) {
+                    break;
+                }
+            }
+        } finally {
+            options.releasePool(pool);
+        }
+        return compressedBytes;
+    }
+
+    /**
+     * This method transforms and codes one block
+     *
+     * @param block         array with uncompressed data;
+     * @param length        number of bytes in the block;
+     * @param maxCodeLength maximal length of Huffman code in bits;
+     * @return              sizes of block followed by payload and checksum.
+     */
+    static byte[] encodeBlock(byte[] block, int length, int maxCodeLength) throws Exception {
+
+        /* Burrows-Wheeler transform: bytes that precede sorted suffixes,
+         * row of the suffix that starts the block (sentinel row) is skipped */
+        int[] suffixArray = SuffixArray.build(block, length);
+        byte[] transformed = new byte[length];
+        int primaryIndex = 0;
+        for (int i = 0, j = 0; i <= length; i++) {
+            if (suffixArray[i] == 0) {
+                primaryIndex = i;
+            } else {
+                transformed[j++] = block[suffixArray[i] - 1];
+            }
+        }
+
+        /* move-to-front and zero-run coding, symbols reuse array of suffixes */
+        int[] symbols = suffixArray;
+        int symbolsNumber = moveToFront(transformed, length, symbols);
+        long[] frequencies = new long[ALPHABET_SIZE];
+        for (int i = 0; i < symbolsNumber; i++) {
+            ++frequencies[symbols[i]];
+        }
+        HCanonicalCode code = new HCanonicalCode(HTree.limitCodeLengths(frequencies, maxCodeLength));
+
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(length / 3 + OUTPUT_CHUNK_SIZE);
+        code.writeLengths(payload);
+        IOStreamManager.writeVarLong(payload, primaryIndex);
+
+        if (BlockCodec.isWorthCoding(payload.size() + code.getCodedSize(frequencies), length)) {
+            int[] codes = code.getCodes();
+            byte[] lengths = code.getLengths();
+            BitWriter bitWriter = new BitWriter(payload, OUTPUT_CHUNK_SIZE);
+            for (int i = 0; i < symbolsNumber; i++) {
+                bitWriter.writeBits(codes[symbols[i]], lengths[symbols[i]]);
+            }
+            bitWriter.finish();
+        } else {
+            payload.reset();
+            payload.write(0);
+            payload.write(block, 0, length);
+        }
+
+        ByteArrayOutputStream compressedBlock = new ByteArrayOutputStream(payload.size() + 16);
+        IOStreamManager.writeVarLong(compressedBlock, length);
+        IOStreamManager.writeVarLong(compressedBlock, payload.size());
+        payload.writeTo(compressedBlock);
+        CRC32C checksum = new CRC32C();
+        checksum.update(block, 0, length);
+        IOStreamManager.writeInt(compressedBlock, (int) checksum.getValue());
+        return compressedBlock.toByteArray();
+    }
+
+    /**
+     * This method codes bytes with move-to-front, runs of zero indices are written
+     * as RUN_A/RUN_B digits and the last symbol is END_OF_BLOCK
+     *
+     * @param data      transformed bytes;
+     * @param length    number of bytes;
+     * @param symbols   array for symbols (at least length + 1 elements);
+     * @return          number of symbols.
+     */
+    private static int moveToFront(byte[] data, int length, int[] symbols) {
+        byte[] order = new byte[BYTE_ALPHABET_SIZE];
+        for (int i = 0; i < BYTE_ALPHABET_SIZE; i++) {
+            order[i] = (byte) i;
+        }
+
+        int symbolsNumber = 0;
+        int run = 0;
+        for (int i = 0; i < length; i++) {
+            byte value = data[i];
+            if (order[0] == value) {
+                ++run;
+                continue;
+            }
+            symbolsNumber = writeRun(run, symbols, symbolsNumber);
+            run = 0;
+
+            int index = 1;
+            while (order[index] != value) {
+                ++index;
+            }
+            System.arraycopy(order, 0, order, 1, index);
+            order[0] = value;
+            symbols[symbolsNumber++] = index + 1;
+        }
+        symbolsNumber = writeRun(run, symbols, symbolsNumber);
+        symbols[symbolsNumber++] = END_OF_BLOCK;
+        return symbolsNumber;
+    }
+
+    /**
+     * this method writes length of zero run in bijective base 2: RUN_A is digit 1, RUN_B is digit 2
+     */
+    private static int writeRun(int run, int[] symbols, int symbolsNumber) {
+        while (run > 0) {
+            if ((run & 1) != 0) {
+                symbols[symbolsNumber++] = RUN_A;
+                run = (run - 1) >>> 1;
+            } else {
+                symbols[symbolsNumber++] = RUN_B;
+                run = (run - 2) >>> 1;
+            }
+        }
+        return symbolsNumber;
+    }
+
+    /*
+     * Following chunk of code contains methods for decompressing
+     *  |
+     *  V
+     */
+
+    /**
+     * This method reads blocks from input stream, decodes them on pool of threads
+     * and writes them to output stream in order
+     *
+     * @param uncomprFileSize   size of decompressed (original) file;
+     * @param fin               input stream that is positioned after the header;
+     * @param fout              output stream for decompressed data;
+     * @param hasChecksums      true if blocks are followed by their checksums;
+     * @param options           number of threads;
+     * @throws Exception        when decompressing is failed.
+     */
+    static void decompress(long uncomprFileSize, InputStream fin, OutputStream fout,
+                           boolean hasChecksums, ArchiverOptions options) throws Exception {
+
+        long blockSize = IOStreamManager.readVarLong(fin);
+        if (blockSize < (long) MIN_BLOCK_SIZE_MB << 20 || blockSize > (long) MAX_BLOCK_SIZE_MB << 20) {
+            throw new IOException("Compressed data is corrupted or truncated");
+        }
+        int threadsNumber = options.getThreadsNumber();
+
+        ExecutorService pool = options.acquirePool();
+        try {
+            Deque<Future<byte[]>> inProgress = new ArrayDeque<>();
+            long readBytes = 0;
+
+            while (readBytes < uncomprFileSize || !inProgress.isEmpty()) {
+
+                /* reading blocks while there are free places in the window */
+                while (readBytes < uncomprFileSize && inProgress.size() < threadsNumber + 1) {
+                    long originalSize = IOStreamManager.readVarLong(fin);
+                    long payloadSize = IOStreamManager.readVarLong(fin);
+                    if (originalSize < 1 || originalSize > blockSize || payloadSize < 1 || payloadSize > originalSize + 1
+                        || readBytes + originalSize > uncomprFileSize) {
+                        throw new IOException("Compressed data is corrupted or truncated");
+                    }
+                    byte[] payload = IOStreamManager.readExactly(fin, (int) payloadSize);
+                    Integer storedChecksum = hasChecksums ? IOStreamManager.readInt(fin) : null;
+                    inProgress.add(pool.submit(() -> decodeBlock(payload, (int) originalSize, storedChecksum)));
+                    readBytes += originalSize;
+                }
+
+                /* writing decoded blocks in order */
+                byte[] block = inProgress.poll().get();
+                IOStreamManager.writeFromBufferToStream(fout, block, block.length);
+            }
+        } finally {
+            options.releasePool(pool);
+        }
+    }
+
+    /**
+     * This method decodes one block
+     *
+     * @param payload           payload of block;
+     * @param originalSize      number of bytes in block;
+     * @param storedChecksum    checksum of original block or null;
+     * @return                  decoded block.
+     */
+    static byte[] decodeBlock(byte[] payload, int originalSize, Integer storedChecksum) throws Exception {
+        byte[] block = decodeBlock(payload, originalSize);
+        if (storedChecksum != null) {
+            CRC32C checksum = new CRC32C();
+            checksum.update(block, 0, originalSize);
+            if (storedChecksum != (int) checksum.getValue()) {
+                throw new IOException("Checksum of block doesn`t match, compressed file is corrupted");
+            }
+        }
+        return block;
+    }
+
+    /**
+     * This method decodes payload of one block without checking
+     */
+    private static byte[] decodeBlock(byte[] payload, int originalSize) throws Exception {
+
+        byte[] block = new byte[originalSize];
+
+        /* stored block */
+        if (payload[0] == 0) {
+            if (payload.length != originalSize + 1) {
+                throw new IOException("Compressed data is corrupted or truncated");
+            }
+            System.arraycopy(payload, 1, block, 0, originalSize);
+            return block;
+        }
+
+        ByteArrayInputStream headerStream = new ByteArrayInputStream(payload);
+        HDecodingTable decodingTable = new HDecodingTable(HCanonicalCode.readLengths(headerStream, ALPHABET_SIZE));
+        long primaryIndex = IOStreamManager.readVarLong(headerStream);
+        if (primaryIndex < 1 || primaryIndex > originalSize) {
+            throw new IOException("Compressed data is corrupted or truncated");
+        }
+        int bitstreamOffset = payload.length - headerStream.available();
+        BitReader bitReader = new BitReader(payload, bitstreamOffset, payload.length - bitstreamOffset);
+
+        byte[] transformed = decodeMoveToFront(decodingTable, bitReader, originalSize);
+        inverseTransform(transformed, (int) primaryIndex, block);
+        return block;
+    }
+
+    /**
+     * This method decodes symbols until END_OF_BLOCK and restores transformed bytes
+     */
+    private static byte[] decodeMoveToFront(HDecodingTable decodingTable, BitReader bitReader,
+                                            int originalSize) throws IOException {
+        byte[] order = new byte[BYTE_ALPHABET_SIZE];
+        for (int i = 0; i < BYTE_ALPHABET_SIZE; i++) {
+            order[i] = (byte) i;
+        }
+
+        byte[] transformed = new byte[originalSize];
+        int position = 0;
+        int run = 0;
+        int runDigit = 1;
+
+        while (true) {
+            int symbol = decodingTable.decodeSymbol(bitReader);
+            if (symbol == RUN_A || symbol == RUN_B) {
+                run += symbol == RUN_A ? runDigit : runDigit << 1;
+                runDigit <<= 1;
+                if (run > originalSize - position) {
+                    throw new IOException("Compressed data is corrupted or truncated");
+                }
+                continue;
+            }
+
+            /* the run is over: front byte is repeated */
+            if (run > 0) {
+                Arrays.fill(transformed, position, position + run, order[0]);
+                position += run;
+                run = 0;
+                runDigit = 1;
+            }
+
+            if (symbol == END_OF_BLOCK) {
+                break;
+            }
+            if (position == originalSize) {
+                throw new IOException("Compressed data is corrupted or truncated");
+            }
+            int index = symbol - 1;
+            byte value = order[index];
+            System.arraycopy(order, 0, order, 1, index);
+            order[0] = value;
+            transformed[position++] = value;
+        }
+
+        if (position != originalSize) {
+            throw new IOException("Compressed data is corrupted or truncated");
+        }
+        return transformed;
+    }
+
+    /**
+     * This method restores block from Burrows-Wheeler transform in linear time.
+     * Last column is the transformed bytes with sentinel inserted at primary index,
+     * every row is mapped to the row that starts one byte earlier (LF mapping),
+     * and the block is restored from its end.
+     *
+     * @param transformed   transformed bytes without sentinel;
+     * @param primaryIndex  row of the sentinel;
+     * @param block         array for restored block.
+     */
+    private static void inverseTransform(byte[] transformed, int primaryIndex, byte[] block) {
+        int length = transformed.length;
+
+        /* first row of every byte value: sentinel takes row 0 */
+        int[] nextRow = new int[BYTE_ALPHABET_SIZE];
+        for (byte value : transformed) {
+            ++nextRow[value & 0xFF];
+        }
+        int sum = 1;
+        for (int value = 0; value < BYTE_ALPHABET_SIZE; value++) {
+            int count = nextRow[value];
+            nextRow[value] = sum;
+            sum += count;
+        }
+
+        int[] lf = new int[length + 1];
+        for (int row = 0; row <= length; row++) {
+            if (row == primaryIndex) {
+                continue;
+            }
+            int value = transformed[row < primaryIndex ? row : row - 1] & 0xFF;
+            lf[row] = nextRow[value]++;
+        }
+
+        /* row 0 is the sentinel suffix, its last byte is the last byte of block */
+        int row = 0;
+        for (int i = length - 1; i >= 0; i--) {
+            block[i] = transformed[row < primaryIndex ? row : row - 1];
+            row = lf[row];
+        }
+    }
+
+}
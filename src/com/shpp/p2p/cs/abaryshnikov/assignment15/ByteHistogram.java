@@ -0,0 +1,113 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This class counts frequencies of byte values on primitive arrays.
+ *
+ * Each range is counted into four interleaved sub-histograms, so that
+ * neighbouring equal bytes don`t wait for each other`s increment of the same counter.
+ * Large arrays are split into ranges that are counted on ForkJoinPool and merged.
+ */
+public class ByteHistogram implements Constants {
+
+    /* ranges that are smaller than this are counted in the current thread */
+    static final int PARALLEL_THRESHOLD = 1 << 20; // 1 MB
+
+    /**
+     * This method adds frequencies of bytes from the array range to histogram
+     * using all available cores.
+     *
+     * @param data      array with bytes;
+     * @param offset    index of the first byte;
+     * @param length    number of bytes;
+     * @param histogram array of 256 counters that the frequencies are added to.
+     */
+    static void countParallel(byte[] data, int offset, int length, long[] histogram) {
+        long[] counted = length < 2 * PARALLEL_THRESHOLD
+            ? count(data, offset, length)
+            : ForkJoinTask.inForkJoinPool()
+                ? new CountingTask(data, offset, length).invoke()
+                : ForkJoinPool.commonPool().invoke(new CountingTask(data, offset, length));
+        merge(histogram, counted);
+    }
+
+    /**
+     * This method counts frequencies of bytes from the array range in the current thread
+     *
+     * @param data      array with bytes;
+     * @param offset    index of the first byte;
+     * @param length    number of bytes;
+     * @return          array of 256 counters.
+     */
+    static long[] count(byte[] data, int offset, int length) {
+        int[] counters0 = new int[BYTE_ALPHABET_SIZE];
+        int[] counters1 = new int[BYTE_ALPHABET_SIZE];
+        int[] counters2 = new int[BYTE_ALPHABET_SIZE];
+        int[] counters3 = new int[BYTE_ALPHABET_SIZE];
+
+        int end = offset + length;
+        int i = offset;
+        for (; i + 3 < end; i += 4) {
+            ++counters0[data[i] & 0xFF];
+            ++counters1[data[i + 1] & 0xFF];
+            ++counters2[data[i + 2] & 0xFF];
+            ++counters3[data[i + 3] & 0xFF];
+        }
+        for (; i < end; i++) {
+            ++counters0[data[i] & 0xFF];
+        }
+
+        long[] histogram = new long[BYTE_ALPHABET_SIZE];
+        for (int symbol = 0; symbol < BYTE_ALPHABET_SIZE; symbol++) {
+            histogram[symbol] = (long) counters0[symbol] + counters1[symbol]
+                + counters2[symbol] + counters3[symbol];
+        }
+        return histogram;
+    }
+
+    /**
+     * this method adds counters of the second histogram to the first one
+     */
+    static void merge(long[] histogram, long[] other) {
+        for (int symbol = 0; symbol < histogram.length; symbol++) {
+            histogram[symbol] += other[symbol];
+        }
+    }
+
+    /**
+     * This task splits range of array in halves until it becomes small enough
+     * to be counted in one thread, then merges histograms of the halves.
+     */
+    private static class CountingTask extends RecursiveTask<long[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] data;
+        private final int offset;
+        private final int length;
+
+        CountingTask(byte[] data, int offset, int length) {
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (length <= PARALLEL_THRESHOLD) {
+                return count(data, offset, length);
+            }
+            int half = length / 2;
+            CountingTask left = new CountingTask(data, offset, half);
+            CountingTask right = new CountingTask(data, offset + half, length - half);
+            left.fork();
+            long[] histogram = right.compute();
+            merge(histogram, left.join());
+            return histogram;
+        }
+    }
+
+}
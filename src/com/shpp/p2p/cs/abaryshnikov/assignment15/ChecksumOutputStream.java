@@ -0,0 +1,45 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32C;
+
+/**
+ * This stream counts CRC32C and number of bytes that are written through it,
+ * so decompressed data are verified while they are written (or without writing them
+ * at all when underlying stream is null stream).
+ */
+public class ChecksumOutputStream extends FilterOutputStream {
+
+    private final CRC32C checksum = new CRC32C();
+    private long writtenBytes = 0;
+
+    ChecksumOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        checksum.update(b);
+        ++writtenBytes;
+        out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        checksum.update(b, off, len);
+        writtenBytes += len;
+        out.write(b, off, len);
+    }
+
+    /** returns CRC32C of written bytes */
+    int getChecksum() {
+        return (int) checksum.getValue();
+    }
+
+    long getWrittenBytes() {
+        return writtenBytes;
+    }
+
+}
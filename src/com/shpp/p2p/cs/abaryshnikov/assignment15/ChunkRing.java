@@ -0,0 +1,160 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * This class is a bounded ring of chunks that connects two stages of pipeline:
+ * one thread puts chunks and one thread takes them. The ring has no locks,
+ * indices are published through volatile fields. Capacity of the ring is not less
+ * than number of chunks that move between the stages, so putting never waits;
+ * the thread that takes chunk from empty ring is parked until chunk is put.
+ *
+ * Time that the taking thread waits and number of chunks that are ready
+ * when it asks for the next one are counted for the stall report.
+ */
+public class ChunkRing {
+
+    /* waiting thread wakes up by itself after this time to notice closing of the ring */
+    private static final long PARK_NANOS = 1_000_000;
+
+    /**
+     * This class contains buffer with data that moves between stages
+     */
+    static class Chunk {
+
+        final byte[] data;
+        int length;
+
+        /* marks chunk that ends the data (or asks to flush output) instead of carrying bytes */
+        boolean isEnd;
+        boolean isFlush;
+
+        /* error of the stage that produced the chunk, it is rethrown by the next stage */
+        IOException error;
+
+        Chunk(byte[] data) {
+            this.data = data;
+        }
+    }
+
+    private final Chunk[] slots;
+    private final int mask;
+
+    /* index of the next chunk to take and index of the next free slot */
+    private volatile long head = 0;
+    private volatile long tail = 0;
+
+    private volatile Thread waitingThread = null;
+    private volatile boolean isClosed = false;
+
+    /* counters of the taking thread */
+    private long stallNanos = 0;
+    private long takes = 0;
+    private long readyChunks = 0;
+
+    /**
+     * Constructor for creating ring
+     *
+     * @param capacity  maximal number of chunks in the ring, it is rounded up to power of two.
+     */
+    ChunkRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        this.slots = new Chunk[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * This method puts chunk into the ring and wakes up the taking thread
+     *
+     * @param chunk     chunk for the next stage.
+     */
+    void put(Chunk chunk) {
+        long currentTail = tail;
+        if (currentTail - head == slots.length) {
+            throw new IllegalStateException("Ring of chunks is overfilled");
+        }
+        slots[(int) currentTail & mask] = chunk;
+        tail = currentTail + 1;
+
+        Thread waiting = waitingThread;
+        if (waiting != null) {
+            LockSupport.unpark(waiting);
+        }
+    }
+
+    /**
+     * This method takes the next chunk, waiting while the ring is empty
+     *
+     * @return              the next chunk;
+     * @throws IOException  when the ring is closed while waiting.
+     */
+    Chunk take() throws IOException {
+        long currentHead = head;
+        readyChunks += tail - currentHead;
+        ++takes;
+
+        if (currentHead == tail) {
+            long start = System.nanoTime();
+            waitingThread = Thread.currentThread();
+            try {
+                while (currentHead == tail) {
+                    if (isClosed) {
+                        throw new IOException("Pipeline is closed");
+                    }
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+            } finally {
+                waitingThread = null;
+                stallNanos += System.nanoTime() - start;
+            }
+        }
+
+        int slot = (int) currentHead & mask;
+        Chunk chunk = slots[slot];
+        slots[slot] = null;
+        head = currentHead + 1;
+        return chunk;
+    }
+
+    /**
+     * This method returns number of chunks in the ring
+     */
+    int size() {
+        return (int) (tail - head);
+    }
+
+    /**
+     * This method makes waiting and the next waits fail, so stage that is stopped
+     * doesn`t keep the other one forever
+     */
+    void close() {
+        isClosed = true;
+        Thread waiting = waitingThread;
+        if (waiting != null) {
+            LockSupport.unpark(waiting);
+        }
+    }
+
+    /**
+     * This method returns time in nanoseconds that the taking thread waited for chunks
+     */
+    long getStallNanos() {
+        return stallNanos;
+    }
+
+    /**
+     * This method returns number of taken chunks
+     */
+    long getTakes() {
+        return takes;
+    }
+
+    /**
+     * This method returns sum of numbers of chunks that were ready at each taking
+     */
+    long getReadyChunks() {
+        return readyChunks;
+    }
+
+}
@@ -1,11 +1,13 @@
 package com.shpp.p2p.cs.abaryshnikov.assignment15;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
 
 /**
  * This class is used for compressing (archiving) files to .par compressed format
@@ -14,33 +16,90 @@ public class Compressor implements Constants {
 
 
     /**
-     * This method is used for compressing file
+     * This method is used for compressing file with default limit of code length
      *
      * @param inputFName  path to file that need to be compressed;
      * @param outputFName path to compressed .par file.
      */
     public static int compress(String inputFName, String outputFName) {
+        return compress(inputFName, outputFName, new ArchiverOptions());
+    }
 
-        System.out.println("Compressing [" + inputFName + "] to [" + outputFName + "] ...");
+    /**
+     * This method is used for compressing file with given limit of code length
+     *
+     * @param inputFName    path to file that need to be compressed;
+     * @param outputFName   path to compressed .par file;
+     * @param maxCodeLength maximal length of Huffman code in bits.
+     */
+    public static int compress(String inputFName, String outputFName, int maxCodeLength) {
+        ArchiverOptions options = new ArchiverOptions();
+        options.setMaxCodeLength(maxCodeLength);
+        return compress(inputFName, outputFName, options);
+    }
+
+    /**
+     * This method is used for compressing file.
+     * Files that are larger than one block are compressed in block mode
+     * when more than one thread is allowed. In adaptive mode file is read only once,
+     * in order-1 mode code table of every byte is chosen by the previous byte,
+     * in LZ mode repeated strings are replaced with references back before coding,
+     * in BWT mode blocks are sorted by Burrows-Wheeler transform in parallel,
+     * with dictionary the shared code is used without counting of frequencies.
+     * Standard input/output ('-') is compressed by frames with HuffmanOutputStream.
+     *
+     * @param inputFName    path to file that need to be compressed;
+     * @param outputFName   path to compressed .par file;
+     * @param options       settings of compressing.
+     */
+    public static int compress(String inputFName, String outputFName, ArchiverOptions options) {
+        int result = performCompression(inputFName, outputFName, options);
+        if (result != RETURN_VALUE_SUCCESS) {
+            ArchiverMetrics.getInstance().addFailure();
+        }
+        return result;
+    }
+
+    /**
+     * This method compresses file, phases of compressing are reported
+     * as JFR events and added to metrics
+     */
+    private static int performCompression(String inputFName, String outputFName, ArchiverOptions options) {
+
+        int maxCodeLength = options.getMaxCodeLength();
+        if (maxCodeLength < MIN_MAX_CODE_LENGTH || maxCodeLength > MAX_MAX_CODE_LENGTH) {
+            System.err.println("Maximal code length must be in range [" + MIN_MAX_CODE_LENGTH
+                + ", " + MAX_MAX_CODE_LENGTH + "] bits");
+            return RETURN_VALUE_FAIL;
+        }
+
+        if (options.isVerbose()) {
+            System.out.println("Compressing [" + inputFName + "] to [" + outputFName + "] ...");
+        }
 
         /* remembering starting time */
         long start = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
+        ArchiverPhase phase;
 
         /*
-         * creating streams
+         * creating streams, they are read and written by their own threads
+         * while data are coded in this one
          */
         InputStream fin;
         OutputStream fout;
         long inputFileSize;
+        long outputFileSize = -1;
+        PipelineStats pipeline = options.isPipelined() ? new PipelineStats() : null;
 
         try {
-            fin = IOStreamManager.createInputStream(inputFName);
+            fin = IOStreamManager.createInputStream(inputFName, options.getIOBackend(), pipeline);
         } catch (IOException e) {
             System.err.println(e.getMessage());
             return RETURN_VALUE_FAIL;
         }
         try {
-            fout = IOStreamManager.createOutputStream(outputFName);
+            fout = IOStreamManager.createOutputStream(outputFName, options.getIOBackend(), -1, pipeline);
         } catch (IOException e) {
             System.err.println(e.getMessage());
             try {
@@ -52,34 +111,196 @@ public class Compressor implements Constants {
         }
 
         /*
-         * forming header of the compressed file and performing compression
+         * forming header of the compressed file and performing compression,
+         * checksum of input file is counted while the file is read for coding
          */
+        CRC32C checksum = new CRC32C();
+        boolean isOnePass = options.isAdaptive() || options.isLz() || options.isBwt();
+        boolean isSizeKnown = IOStreamManager.isRegularFile(inputFName);
+        boolean isStream = !isOnePass
+            && (IOStreamManager.isStandardStream(inputFName) || IOStreamManager.isStandardStream(outputFName));
         try {
 
             /* detecting size of file that need to be compressed */
             inputFileSize = IOStreamManager.getFileSize(inputFName);
 
-            /* creating Huffman tree */
-            HTree tree;
-            short treeSize;
+            /* one-pass methods keep size of original file in header, size of pipe is known
+             * only after it is read, so it is patched in output that must be a regular file */
+            if (isOnePass && !isSizeKnown && !IOStreamManager.isRegularFile(outputFName)) {
+                throw new Exception("Size of [" + inputFName + "] is unknown until it is read, so it can`t be"
+                    + " compressed with one-pass method to [" + outputFName + "], output must be a regular file");
+            }
+
+            /* file that is larger than one stream buffer is coded with dictionary only when
+             * the shared code makes it smaller, otherwise it gets its own code as usual */
+            boolean isDictionaryUsed = options.getDictionary() != null && !isStream && !isOnePass
+                && !options.isOrder1();
+            if (isDictionaryUsed && inputFileSize > STREAM_BUFFER_SIZE) {
+                phase = ArchiverPhase.start(ArchiverPhase.COMPRESS, ArchiverPhase.HISTOGRAM, inputFName);
+                isDictionaryUsed = isDictionarySuited(options.getDictionary(), fin, inputFileSize);
+                phase.finish(inputFileSize, 0);
+                IOStreamManager.closeIOStreams(fin, null);
+                fin = IOStreamManager.createInputStream(inputFName, options.getIOBackend(), pipeline);
+                if (options.isVerbose() && !isDictionaryUsed) {
+                    System.out.println("Dictionary doesn`t suit the file, its own code is used");
+                }
+            }
+
+            if (isStream) {
+
+                /* standard input can be read only once and its size is unknown, so it is compressed by frames */
+                phase = ArchiverPhase.start(ArchiverPhase.COMPRESS, ArchiverPhase.ENCODE, inputFName);
+                HuffmanOutputStream hout = new HuffmanOutputStream(fout, options.getBlockSize(), maxCodeLength);
+                inputFileSize = IOStreamManager.transfer(fin, hout);
+                hout.finish();
+                outputFileSize = hout.getCompressedSize();
+                phase.finish(inputFileSize, outputFileSize);
+
+            } else if (isOnePass) {
+
+                /* writing header and compressing input file in one pass, size of input that
+                 * isn`t a regular file is counted while it is read and patched after closing */
+                phase = ArchiverPhase.start(ArchiverPhase.COMPRESS, ArchiverPhase.ENCODE, inputFName);
+                int method = options.isAdaptive() ? METHOD_ADAPTIVE : options.isLz() ? METHOD_LZ : METHOD_BWT;
+                ByteArrayOutputStream header = new ByteArrayOutputStream();
+                if (isSizeKnown) {
+                    new ParHeader(method, inputFileSize).write(header);
+                } else {
+                    new ParHeader(method, 0).writePatchable(header);
+                }
+                IOStreamManager.writeFromBufferToStream(fout, header.toByteArray(), header.size());
+
+                CountingInputStream counted = new CountingInputStream(new CheckedInputStream(fin, checksum));
+                long compressedBytes;
+                if (method == METHOD_ADAPTIVE) {
+                    compressedBytes = AdaptiveCodec.compress(counted, fout);
+                } else if (method == METHOD_LZ) {
+                    compressedBytes = LzCodec.compress(counted, fout, options);
+                } else {
+                    compressedBytes = BwtCodec.compress(counted, fout, options);
+                }
+                inputFileSize = counted.getReadBytes();
+                outputFileSize = header.size() + compressedBytes + CHECKSUM_SIZE;
+                phase.finish(inputFileSize, compressedBytes);
+
+            } else if (options.isOrder1()) {
+
+                /* counting frequencies by contexts and creating code tables */
+                phase = ArchiverPhase.start(ArchiverPhase.COMPRESS, ArchiverPhase.HISTOGRAM, inputFName);
+                long[][] frequencies = ContextCodec.countFrequencies(fin);
+                phase.finish(inputFileSize, 0);
+
+                phase = ArchiverPhase.start(ArchiverPhase.COMPRESS, ArchiverPhase.TREE, inputFName);
+                ContextCodec code = ContextCodec.build(frequencies, maxCodeLength);
+                phase.finish(0, 0);
+                if (options.isVerbose()) {
+                    System.out.println("Code tables: \t\t\t\t[" + code.getTablesNumber() + "]");
+                }
 
-            tree = createHuffmanTree(fin);
-            treeSize = tree.getTreeSize();
+                /* writing header and code tables, file that can`t be compressed is stored */
+                phase = ArchiverPhase.start(ArchiverPhase.COMPRESS, ArchiverPhase.HEADER, inputFName);
+                ByteArrayOutputStream header = new ByteArrayOutputStream();
+                new ParHeader(METHOD_ORDER1, inputFileSize).write(header);
+                code.write(header);
+                boolean isWorthCoding = BlockCodec.isWorthCoding(header.size() + code.getCodedSize(frequencies), inputFileSize);
+                if (!isWorthCoding) {
+                    header.reset();
+                    new ParHeader(METHOD_STORED, inputFileSize).write(header);
+                }
+                IOStreamManager.writeFromBufferToStream(fout, header.toByteArray(), header.size());
+                phase.finish(0, header.size());
 
-            /* encoding (flattening) Huffman Tree */
-            byte[] treeStructure = tree.getTreeStructure();
-            byte[] treeLeaves = tree.getTreeLeaves();
+                /* recreating input stream and compressing (or copying) input file */
+                phase = ArchiverPhase.start(ArchiverPhase.COMPRESS, ArchiverPhase.ENCODE, inputFName);
+                IOStreamManager.closeIOStreams(fin, null);
+                fin = new CheckedInputStream(IOStreamManager.createInputStream(inputFName, options.getIOBackend(), pipeline), checksum);
+                long compressedBytes = isWorthCoding
+                    ? code.compress(fin, fout)
+                    : IOStreamManager.transfer(fin, fout);
+                phase.finish(inputFileSize, compressedBytes);
+
+            } else if (isDictionaryUsed) {
+
+                /* code is taken from dictionary, so header keeps only its ID and file is read only once */
+                phase = ArchiverPhase.start(ArchiverPhase.COMPRESS, ArchiverPhase.ENCODE, inputFName);
+                fin = new CheckedInputStream(fin, checksum);
+                long compressedBytes = compressWithDictionary(options.getDictionary(), fin, fout, inputFileSize);
+                phase.setCode(options.getDictionary().getCode().getLengths(), null);
+                phase.finish(inputFileSize, compressedBytes);
+
+            } else if (options.getThreadsNumber() > 1 && inputFileSize > options.getBlockSize()) {
+
+                /* writing header and compressing blocks of input file in parallel */
+                phase = ArchiverPhase.start(ArchiverPhase.COMPRESS, ArchiverPhase.ENCODE, inputFName);
+                ByteArrayOutputStream header = new ByteArrayOutputStream();
+                new ParHeader(METHOD_BLOCKS, inputFileSize).write(header);
+                IOStreamManager.writeVarLong(header, options.getBlockSize());
+                IOStreamManager.writeFromBufferToStream(fout, header.toByteArray());
+
+                BlockCodec.compressBlocks(new CheckedInputStream(fin, checksum), fout, header.size(), options);
+                phase.finish(inputFileSize, 0);
+
+            } else {
+
+                /* choosing filter by the beginning of input file, input stream is recreated after it */
+                phase = ArchiverPhase.start(ArchiverPhase.COMPRESS, ArchiverPhase.HISTOGRAM, inputFName);
+                DataFilter filter = chooseFilter(fin, inputFileSize, maxCodeLength);
+                IOStreamManager.closeIOStreams(fin, null);
+                fin = filter.encode(IOStreamManager.createInputStream(inputFName, options.getIOBackend(), pipeline));
+                if (options.isVerbose() && !filter.isNone()) {
+                    System.out.println("Filter: \t\t\t\t\t[" + filter + "]");
+                }
 
-            /* writing header to output file */
-            writeHeaderToOutputFile(fout,
-                treeSize,
-                treeStructure,
-                treeLeaves,
-                inputFileSize);
+                /* counting frequencies of filtered bytes and creating canonical Huffman code */
+                long[] frequencies = countFrequencies(fin);
+                long filteredSize = 0;
+                for (long frequency : frequencies) {
+                    filteredSize += frequency;
+                }
+                BlockCodec.ensureTwoSymbols(frequencies);
+                phase.finish(inputFileSize, 0);
+
+                phase = ArchiverPhase.start(ArchiverPhase.COMPRESS, ArchiverPhase.TREE, inputFName);
+                HCanonicalCode code = new HCanonicalCode(HTree.limitCodeLengths(frequencies, maxCodeLength));
+                phase.setCode(code.getLengths(), frequencies);
+                phase.finish(0, 0);
+
+                /* writing header and code lengths to output file, size of coded file is known
+                 * before coding, so file that can`t be compressed is stored as it is */
+                phase = ArchiverPhase.start(ArchiverPhase.COMPRESS, ArchiverPhase.HEADER, inputFName);
+                ByteArrayOutputStream header = new ByteArrayOutputStream();
+                if (filter.isNone()) {
+                    new ParHeader(METHOD_HUFFMAN, inputFileSize).write(header);
+                } else {
+                    /* filtered data have their own size that is needed for decoding */
+                    new ParHeader(METHOD_FILTERED, inputFileSize).write(header);
+                    filter.write(header);
+                    IOStreamManager.writeVarLong(header, filteredSize);
+                }
+                code.writeLengths(header);
+                boolean isWorthCoding = BlockCodec.isWorthCoding(header.size() + code.getCodedSize(frequencies), inputFileSize);
+                if (!isWorthCoding) {
+                    header.reset();
+                    new ParHeader(METHOD_STORED, inputFileSize).write(header);
+                }
+                IOStreamManager.writeFromBufferToStream(fout, header.toByteArray(), header.size());
+                phase.finish(0, header.size());
 
-            /* recreating input stream and compressing input file */
-            fin = IOStreamManager.createInputStream(inputFName);
-            compressFile(tree, fin, fout);
+                /* recreating input stream and compressing (or copying) input file */
+                phase = ArchiverPhase.start(ArchiverPhase.COMPRESS, ArchiverPhase.ENCODE, inputFName);
+                IOStreamManager.closeIOStreams(fin, null);
+                fin = new CheckedInputStream(IOStreamManager.createInputStream(inputFName, options.getIOBackend(), pipeline), checksum);
+                long compressedBytes = isWorthCoding
+                    ? compressFile(code, filter.encode(fin), fout, filter.isNone())
+                    : IOStreamManager.transfer(fin, fout);
+                phase.setCode(code.getLengths(), frequencies);
+                phase.finish(inputFileSize, compressedBytes);
+            }
+
+            /* compressed file ends with checksum, stream of frames contains its own one */
+            if (!isStream) {
+                IOStreamManager.writeInt(fout, (int) checksum.getValue());
+            }
 
         } catch (Exception e) {
             try {
@@ -94,180 +315,256 @@ public class Compressor implements Constants {
         /*
          * closing streams
          */
+        phase = ArchiverPhase.start(ArchiverPhase.COMPRESS, ArchiverPhase.FLUSH, inputFName);
         try {
             IOStreamManager.closeIOStreams(fin, fout);
+
+            /* size of input that isn`t a regular file is known only after compressing */
+            if (isOnePass && !isSizeKnown) {
+                ParHeader.patchOriginalSize(outputFName, inputFileSize);
+            }
         } catch (IOException e) {
             System.err.println(e.getMessage());
             return RETURN_VALUE_FAIL;
         }
+        phase.finish(0, 0);
 
         /* Timing and size/effectiveness output */
-        long outputFileSize = IOStreamManager.getFileSize(outputFName);
-        System.out.println("Time to compress: \t\t\t[" + (System.currentTimeMillis() - start) + "] ms"
-            + "\nSize of input file: \t\t[" + inputFileSize + "] bytes"
-            + "\nSize of compressed file: \t[" + outputFileSize + "] bytes"
-            + "\nCompression coef: \t\t\t[" + ((float) inputFileSize / (float) (outputFileSize) + "]"));
+        if (outputFileSize < 0) {
+            outputFileSize = IOStreamManager.getFileSize(outputFName);
+        }
+        ArchiverMetrics.getInstance().addCompressed(inputFileSize, outputFileSize, System.nanoTime() - startNanos);
+        if (options.isVerbose()) {
+            System.out.println("Time to compress: \t\t\t[" + (System.currentTimeMillis() - start) + "] ms"
+                + "\nSize of input file: \t\t[" + inputFileSize + "] bytes"
+                + "\nSize of compressed file: \t[" + outputFileSize + "] bytes"
+                + "\nCompression coef: \t\t\t[" + ((float) inputFileSize / (float) (outputFileSize) + "]"));
+            if (pipeline != null) {
+                System.out.println(pipeline.report());
+            }
+        }
 
         return RETURN_VALUE_SUCCESS;
     }
 
     /**
-     * This method is used for creating Huffman tree for unique bytes
-     * of file that contained in input stream
+     * This method chooses filter for input file by its beginning.
+     * Every filter is applied to the sample and the filter which gives
+     * the smallest Huffman-coded sample is taken.
      *
      * @param fin           file input stream that contains input file;
-     * @throws Exception    when creating tree is failed.
+     * @param inputFileSize size of input file;
+     * @param maxCodeLength maximal length of Huffman code in bits;
+     * @return              chosen filter, NONE if no filter makes data smaller;
+     * @throws Exception    when reading from file is failed.
      */
-    private static HTree createHuffmanTree(InputStream fin) throws Exception {
-
-        /* creating buffer and opening input stream */
-        byte[] inputBuffer = new byte[INPUT_BUFFER_SIZE];
+    private static DataFilter chooseFilter(InputStream fin, long inputFileSize, int maxCodeLength) throws Exception {
+        byte[] sample = new byte[(int) Math.min(inputFileSize, DataFilter.SAMPLE_SIZE)];
+        int sampleSize = fin.readNBytes(sample, 0, sample.length);
+        if (sampleSize == 0) {
+            return DataFilter.NONE;
+        }
+        return DataFilter.choose(sample, sampleSize, maxCodeLength);
+    }
 
-        /* determining unique bytes and counting frequencies */
-        HashMap<Byte, Integer> uniqueBytesAndFrequencies = new HashMap<>();
+    /**
+     * This method estimates size of file that is coded with shared code of dictionary
+     * by frequencies of its bytes and lengths of codes of the dictionary
+     *
+     * @param dictionary    dictionary with trained code;
+     * @param fin           file input stream that contains input file;
+     * @param inputFileSize size of input file;
+     * @return              true if coded file (with header and seek index) is smaller enough;
+     * @throws Exception    when reading from file is failed.
+     */
+    private static boolean isDictionarySuited(ParDictionary dictionary, InputStream fin,
+                                              long inputFileSize) throws Exception {
+        long[] frequencies = countFrequencies(fin);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        new ParHeader(METHOD_DICTIONARY, inputFileSize).write(header);
+        IOStreamManager.writeInt(header, dictionary.getId());
+        long codedSize = header.size() + dictionary.getCode().getCodedSize(frequencies)
+            + SeekIndex.getSize(inputFileSize);
+        return BlockCodec.isWorthCoding(codedSize, inputFileSize);
+    }
 
-        /* reading file block by block and counting unique bytes */
-        while (fin.available() > 0) {
+    /**
+     * This method compresses file with shared code of dictionary. File that is not
+     * larger than one stream buffer is coded in memory first and it is stored as it is
+     * when the shared code doesn`t suit it, larger file is coded straight to output
+     * (it is checked by isDictionarySuited before).
+     *
+     * @param dictionary    dictionary with trained code;
+     * @param fin           file input stream that contains input file;
+     * @param fout          file output stream that gets header and coded data;
+     * @param inputFileSize size of input file;
+     * @return              number of compressed (or stored) bytes;
+     * @throws Exception    when compressing is failed.
+     */
+    private static long compressWithDictionary(ParDictionary dictionary, InputStream fin, OutputStream fout,
+                                               long inputFileSize) throws Exception {
 
-            if (fin.available() < INPUT_BUFFER_SIZE) {
-                inputBuffer = new byte[fin.available()];
-            }
-            //noinspection ResultOfMethodCallIgnored
-            fin.read(inputBuffer, 0, inputBuffer.length);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        new ParHeader(METHOD_DICTIONARY, inputFileSize).write(header);
+        IOStreamManager.writeInt(header, dictionary.getId());
 
-            for (Byte bt : inputBuffer) {
-                if (uniqueBytesAndFrequencies.containsKey(bt)) {
-                    uniqueBytesAndFrequencies.put(bt, uniqueBytesAndFrequencies.get(bt) + 1);
-                } else {
-                    uniqueBytesAndFrequencies.put(bt, 1);
-                }
-            }
+        if (inputFileSize > STREAM_BUFFER_SIZE) {
+            IOStreamManager.writeFromBufferToStream(fout, header.toByteArray(), header.size());
+            return compressFile(dictionary.getCode(), fin, fout, true);
         }
 
-        /* creating Huffman Tree */
-        return new HTree(uniqueBytesAndFrequencies);
+        byte[] data = fin.readAllBytes();
+        ByteArrayOutputStream coded = new ByteArrayOutputStream(data.length);
+        compressFile(dictionary.getCode(), new ByteArrayInputStream(data), coded, true);
+        if (!BlockCodec.isWorthCoding(header.size() + coded.size(), data.length)) {
+            header.reset();
+            new ParHeader(METHOD_STORED, inputFileSize).write(header);
+            IOStreamManager.writeFromBufferToStream(fout, header.toByteArray(), header.size());
+            IOStreamManager.writeFromBufferToStream(fout, data, data.length);
+            return data.length;
+        }
+        IOStreamManager.writeFromBufferToStream(fout, header.toByteArray(), header.size());
+        IOStreamManager.writeFromBufferToStream(fout, coded.toByteArray(), coded.size());
+        return coded.size();
     }
 
     /**
-     * This method is used for writing header that contains
-     * information about Huffman tree structure and file size
-     * to the output (compressed) file
+     * This method is used for counting frequencies of unique bytes
+     * of file that contained in input stream
      *
-     * @param fout              file output stream that contains output file;
-     * @param treeSize          size of Huffman tree structure in bits;
-     * @param treeStructure     Huffman tree structure as a sequence of bits
-     *                          where '1' is a transitional node and '0' is
-     *                          a "leaf" node that contains unique byte;
-     * @param treeLeaves        sequence of unique bytes that appears in-order
-     *                          in Huffman tree;
-     * @param inputFileSize     size of original (uncompressed file);
-     * @throws Exception        when writing header info to output file is failed.
+     * @param fin           file input stream that contains input file;
+     * @return              frequency of every byte value;
+     * @throws Exception    when reading from file is failed.
      */
-    private static void writeHeaderToOutputFile(OutputStream fout,
-                                                short treeSize,
-                                                byte[] treeStructure,
-                                                byte[] treeLeaves,
-                                                long inputFileSize) throws Exception {
-
-        /* writing size of tree */
-        ByteBuffer buf = ByteBuffer.allocate(SHORT_SIZE_IN_BYTES);
-        buf.putShort(treeSize);
-        IOStreamManager.writeFromBufferToStream(fout, buf.array());
-
-        /* writing tree structure array */
-        IOStreamManager.writeFromBufferToStream(fout, treeStructure);
-
-        /* writing tree leaves array */
-        IOStreamManager.writeFromBufferToStream(fout, treeLeaves);
-
-        /* writing size of input (uncompressed) file */
-        ByteBuffer dataLength = ByteBuffer.allocate(LONG_SIZE_IN_BYTES);
-        dataLength.putLong(inputFileSize);
-        IOStreamManager.writeFromBufferToStream(fout, dataLength.array());
+    private static long[] countFrequencies(InputStream fin) throws Exception {
+
+        byte[] inputBuffer = BufferPool.acquire(INPUT_BUFFER_SIZE);
+        long[] frequencies = new long[BYTE_ALPHABET_SIZE];
+
+        /* reading file block by block and counting bytes on all cores */
+        try {
+            int read;
+            while ((read = fin.read(inputBuffer, 0, inputBuffer.length)) > 0) {
+                ByteHistogram.countParallel(inputBuffer, 0, read, frequencies);
+            }
+        } finally {
+            BufferPool.release(inputBuffer);
+        }
+
+        return frequencies;
     }
 
     /**
-     * This method is used for compressing file using Huffman algorithm
-     * and bitwise operations.
+     * This method is used for compressing file using Huffman algorithm.
+     * Codes are taken from flat tables and collected in 64-bit accumulator,
+     * so nothing is allocated per input byte. Bit offset and checksum of every
+     * SEEK_INTERVAL bytes are collected to seek index that follows the bitstream.
      *
-     * @param tree      Huffman tree for input file;
-     * @param fin       file input stream that contains input file (uncompressed);
-     * @param fout      file output stream that contains output file (compressed);
+     * @param code          canonical Huffman code for input file;
+     * @param fin           file input stream that contains input file (uncompressed);
+     * @param fout          file output stream that contains output file (compressed);
+     * @param isIndexed     true if bitstream is followed by seek index;
+     * @return              number of compressed bytes (with seek index);
      * @throws Exception    when compressing is failed.
      */
-    private static void compressFile(HTree tree, InputStream fin, OutputStream fout) throws Exception {
-
-        /* creating buffer in RAM to write compressed info into */
-        ArrayList<Byte> outputBuffer = new ArrayList<>();
-        outputBuffer.ensureCapacity(OUTPUT_BUFFER_SIZE);
+    private static long compressFile(HCanonicalCode code, InputStream fin, OutputStream fout,
+                                     boolean isIndexed) throws Exception {
 
-        /* preparing necessary variables */
-        int bitsContainer = 0;
-        int containerShiftTrigger = 0;
-        int bitsShiftTrigger = 0;
-        int[] bitsAndTheirNumber;
-        int bits;
-        int significantBitsNumber;
+        int[] codes = code.getCodes();
+        byte[] lengths = code.getLengths();
 
-        /* creating buffer and opening input stream */
-        byte[] inputBuffer = new byte[INPUT_BUFFER_SIZE];
-
-        /*
-         * reading file block by block, compressing and writing to file
-         */
-        while (fin.available() > 0) {
-
-            if (fin.available() < INPUT_BUFFER_SIZE) {
-                inputBuffer = new byte[fin.available()];
-            }
-            //noinspection ResultOfMethodCallIgnored
-            fin.read(inputBuffer, 0, inputBuffer.length);
+        byte[] outputBuffer = BufferPool.acquire(OUTPUT_BUFFER_SIZE);
+        byte[] inputBuffer = BufferPool.acquire(INPUT_BUFFER_SIZE);
+        BitWriter bitWriter = new BitWriter(fout, outputBuffer);
+        SeekIndex index = new SeekIndex();
+        CRC32C regionChecksum = new CRC32C();
+        long regionOffset = 0;
+        long regionBitOffset = 0;
+        long offset = 0;
 
+        try {
             /*
-             * performing main operations on coding/compressing of bytes
+             * reading file block by block, compressing and writing to file,
+             * blocks are cut at the borders of regions of seek index
              */
-            for (byte currentByte : inputBuffer) {
+            int read;
+            while ((read = fin.read(inputBuffer, 0, inputBuffer.length)) > 0) {
+                if (!isIndexed) {
+                    bitWriter.writeSymbols(inputBuffer, 0, read, codes, lengths);
+                    continue;
+                }
+                for (int position = 0; position < read; ) {
+                    int portion = (int) Math.min(read - position, regionOffset + SEEK_INTERVAL - offset);
+                    bitWriter.writeSymbols(inputBuffer, position, portion, codes, lengths);
+                    regionChecksum.update(inputBuffer, position, portion);
+                    position += portion;
+                    offset += portion;
+                    if (offset == regionOffset + SEEK_INTERVAL) {
+                        index.add(regionOffset, regionBitOffset, (int) regionChecksum.getValue());
+                        regionOffset = offset;
+                        regionBitOffset = bitWriter.getBitPosition();
+                        regionChecksum.reset();
+                    }
+                }
+            }
+            if (offset > regionOffset) {
+                index.add(regionOffset, regionBitOffset, (int) regionChecksum.getValue());
+            }
+
+            /* completing last byte and writing last chunk of bytes */
+            bitWriter.finish();
+        } finally {
+            BufferPool.release(inputBuffer);
+            BufferPool.release(outputBuffer);
+        }
 
-                /* getting bits that encode current byte */
-                bitsAndTheirNumber = tree.encodeByte(currentByte);
-                bits = bitsAndTheirNumber[0];
-                significantBitsNumber = bitsAndTheirNumber[1];
+        if (!isIndexed) {
+            return bitWriter.getWrittenBytes();
+        }
+        index.write(fout);
+        return bitWriter.getWrittenBytes() + (long) index.size() * SEEK_ENTRY_SIZE + INT_SIZE_IN_BYTES;
+    }
 
-                /* writing bits that code current byte into bits container */
-                while (bitsShiftTrigger < significantBitsNumber) {
+    /**
+     * This stream counts bytes that are read through it, it is used for input
+     * which size is unknown before reading
+     */
+    private static class CountingInputStream extends FilterInputStream {
 
-                    /* if bits container is full, put it into output buffer as byte */
-                    if (containerShiftTrigger > 7) {
-                        outputBuffer.add((byte) (bitsContainer & 0xFF));
-                        bitsContainer = 0;
-                        containerShiftTrigger = 0;
-                    }
+        private long readBytes = 0;
 
-                    bitsContainer = bitsContainer | ((bits & 1) << 8);
-                    bits = bits >> 1;
-                    bitsContainer = bitsContainer >> 1;
-                    ++containerShiftTrigger;
-                    ++bitsShiftTrigger;
-                }
-                bitsShiftTrigger = 0;
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
 
-                /* if buffer is full, bytes from buffer are written to file on hard drive*/
-                if (outputBuffer.size() > OUTPUT_BUFFER_SIZE) {
-                    IOStreamManager.writeOutputBufferToFile(fout, outputBuffer);
-                }
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                readBytes++;
             }
+            return b;
         }
 
-        /* completing last byte */
-        while (containerShiftTrigger < 8) {
-            bitsContainer = (bitsContainer >> 1);
-            ++containerShiftTrigger;
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if (read > 0) {
+                readBytes += read;
+            }
+            return read;
         }
-        outputBuffer.add((byte) (bitsContainer & 0xFF));
 
-        /* writing last chunk of bytes */
-        IOStreamManager.writeOutputBufferToFile(fout, outputBuffer);
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            readBytes += skipped;
+            return skipped;
+        }
 
+        long getReadBytes() {
+            return readBytes;
+        }
     }
 
 }
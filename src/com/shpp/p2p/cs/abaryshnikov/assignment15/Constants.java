@@ -8,7 +8,7 @@ public interface Constants {
 
     int LONG_SIZE_IN_BYTES = 8;
 
-    //int INT_SIZE_IN_BYTES = 4;
+    int INT_SIZE_IN_BYTES = 4;
     //int INT_SIZE_IN_BITS = 32;
 
     int SHORT_SIZE_IN_BYTES = 2;
@@ -17,6 +17,75 @@ public interface Constants {
     int OUTPUT_BUFFER_SIZE = 10485760; // 10 MB
     int INPUT_BUFFER_SIZE = 10485760; // 10 MB
 
+    /* first byte of legacy .par file is the high byte of tree size (which is less than 512),
+     * so any greater value identifies versioned header */
+    int PAR_SIGNATURE = 0x50; // 'P'
+    int PAR_VERSION = 4;
+    int MIN_PAR_VERSION = 2;
+
+    /* since version 3 segments and whole data are followed by CRC32C of their original bytes */
+    int CHECKSUMS_PAR_VERSION = 3;
+    int CHECKSUM_SIZE = 4;
+
+    /* since version 4 single-tree bitstream is followed by seek index with entry for every
+     * SEEK_INTERVAL bytes of original data: original offset, bit offset and checksum of region */
+    int SEEK_INDEX_PAR_VERSION = 4;
+    int SEEK_INTERVAL = 1048576; // 1 MB
+    int SEEK_ENTRY_SIZE = 20;
+
+    /* one-pass methods don`t know size of input that isn`t a regular file (pipe, FIFO), so their header
+     * gets size field of fixed width that is patched after compressing (9 bytes keep 63 bits) */
+    int PATCHABLE_SIZE_BYTES = 9;
+    int PAR_SIZE_OFFSET = 3;
+
+    int METHOD_HUFFMAN = 0;
+    int METHOD_BLOCKS = 1;
+    int METHOD_ADAPTIVE = 2;
+    int METHOD_STREAM = 3;
+    int METHOD_ARCHIVE = 4;
+    int METHOD_STORED = 5;
+    int METHOD_FILTERED = 6;
+    int METHOD_ORDER1 = 7;
+    int METHOD_LZ = 8;
+    int METHOD_BWT = 9;
+    int METHOD_DICTIONARY = 10;
+
+    /* file of shared code table that is trained on samples ('D') */
+    int DICTIONARY_SIGNATURE = 0x44;
+    int DICTIONARY_VERSION = 1;
+
+    /* data are stored without coding if coding saves less than this part of their size */
+    int MIN_SAVED_PERCENT = 2;
+
+    int BYTE_ALPHABET_SIZE = 256;
+
+    /* codes are limited to fit fixed-size decoding tables and 64-bit bits accumulator */
+    int DEFAULT_MAX_CODE_LENGTH = 15;
+    int MIN_MAX_CODE_LENGTH = 8;
+    int MAX_MAX_CODE_LENGTH = 24;
+
+    /* levels of LZ compression trade match search effort for speed */
+    int DEFAULT_LZ_LEVEL = 6;
+    int MIN_LZ_LEVEL = 1;
+    int MAX_LZ_LEVEL = 9;
+
+    int DEFAULT_BLOCK_SIZE = 4194304; // 4 MB
+    int MIN_BLOCK_SIZE_MB = 1;
+    int MAX_BLOCK_SIZE_MB = 16;
+    int BLOCK_TABLE_ENTRY_SIZE = 16; // offset, compressed size, original size (checksum follows since version 3)
+    int BLOCK_FOOTER_SIZE = 12; // blocks number, table offset
+    int ARCHIVE_FOOTER_SIZE = 12; // entries number, directory offset
+
+    int OUTPUT_CHUNK_SIZE = 65536; // 64 KB
+    int STREAM_BUFFER_SIZE = 1048576; // 1 MB
+    int MAPPED_WINDOW_SIZE = 1073741824; // 1 GB
+
+    /* chunks of STREAM_BUFFER_SIZE that are in flight between stages of read / code / write pipeline */
+    int PIPELINE_CHUNKS = 4;
+
+    /* name of file that means standard input or standard output */
+    String STANDARD_STREAM_NAME = "-";
+
     int RETURN_VALUE_SUCCESS = 0;
     int RETURN_VALUE_FAIL = -1;
 
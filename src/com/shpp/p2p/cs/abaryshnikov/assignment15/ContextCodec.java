@@ -0,0 +1,298 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * This class is used for compressing/decompressing with order-1 Huffman code.
+ * Every byte is coded with code table of its context (the previous byte), so
+ * in texts, where the next letter depends on the previous one, codes are shorter
+ * than codes of the single tree.
+ *
+ * Context gets its own table only if the table saves more bits than it costs in header,
+ * other (sparse) contexts are merged and share one table.
+ *
+ * Format of the code after the header of file: lengths of shared code, bitmap (32 bytes)
+ * of contexts that have own tables, lengths of own codes in order of contexts.
+ */
+public class ContextCodec implements Constants {
+
+    private static final int CONTEXTS_NUMBER = BYTE_ALPHABET_SIZE;
+
+    /* contexts with fewer bytes are always merged, their tables can`t pay off */
+    private static final int MIN_CONTEXT_SIZE = 64;
+
+    private static final int SHARED_TABLE = 0;
+
+    private final HCanonicalCode[] codes;
+    private final int[] tableOfContext;
+
+    /**
+     * Constructor for creating order-1 code
+     *
+     * @param codes             code tables, the first one is shared;
+     * @param tableOfContext    index of code table for every previous byte.
+     */
+    private ContextCodec(HCanonicalCode[] codes, int[] tableOfContext) {
+        this.codes = codes;
+        this.tableOfContext = tableOfContext;
+    }
+
+    /**
+     * This method counts frequencies of bytes for every context
+     *
+     * @param fin           input stream with uncompressed data;
+     * @return              frequencies[previous byte][byte];
+     * @throws Exception    when reading from file is failed.
+     */
+    static long[][] countFrequencies(InputStream fin) throws Exception {
+        long[][] frequencies = new long[CONTEXTS_NUMBER][BYTE_ALPHABET_SIZE];
+        byte[] inputBuffer = BufferPool.acquire(INPUT_BUFFER_SIZE);
+        int previous = 0;
+
+        try {
+            int read;
+            while ((read = fin.read(inputBuffer, 0, inputBuffer.length)) > 0) {
+                for (int i = 0; i < read; i++) {
+                    int symbol = inputBuffer[i] & 0xFF;
+                    ++frequencies[previous][symbol];
+                    previous = symbol;
+                }
+            }
+        } finally {
+            BufferPool.release(inputBuffer);
+        }
+        return frequencies;
+    }
+
+    /**
+     * This method creates code tables for contexts. At first every context is compared
+     * with the single table of whole data: own table is taken if coded context together with
+     * lengths of its code is smaller. Then shared table is rebuilt from the merged contexts.
+     *
+     * @param frequencies   frequencies[previous byte][byte];
+     * @param maxCodeLength maximal length of Huffman code in bits;
+     * @return              order-1 code.
+     */
+    static ContextCodec build(long[][] frequencies, int maxCodeLength) throws Exception {
+
+        long[] total = new long[BYTE_ALPHABET_SIZE];
+        for (long[] context : frequencies) {
+            for (int symbol = 0; symbol < BYTE_ALPHABET_SIZE; symbol++) {
+                total[symbol] += context[symbol];
+            }
+        }
+        BlockCodec.ensureTwoSymbols(total);
+        HCanonicalCode singleCode = new HCanonicalCode(HTree.limitCodeLengths(total, maxCodeLength));
+
+        /* choosing contexts that pay for their tables */
+        HCanonicalCode[] ownCodes = new HCanonicalCode[CONTEXTS_NUMBER];
+        long[] merged = new long[BYTE_ALPHABET_SIZE];
+        int tablesNumber = 1;
+        for (int context = 0; context < CONTEXTS_NUMBER; context++) {
+            long[] contextFrequencies = frequencies[context];
+            if (sum(contextFrequencies) >= MIN_CONTEXT_SIZE) {
+                long[] adjusted = contextFrequencies.clone();
+                BlockCodec.ensureTwoSymbols(adjusted);
+                HCanonicalCode ownCode = new HCanonicalCode(HTree.limitCodeLengths(adjusted, maxCodeLength));
+                long ownSize = ownCode.getCodedSize(contextFrequencies) + getLengthsSize(ownCode);
+                if (ownSize < singleCode.getCodedSize(contextFrequencies)) {
+                    ownCodes[context] = ownCode;
+                    ++tablesNumber;
+                    continue;
+                }
+            }
+            for (int symbol = 0; symbol < BYTE_ALPHABET_SIZE; symbol++) {
+                merged[symbol] += contextFrequencies[symbol];
+            }
+        }
+
+        /* shared table codes only merged contexts */
+        BlockCodec.ensureTwoSymbols(merged);
+        HCanonicalCode[] codes = new HCanonicalCode[tablesNumber];
+        codes[SHARED_TABLE] = new HCanonicalCode(HTree.limitCodeLengths(merged, maxCodeLength));
+
+        int[] tableOfContext = new int[CONTEXTS_NUMBER];
+        int table = SHARED_TABLE + 1;
+        for (int context = 0; context < CONTEXTS_NUMBER; context++) {
+            if (ownCodes[context] != null) {
+                codes[table] = ownCodes[context];
+                tableOfContext[context] = table++;
+            }
+        }
+        return new ContextCodec(codes, tableOfContext);
+    }
+
+    /**
+     * this method returns number of bytes that are taken by code lengths in header
+     */
+    private static int getLengthsSize(HCanonicalCode code) throws IOException {
+        ByteArrayOutputStream lengths = new ByteArrayOutputStream();
+        code.writeLengths(lengths);
+        return lengths.size();
+    }
+
+    private static long sum(long[] frequencies) {
+        long sum = 0;
+        for (long frequency : frequencies) {
+            sum += frequency;
+        }
+        return sum;
+    }
+
+    /**
+     * This method returns size of coded data, every context is rounded up
+     * to whole bytes, so the size may be a little greater than exact one
+     *
+     * @param frequencies   frequencies[previous byte][byte];
+     * @return              size of bitstream in bytes.
+     */
+    long getCodedSize(long[][] frequencies) {
+        long size = 0;
+        for (int context = 0; context < CONTEXTS_NUMBER; context++) {
+            size += codes[tableOfContext[context]].getCodedSize(frequencies[context]);
+        }
+        return size;
+    }
+
+    /** returns number of code tables including the shared one */
+    int getTablesNumber() {
+        return codes.length;
+    }
+
+    /**
+     * This method writes code tables to header
+     *
+     * @param fout  output stream.
+     */
+    void write(OutputStream fout) throws IOException {
+        codes[SHARED_TABLE].writeLengths(fout);
+
+        byte[] bitmap = new byte[CONTEXTS_NUMBER / 8];
+        for (int context = 0; context < CONTEXTS_NUMBER; context++) {
+            if (tableOfContext[context] != SHARED_TABLE) {
+                bitmap[context >>> 3] |= (byte) (1 << (context & 7));
+            }
+        }
+        fout.write(bitmap);
+
+        for (int table = SHARED_TABLE + 1; table < codes.length; table++) {
+            codes[table].writeLengths(fout);
+        }
+    }
+
+    /**
+     * This method reads code tables that are written by write method
+     *
+     * @param fin           input stream;
+     * @return              order-1 code;
+     * @throws Exception    when tables are corrupted.
+     */
+    static ContextCodec read(InputStream fin) throws Exception {
+        HCanonicalCode sharedCode = HCanonicalCode.readLengths(fin, BYTE_ALPHABET_SIZE);
+        byte[] bitmap = IOStreamManager.readExactly(fin, CONTEXTS_NUMBER / 8);
+
+        int[] tableOfContext = new int[CONTEXTS_NUMBER];
+        int tablesNumber = 1;
+        for (int context = 0; context < CONTEXTS_NUMBER; context++) {
+            if ((bitmap[context >>> 3] & (1 << (context & 7))) != 0) {
+                tableOfContext[context] = tablesNumber++;
+            }
+        }
+
+        HCanonicalCode[] codes = new HCanonicalCode[tablesNumber];
+        codes[SHARED_TABLE] = sharedCode;
+        for (int table = SHARED_TABLE + 1; table < tablesNumber; table++) {
+            codes[table] = HCanonicalCode.readLengths(fin, BYTE_ALPHABET_SIZE);
+        }
+        return new ContextCodec(codes, tableOfContext);
+    }
+
+    /**
+     * This method compresses all the data of input stream with order-1 code
+     *
+     * @param fin           input stream with uncompressed data;
+     * @param fout          output stream that is positioned after code tables;
+     * @return              number of compressed bytes;
+     * @throws Exception    when compressing is failed.
+     */
+    long compress(InputStream fin, OutputStream fout) throws Exception {
+
+        /* all tables are put one after another, so table is switched by offset */
+        int[] flatCodes = new int[codes.length * BYTE_ALPHABET_SIZE];
+        byte[] flatLengths = new byte[codes.length * BYTE_ALPHABET_SIZE];
+        for (int table = 0; table < codes.length; table++) {
+            System.arraycopy(codes[table].getCodes(), 0, flatCodes, table * BYTE_ALPHABET_SIZE, BYTE_ALPHABET_SIZE);
+            System.arraycopy(codes[table].getLengths(), 0, flatLengths, table * BYTE_ALPHABET_SIZE, BYTE_ALPHABET_SIZE);
+        }
+        int[] contextOffsets = new int[CONTEXTS_NUMBER];
+        for (int context = 0; context < CONTEXTS_NUMBER; context++) {
+            contextOffsets[context] = tableOfContext[context] * BYTE_ALPHABET_SIZE;
+        }
+
+        byte[] outputBuffer = BufferPool.acquire(OUTPUT_BUFFER_SIZE);
+        byte[] inputBuffer = BufferPool.acquire(INPUT_BUFFER_SIZE);
+        BitWriter bitWriter = new BitWriter(fout, outputBuffer);
+        int previous = 0;
+
+        try {
+            int read;
+            while ((read = fin.read(inputBuffer, 0, inputBuffer.length)) > 0) {
+                bitWriter.writeContextSymbols(inputBuffer, 0, read, previous, flatCodes, flatLengths, contextOffsets);
+                previous = inputBuffer[read - 1] & 0xFF;
+            }
+
+            bitWriter.finish();
+        } finally {
+            BufferPool.release(inputBuffer);
+            BufferPool.release(outputBuffer);
+        }
+        return bitWriter.getWrittenBytes();
+    }
+
+    /**
+     * This method decompresses given number of bytes from input stream
+     *
+     * @param uncomprFileSize   size of decompressed (original) file;
+     * @param fin               input stream that is positioned at the start of bitstream;
+     * @param fout              output stream for decompressed data;
+     * @throws Exception        when decompressing is failed.
+     */
+    void decompress(long uncomprFileSize, InputStream fin, OutputStream fout) throws Exception {
+
+        /* decoding table of every context, contexts that share code share the table */
+        HDecodingTable[] tables = new HDecodingTable[codes.length];
+        for (int table = 0; table < codes.length; table++) {
+            tables[table] = new HDecodingTable(codes[table]);
+        }
+        HDecodingTable[] tableByContext = new HDecodingTable[CONTEXTS_NUMBER];
+        for (int context = 0; context < CONTEXTS_NUMBER; context++) {
+            tableByContext[context] = tables[tableOfContext[context]];
+        }
+
+        byte[] outputBuffer = BufferPool.acquire(OUTPUT_BUFFER_SIZE);
+        byte[] inputBuffer = BufferPool.acquire(INPUT_BUFFER_SIZE);
+        BitReader bitReader = new BitReader(fin, inputBuffer);
+        int outputBufferSize = 0;
+        int previous = 0;
+
+        try {
+            for (long decodedBytesCounter = 0; decodedBytesCounter < uncomprFileSize; ++decodedBytesCounter) {
+                previous = tableByContext[previous].decodeSymbol(bitReader);
+                outputBuffer[outputBufferSize++] = (byte) previous;
+                if (outputBufferSize == OUTPUT_BUFFER_SIZE) {
+                    IOStreamManager.writeFromBufferToStream(fout, outputBuffer, outputBufferSize);
+                    outputBufferSize = 0;
+                }
+            }
+
+            IOStreamManager.writeFromBufferToStream(fout, outputBuffer, outputBufferSize);
+        } finally {
+            BufferPool.release(inputBuffer);
+            BufferPool.release(outputBuffer);
+        }
+    }
+
+}
@@ -0,0 +1,439 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Objects;
+
+/**
+ * This class presents reversible transform of data that is applied before
+ * Huffman coding. Order-0 Huffman code can`t use runs and regular structure
+ * of data, so they are turned into skewed frequencies first:
+ *
+ *  - run-length encoding: two equal bytes are followed by number (0..255) of their
+ *    further repeats, so long runs of 1-bit bitmaps become a few bytes;
+ *  - delta with stride 1..4: every byte is replaced with its difference from the byte
+ *    that is 'stride' bytes before (samples, RGB/RGBA pixels, tables of numbers).
+ *
+ * Data are transformed by streams, so nothing is kept in memory
+ * except a few bytes of history.
+ */
+public class DataFilter implements Constants {
+
+    static final int TYPE_NONE = 0;
+    static final int TYPE_RLE = 1;
+    static final int TYPE_DELTA = 2;
+
+    static final int MAX_STRIDE = 4;
+
+    /* size of the beginning of file that is used for choosing of filter */
+    static final int SAMPLE_SIZE = 1048576; // 1 MB
+
+    /* filter is used only if it makes estimated size smaller by this part */
+    private static final int MIN_GAIN_PERCENT = 3;
+
+    static final DataFilter NONE = new DataFilter(TYPE_NONE, 0);
+
+    private final int type;
+    private final int stride;
+
+    /**
+     * Constructor for creating filter
+     *
+     * @param type      one of TYPE_ constants;
+     * @param stride    distance between bytes for delta filter, 0 for others.
+     */
+    DataFilter(int type, int stride) {
+        this.type = type;
+        this.stride = stride;
+    }
+
+    /**
+     * This method chooses filter that gives the smallest coded size
+     * of the sample of data
+     *
+     * @param sample        bytes from the beginning of data;
+     * @param length        number of bytes in the sample;
+     * @param maxCodeLength maximal length of Huffman code in bits;
+     * @return              the best filter or NONE.
+     */
+    static DataFilter choose(byte[] sample, int length, int maxCodeLength) throws Exception {
+
+        long bestSize = estimateSize(NONE, sample, length, maxCodeLength);
+        long noneSize = bestSize;
+        DataFilter best = NONE;
+
+        DataFilter[] candidates = new DataFilter[MAX_STRIDE + 1];
+        candidates[0] = new DataFilter(TYPE_RLE, 0);
+        for (int stride = 1; stride <= MAX_STRIDE; stride++) {
+            candidates[stride] = new DataFilter(TYPE_DELTA, stride);
+        }
+
+        for (DataFilter candidate : candidates) {
+            long size = estimateSize(candidate, sample, length, maxCodeLength);
+            if (size < bestSize) {
+                bestSize = size;
+                best = candidate;
+            }
+        }
+
+        return bestSize < noneSize - noneSize * MIN_GAIN_PERCENT / 100 ? best : NONE;
+    }
+
+    /**
+     * this method returns exact size of Huffman-coded sample after the filter
+     */
+    private static long estimateSize(DataFilter filter, byte[] sample, int length, int maxCodeLength) throws Exception {
+        byte[] filtered;
+        try (InputStream filteredStream = filter.encode(new ByteArrayInputStream(sample, 0, length))) {
+            filtered = filteredStream.readAllBytes();
+        }
+        long[] frequencies = ByteHistogram.count(filtered, 0, filtered.length);
+        BlockCodec.ensureTwoSymbols(frequencies);
+        HCanonicalCode code = new HCanonicalCode(HTree.limitCodeLengths(frequencies, maxCodeLength));
+        return code.getCodedSize(frequencies);
+    }
+
+    /**
+     * This method wraps stream of original data into stream of filtered data
+     *
+     * @param in    stream of original data;
+     * @return      stream of filtered data.
+     */
+    InputStream encode(InputStream in) {
+        switch (type) {
+            case TYPE_RLE:
+                return new RleEncodingStream(in);
+            case TYPE_DELTA:
+                return new DeltaEncodingStream(in, stride);
+            default:
+                return in;
+        }
+    }
+
+    /**
+     * This method wraps output stream, so filtered data that are written into
+     * the wrapper are restored and written to the output stream.
+     * The wrapper must be closed instead of output stream.
+     *
+     * @param out   stream for original data;
+     * @return      stream for filtered data.
+     */
+    OutputStream decode(OutputStream out) {
+        switch (type) {
+            case TYPE_RLE:
+                return new RleDecodingStream(out);
+            case TYPE_DELTA:
+                return new DeltaDecodingStream(out, stride);
+            default:
+                return out;
+        }
+    }
+
+    /**
+     * This method writes type and parameter of the filter to header
+     *
+     * @param fout  output stream.
+     */
+    void write(OutputStream fout) throws IOException {
+        fout.write(type);
+        fout.write(stride);
+    }
+
+    /**
+     * This method reads filter that is written by write method
+     *
+     * @param fin           input stream;
+     * @return              filter;
+     * @throws IOException  when filter is unknown.
+     */
+    static DataFilter read(InputStream fin) throws IOException {
+        int type = fin.read();
+        int stride = fin.read();
+        if (type == TYPE_NONE && stride == 0) {
+            return NONE;
+        }
+        if (type == TYPE_RLE && stride == 0 || type == TYPE_DELTA && stride >= 1 && stride <= MAX_STRIDE) {
+            return new DataFilter(type, stride);
+        }
+        throw new IOException("Unsupported filter [" + type + ", " + stride + "] of compressed file");
+    }
+
+    boolean isNone() {
+        return type == TYPE_NONE;
+    }
+
+    @Override
+    public String toString() {
+        switch (type) {
+            case TYPE_RLE:
+                return "rle";
+            case TYPE_DELTA:
+                return stride == 1 ? "delta" : "delta (stride " + stride + ")";
+            default:
+                return "none";
+        }
+    }
+
+    /*
+     * Following chunk of code contains streams of filters
+     *  |
+     *  V
+     */
+
+    /**
+     * This stream replaces bytes with their differences from bytes 'stride' positions before
+     */
+    private static class DeltaEncodingStream extends FilterInputStream {
+
+        private final byte[] history;
+        private int position = 0;
+
+        DeltaEncodingStream(InputStream in, int stride) {
+            super(in);
+            this.history = new byte[stride];
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            for (int i = off; i < off + read; i++) {
+                byte original = b[i];
+                b[i] = (byte) (original - history[position]);
+                history[position] = original;
+                if (++position == history.length) {
+                    position = 0;
+                }
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) {
+            return 0;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    /**
+     * This stream restores bytes from their differences
+     */
+    private static class DeltaDecodingStream extends FilterOutputStream {
+
+        private final byte[] history;
+        private int position = 0;
+        private final byte[] buffer = new byte[OUTPUT_CHUNK_SIZE];
+
+        DeltaDecodingStream(OutputStream out, int stride) {
+            super(out);
+            this.history = new byte[stride];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            Objects.checkFromIndexSize(off, len, b.length);
+            while (len > 0) {
+                int portion = Math.min(len, buffer.length);
+                for (int i = 0; i < portion; i++) {
+                    byte original = (byte) (b[off + i] + history[position]);
+                    buffer[i] = original;
+                    history[position] = original;
+                    if (++position == history.length) {
+                        position = 0;
+                    }
+                }
+                out.write(buffer, 0, portion);
+                off += portion;
+                len -= portion;
+            }
+        }
+    }
+
+    /**
+     * This stream replaces runs of equal bytes: run of 'n' bytes (n >= 2) is written
+     * as two bytes and number of further repeats, runs that are longer than
+     * 257 bytes are split.
+     */
+    private static class RleEncodingStream extends FilterInputStream {
+
+        private static final int MAX_RUN = 257;
+
+        private final byte[] source = new byte[OUTPUT_CHUNK_SIZE];
+        private final byte[] encoded = new byte[OUTPUT_CHUNK_SIZE * 3 / 2 + 3];
+        private int encodedSize = 0;
+        private int encodedPosition = 0;
+
+        private int runValue = 0;
+        private int runLength = 0;
+        private boolean isEnded = false;
+
+        RleEncodingStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            Objects.checkFromIndexSize(off, len, b.length);
+            if (len == 0) {
+                return 0;
+            }
+            while (encodedPosition == encodedSize) {
+                if (isEnded) {
+                    return -1;
+                }
+                encodeNextChunk();
+            }
+            int portion = Math.min(len, encodedSize - encodedPosition);
+            System.arraycopy(encoded, encodedPosition, b, off, portion);
+            encodedPosition += portion;
+            return portion;
+        }
+
+        /**
+         * this method encodes next chunk of source, the last run is kept open
+         * because it may continue in the next chunk
+         */
+        private void encodeNextChunk() throws IOException {
+            encodedSize = 0;
+            encodedPosition = 0;
+
+            int read = in.read(source, 0, source.length);
+            if (read < 0) {
+                flushRun();
+                isEnded = true;
+                return;
+            }
+
+            for (int i = 0; i < read; i++) {
+                int value = source[i] & 0xFF;
+                if (runLength > 0 && value == runValue && runLength < MAX_RUN) {
+                    ++runLength;
+                } else {
+                    flushRun();
+                    runValue = value;
+                    runLength = 1;
+                }
+            }
+        }
+
+        private void flushRun() {
+            if (runLength == 0) {
+                return;
+            }
+            encoded[encodedSize++] = (byte) runValue;
+            if (runLength > 1) {
+                encoded[encodedSize++] = (byte) runValue;
+                encoded[encodedSize++] = (byte) (runLength - 2);
+            }
+            runLength = 0;
+        }
+
+        @Override
+        public long skip(long n) {
+            return 0;
+        }
+
+        @Override
+        public int available() {
+            return encodedSize - encodedPosition;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    /**
+     * This stream expands runs that are written by RleEncodingStream
+     */
+    private static class RleDecodingStream extends FilterOutputStream {
+
+        private final byte[] buffer = new byte[OUTPUT_CHUNK_SIZE];
+        private int bufferSize = 0;
+
+        /* previous byte or -1 if the next byte can`t continue a run */
+        private int previous = -1;
+        private boolean isCountExpected = false;
+
+        RleDecodingStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            Objects.checkFromIndexSize(off, len, b.length);
+            for (int i = off; i < off + len; i++) {
+                int value = b[i] & 0xFF;
+                if (isCountExpected) {
+                    for (int repeat = 0; repeat < value; repeat++) {
+                        put(previous);
+                    }
+                    isCountExpected = false;
+                    previous = -1;
+                } else {
+                    put(value);
+                    isCountExpected = value == previous;
+                    previous = value;
+                }
+            }
+        }
+
+        private void put(int value) throws IOException {
+            if (bufferSize == buffer.length) {
+                out.write(buffer, 0, bufferSize);
+                bufferSize = 0;
+            }
+            buffer[bufferSize++] = (byte) value;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.write(buffer, 0, bufferSize);
+            bufferSize = 0;
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+                if (isCountExpected) {
+                    throw new IOException("Compressed data is corrupted or truncated");
+                }
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+}
@@ -2,7 +2,6 @@ package com.shpp.p2p.cs.abaryshnikov.assignment15;
 
 import java.io.*;
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
 
 /**
  *  This class is used for decompressing (unarchiving) .par files
@@ -16,25 +15,115 @@ public class Decompressor implements Constants {
      * @param outputFName   path to decompressed file
      */
     public static int decompress(String inputFName, String outputFName){
+        return decompress(inputFName, outputFName, new ArchiverOptions());
+    }
+
+    /**
+     * This method is used for decompressing file with given settings
+     *
+     * @param inputFName    path to .par file that need to be decompressed
+     * @param outputFName   path to decompressed file
+     * @param options       settings of decompressing (number of threads)
+     */
+    public static int decompress(String inputFName, String outputFName, ArchiverOptions options){
+        int result = performDecompression(inputFName, outputFName, options);
+        if (result != RETURN_VALUE_SUCCESS) {
+            ArchiverMetrics.getInstance().addFailure();
+        }
+        return result;
+    }
 
-        System.out.println("Decompressing [" + inputFName + "] to [" + outputFName + "] ... ");
+    /**
+     * This method is used for testing compressed file: it is decoded and verified
+     * with checksums, but decompressed data are not written anywhere
+     *
+     * @param inputFName    path to .par file that need to be tested
+     * @param options       settings of decompressing (number of threads)
+     */
+    public static int test(String inputFName, ArchiverOptions options) {
+        int result = performDecompression(inputFName, null, options);
+        if (result != RETURN_VALUE_SUCCESS) {
+            ArchiverMetrics.getInstance().addFailure();
+        }
+        return result;
+    }
+
+    /**
+     * This method decompresses file, phases of decompressing are reported
+     * as JFR events and added to metrics. Data are only verified when output file is null.
+     */
+    private static int performDecompression(String inputFName, String outputFName, ArchiverOptions options){
+
+        boolean isTest = outputFName == null;
+        if (options.isVerbose()) {
+            System.out.println(isTest
+                ? "Testing [" + inputFName + "] ... "
+                : "Decompressing [" + inputFName + "] to [" + outputFName + "] ... ");
+        }
 
         /* remembering starting time */
         long start = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
+        ArchiverPhase phase;
 
         /*
-         * creating streams
+         * creating input stream, streams are read and written by their own threads
+         * while data are decoded in this one
          */
         InputStream fin;
         OutputStream fout;
+        PipelineStats pipeline = options.isPipelined() ? new PipelineStats() : null;
         try {
-            fin = IOStreamManager.createInputStream(inputFName);
+            fin = IOStreamManager.createInputStream(inputFName, options.getIOBackend(), pipeline);
         } catch (IOException e) {
             System.err.println(e.getMessage());
             return RETURN_VALUE_FAIL;
         }
+
+        /* reading input file size */
+        long inputFileSize = IOStreamManager.getFileSize(inputFName);
+
+        /*
+         * Reading header of compressed file (or restoring Huffman tree from legacy header)
+         */
+        long uncomprFileSize;
+        ParHeader header = null;
+        HTree legacyTree = null;
+        phase = ArchiverPhase.start(ArchiverPhase.DECOMPRESS, ArchiverPhase.HEADER, inputFName);
+        try {
+            int firstByte = fin.read();
+            if (ParHeader.isVersioned(firstByte)) {
+                header = ParHeader.read(fin);
+                uncomprFileSize = header.getOriginalSize();
+            } else {
+                /* legacy header: flattened tree and size of original file */
+                legacyTree = restoreHuffmanTree(firstByte, fin);
+                uncomprFileSize = getUncomprFileSize(fin);
+            }
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+            try {
+                IOStreamManager.closeIOStreams(fin, null);
+            } catch (IOException exception) {
+                System.err.println(exception.getMessage());
+            }
+            return RETURN_VALUE_FAIL;
+        }
+
+        phase.finish(0, 0);
+
+        /*
+         * creating output stream, its size is known from the header
+         */
+        ChecksumOutputStream checkedOut;
         try {
-            fout = IOStreamManager.createOutputStream(outputFName);
+            boolean isSizeKnown = header == null || header.getMethod() != METHOD_STREAM;
+            fout = isTest
+                ? OutputStream.nullOutputStream()
+                : IOStreamManager.createOutputStream(outputFName, options.getIOBackend(),
+                    isSizeKnown ? uncomprFileSize : -1, pipeline);
+            checkedOut = new ChecksumOutputStream(fout);
+            fout = checkedOut;
         } catch (IOException e) {
             System.err.println(e.getMessage());
             try {
@@ -45,57 +134,181 @@ public class Decompressor implements Constants {
             return RETURN_VALUE_FAIL;
         }
 
-        /* reading input file size */
-        long inputFileSize = IOStreamManager.getFileSize(inputFName);
-
         /*
-         * Restoring Huffman tree from header of compressed file and decompressing
+         * decompressing, data of single segment are followed by checksum that is held back from decoders.
+         * Blocks and frames verify their checksums themselves
          */
-        long uncomprFileSize;
+        boolean hasTrailer = header != null && header.hasChecksums() && header.getMethod() != METHOD_STREAM
+            && header.getMethod() != METHOD_BLOCKS && header.getMethod() != METHOD_ARCHIVE;
+        if (hasTrailer) {
+            fin = new TrailerInputStream(fin, CHECKSUM_SIZE);
+        }
         try {
-            HTree tree = restoreHuffmanTree(fin);
-            uncomprFileSize = getUncomprFileSize(fin);
-            decompressFile(uncomprFileSize, tree, fin, fout);
+            if (header == null) {
+                phase = ArchiverPhase.start(ArchiverPhase.DECOMPRESS, ArchiverPhase.TREE, inputFName);
+                HDecodingTable decodingTable = new HDecodingTable(legacyTree);
+                phase.finish(0, 0);
+
+                phase = ArchiverPhase.start(ArchiverPhase.DECOMPRESS, ArchiverPhase.DECODE, inputFName);
+                decompressFile(uncomprFileSize, decodingTable, fin, fout, options);
+                phase.finish(inputFileSize, uncomprFileSize);
+            } else {
+                switch (header.getMethod()) {
+                    case METHOD_HUFFMAN:
+                        phase = ArchiverPhase.start(ArchiverPhase.DECOMPRESS, ArchiverPhase.TREE, inputFName);
+                        HCanonicalCode code = HCanonicalCode.readLengths(fin, BYTE_ALPHABET_SIZE);
+                        HDecodingTable decodingTable = new HDecodingTable(code);
+                        phase.setCode(code.getLengths(), null);
+                        phase.finish(0, 0);
+
+                        phase = ArchiverPhase.start(ArchiverPhase.DECOMPRESS, ArchiverPhase.DECODE, inputFName);
+                        decompressFile(uncomprFileSize, decodingTable, fin, fout, options);
+                        phase.finish(inputFileSize, uncomprFileSize);
+                        break;
+                    case METHOD_DICTIONARY:
+                        /* code table is shared, it is taken from dictionary that is loaded once */
+                        phase = ArchiverPhase.start(ArchiverPhase.DECOMPRESS, ArchiverPhase.TREE, inputFName);
+                        HDecodingTable dictionaryTable = getDictionary(IOStreamManager.readInt(fin), options).getDecodingTable();
+                        phase.finish(0, 0);
+
+                        phase = ArchiverPhase.start(ArchiverPhase.DECOMPRESS, ArchiverPhase.DECODE, inputFName);
+                        decompressFile(uncomprFileSize, dictionaryTable, fin, fout, options);
+                        phase.finish(inputFileSize, uncomprFileSize);
+                        break;
+                    case METHOD_FILTERED:
+                        /* decoded bytes are restored by filter on their way to output file */
+                        phase = ArchiverPhase.start(ArchiverPhase.DECOMPRESS, ArchiverPhase.TREE, inputFName);
+                        DataFilter filter = DataFilter.read(fin);
+                        long filteredSize = IOStreamManager.readVarLong(fin);
+                        HCanonicalCode filteredCode = HCanonicalCode.readLengths(fin, BYTE_ALPHABET_SIZE);
+                        HDecodingTable filteredTable = new HDecodingTable(filteredCode);
+                        phase.setCode(filteredCode.getLengths(), null);
+                        phase.finish(0, 0);
+
+                        phase = ArchiverPhase.start(ArchiverPhase.DECOMPRESS, ArchiverPhase.DECODE, inputFName);
+                        fout = filter.decode(fout);
+                        decompressFile(filteredSize, filteredTable, fin, fout, options);
+                        phase.finish(inputFileSize, uncomprFileSize);
+                        break;
+                    case METHOD_ORDER1:
+                        phase = ArchiverPhase.start(ArchiverPhase.DECOMPRESS, ArchiverPhase.TREE, inputFName);
+                        ContextCodec contextCode = ContextCodec.read(fin);
+                        phase.finish(0, 0);
+
+                        phase = ArchiverPhase.start(ArchiverPhase.DECOMPRESS, ArchiverPhase.DECODE, inputFName);
+                        contextCode.decompress(uncomprFileSize, fin, fout);
+                        phase.finish(inputFileSize, uncomprFileSize);
+                        break;
+                    case METHOD_LZ:
+                        phase = ArchiverPhase.start(ArchiverPhase.DECOMPRESS, ArchiverPhase.DECODE, inputFName);
+                        LzCodec.decompress(uncomprFileSize, fin, fout, header.hasChecksums());
+                        phase.finish(inputFileSize, uncomprFileSize);
+                        break;
+                    case METHOD_BWT:
+                        phase = ArchiverPhase.start(ArchiverPhase.DECOMPRESS, ArchiverPhase.DECODE, inputFName);
+                        BwtCodec.decompress(uncomprFileSize, fin, fout, header.hasChecksums(), options);
+                        phase.finish(inputFileSize, uncomprFileSize);
+                        break;
+                    case METHOD_BLOCKS:
+                        if (IOStreamManager.isStandardStream(inputFName)) {
+                            throw new Exception("File that is compressed in blocks can`t be read from standard input");
+                        }
+                        /* blocks are read with random access, size of block is informative only */
+                        phase = ArchiverPhase.start(ArchiverPhase.DECOMPRESS, ArchiverPhase.DECODE, inputFName);
+                        IOStreamManager.readVarLong(fin);
+                        BlockCodec.decompressBlocks(inputFName, fout, header.hasChecksums(), options);
+                        phase.finish(inputFileSize, uncomprFileSize);
+                        break;
+                    case METHOD_ADAPTIVE:
+                        phase = ArchiverPhase.start(ArchiverPhase.DECOMPRESS, ArchiverPhase.DECODE, inputFName);
+                        AdaptiveCodec.decompress(uncomprFileSize, fin, fout);
+                        phase.finish(inputFileSize, uncomprFileSize);
+                        break;
+                    case METHOD_STREAM:
+                        /* size is not stored in header, it is counted while frames are decoded */
+                        phase = ArchiverPhase.start(ArchiverPhase.DECOMPRESS, ArchiverPhase.DECODE, inputFName);
+                        uncomprFileSize = IOStreamManager.transfer(new HuffmanInputStream(fin, header), fout);
+                        phase.finish(inputFileSize, uncomprFileSize);
+                        break;
+                    case METHOD_STORED:
+                        phase = ArchiverPhase.start(ArchiverPhase.DECOMPRESS, ArchiverPhase.DECODE, inputFName);
+                        if (IOStreamManager.transfer(fin, fout) != uncomprFileSize) {
+                            throw new IOException("Compressed data is corrupted or truncated");
+                        }
+                        phase.finish(inputFileSize, uncomprFileSize);
+                        break;
+                    case METHOD_ARCHIVE:
+                        throw new Exception("File is a multi-file archive, use '-list' and '-unpack' for it");
+                    default:
+                        throw new Exception("Unsupported compression method [" + header.getMethod() + "]");
+                }
+            }
+
+            /* comparing checksum of written data with the stored one */
+            if (hasTrailer) {
+                int storedChecksum = ByteBuffer.wrap(((TrailerInputStream) fin).readTrailer()).getInt();
+                fout.flush();
+                if (storedChecksum != checkedOut.getChecksum()) {
+                    throw new IOException("Checksum of decompressed data doesn`t match, compressed file is corrupted");
+                }
+            }
         } catch (Exception e) {
             System.err.println(e.getMessage());
+            try {
+                IOStreamManager.closeIOStreams(fin, fout);
+            } catch (IOException exception) {
+                System.err.println(exception.getMessage());
+            }
             return RETURN_VALUE_FAIL;
         }
 
         /* closing streams */
+        phase = ArchiverPhase.start(ArchiverPhase.DECOMPRESS, ArchiverPhase.FLUSH, inputFName);
         try {
             IOStreamManager.closeIOStreams(fin, fout);
         } catch (IOException e) {
             System.err.println(e.getMessage());
             return RETURN_VALUE_FAIL;
         }
+        phase.finish(0, 0);
 
         /* timing and size output */
-        long outputFileSize = IOStreamManager.getFileSize(outputFName);
+        long outputFileSize = isTest || IOStreamManager.isStandardStream(outputFName)
+            ? checkedOut.getWrittenBytes() : IOStreamManager.getFileSize(outputFName);
         if (uncomprFileSize != outputFileSize){
             System.err.println("Size of original file and decompressed file are not equal. Some error occured");
             return RETURN_VALUE_FAIL;
         }
-        System.out.println("Time to decompress: \t\t[" + (System.currentTimeMillis()-start) + "] ms"
-                            +"\nSize of input file: \t\t[" + inputFileSize + "] bytes"
-                            +"\nSize of decompressed file: \t[" + outputFileSize + "] bytes");
+        ArchiverMetrics.getInstance().addDecompressed(inputFileSize, outputFileSize, System.nanoTime() - startNanos);
+        if (options.isVerbose()) {
+            System.out.println("Time to decompress: \t\t[" + (System.currentTimeMillis()-start) + "] ms"
+                                +"\nSize of input file: \t\t[" + inputFileSize + "] bytes"
+                                +"\nSize of decompressed file: \t[" + outputFileSize + "] bytes");
+            if (pipeline != null) {
+                System.out.println(pipeline.report());
+            }
+        }
 
         return RETURN_VALUE_SUCCESS;
     }
 
 
     /**
-     * This method is used for restoring Huffman tree from '.par' file
+     * This method is used for restoring Huffman tree from legacy '.par' file
      * which header contains its flattened form.
      *
+     * @param firstByte     first (already read) byte of the file;
      * @param fin           file input stream that contains compressed '.par' file with header that
      *                      contains flattened Huffman tree;
      * @return              Huffman tree as instance of HTree class;
      * @throws Exception    when creation of Huffman tree is failed.
      */
-    private static HTree restoreHuffmanTree(InputStream fin) throws Exception {
+    private static HTree restoreHuffmanTree(int firstByte, InputStream fin) throws Exception {
 
         /* reading size of tree */
-        byte[] treeSizeAsBytes = fin.readNBytes(SHORT_SIZE_IN_BYTES);
+        byte[] treeSizeAsBytes = new byte[SHORT_SIZE_IN_BYTES];
+        treeSizeAsBytes[0] = (byte) firstByte;
+        treeSizeAsBytes[1] = IOStreamManager.readExactly(fin, 1)[0];
         ByteBuffer wrapper = ByteBuffer.wrap(treeSizeAsBytes);
         short treeSize = wrapper.getShort();
 
@@ -126,6 +339,28 @@ public class Decompressor implements Constants {
         return new HTree(treeStructure, treeLeaves);
     }
 
+    /**
+     * This method returns dictionary that is given with settings
+     * and checks that file is compressed with it
+     *
+     * @param id            ID of dictionary from header of compressed file;
+     * @param options       settings with dictionary;
+     * @return              dictionary with given ID;
+     * @throws Exception    when dictionary is not given or it is another one.
+     */
+    static ParDictionary getDictionary(int id, ArchiverOptions options) throws Exception {
+        ParDictionary dictionary = options.getDictionary();
+        if (dictionary == null) {
+            throw new Exception("File is compressed with dictionary [" + ParDictionary.nameOf(id)
+                + "], use '-dict' to give it");
+        }
+        if (dictionary.getId() != id) {
+            throw new Exception("File is compressed with dictionary [" + ParDictionary.nameOf(id)
+                + "], but dictionary [" + dictionary.getName() + "] is given");
+        }
+        return dictionary;
+    }
+
     /**
      * This method is used for getting decompressed file size from '.par' file
      * which header contains it.
@@ -142,79 +377,54 @@ public class Decompressor implements Constants {
     }
 
     /**
-     * This method is used for decompressing file using Huffman algorithm
-     * and bitwise operations.
+     * This method is used for decompressing file using Huffman algorithm.
+     * Codes are resolved with lookup table several bits at a time,
+     * so the tree is not walked bit by bit. Large files are decoded
+     * speculatively on several threads when it is allowed.
      *
      * @param uncomprFileSize   size of decompressed (original) file;
-     * @param tree              Huffman tree using which the input file was encoded;
-     * @param fin               file input stream that contains input file (uncompressed);
-     * @param fout              file output stream that contains output file (compressed);
+     * @param decodingTable     lookup table of Huffman code using which the input file was encoded;
+     * @param fin               file input stream that contains input file (compressed);
+     * @param fout              file output stream that contains output file (decompressed);
+     * @param options           number of threads and shared pool;
      * @throws Exception        when decompressing is failed.
      */
-    private static void decompressFile(long uncomprFileSize, HTree tree, InputStream fin, OutputStream fout) throws Exception {
+    static void decompressFile(long uncomprFileSize, HDecodingTable decodingTable,
+                               InputStream fin, OutputStream fout, ArchiverOptions options) throws Exception {
 
-        /* creating buffer in RAM to write decompressed bytes into */
-        ArrayList<Byte> outputBuffer = new ArrayList<>();
-        outputBuffer.ensureCapacity(OUTPUT_BUFFER_SIZE);
+        if (options.getThreadsNumber() > 1 && uncomprFileSize > SpeculativeDecoder.REGION_SIZE) {
+            SpeculativeDecoder.decompress(uncomprFileSize, decodingTable, fin, fout, options);
+            return;
+        }
 
-        /* preparing necessary variables */
-        int shiftForCurrentIter = 0;
-        byte[] inputBuffer = new byte[INPUT_BUFFER_SIZE];
-        long decodedBytesCounter = 0;
-        boolean isDecodingCurrentByte; // this flag is used for understanding if all bits from current byte are taken or not
+        /* taking buffers in RAM to write decompressed bytes into and to read compressed bytes from */
+        byte[] outputBuffer = BufferPool.acquire(OUTPUT_BUFFER_SIZE);
+        byte[] inputBuffer = BufferPool.acquire(INPUT_BUFFER_SIZE);
+        int outputBufferSize = 0;
 
-        /*
-         * reading file block by block, compressing and writing to file
-         */
-        while (fin.available() > 0) {
-
-            if (fin.available() < INPUT_BUFFER_SIZE) {
-                inputBuffer = new byte[fin.available()];
-            }
-            //noinspection ResultOfMethodCallIgnored
-            fin.read(inputBuffer, 0, inputBuffer.length);
+        BitReader bitReader = new BitReader(fin, inputBuffer);
 
+        try {
             /*
-             * preforming main operations in decoding/decompressing of the bytes
-             * that are present in the input buffer
+             * decoding bytes one by one and writing them to file block by block
              */
-            for (byte currentByteToDecode : inputBuffer){
-
-                isDecodingCurrentByte = true;
-
-                while (isDecodingCurrentByte & decodedBytesCounter != uncomprFileSize){
+            for (long decodedBytesCounter = 0; decodedBytesCounter < uncomprFileSize; ++decodedBytesCounter) {
 
-                    /* feeding tree with bits until we get a decoded byte */
-                    while (!tree.isByteDecoded()) {
+                outputBuffer[outputBufferSize++] = (byte) decodingTable.decodeSymbol(bitReader);
 
-                        /* returning to foreach loop to take next byte from buffer if current is decoded */
-                        if (shiftForCurrentIter > 7) {
-                            shiftForCurrentIter = 0;
-                            isDecodingCurrentByte = false;
-                            break;
-                        }
-                        /* feeding tree with bits from current byte 'b' */
-                        byte bit = (byte) ((currentByteToDecode >> shiftForCurrentIter) & 1);
-                        tree.decode(bit);
-                        ++shiftForCurrentIter;
-                    }
-
-                    if (isDecodingCurrentByte){
-                        /* adding decoded byte into output buffer */
-                        outputBuffer.add(tree.getDecodedByte());
-                        ++decodedBytesCounter;
-
-                        /* if buffer is full or the end of file is met, bytes from buffer are written to file on hard drive*/
-                        if (outputBuffer.size() > OUTPUT_BUFFER_SIZE) {
-                            IOStreamManager.writeOutputBufferToFile(fout, outputBuffer);
-                        }
-                    }
+                /* if buffer is full, bytes from buffer are written to file on hard drive */
+                if (outputBufferSize == OUTPUT_BUFFER_SIZE) {
+                    IOStreamManager.writeFromBufferToStream(fout, outputBuffer, outputBufferSize);
+                    outputBufferSize = 0;
                 }
             }
-        }
 
-        /* writing last chunk of bytes */
-        IOStreamManager.writeOutputBufferToFile(fout, outputBuffer);
+            /* writing last chunk of bytes */
+            IOStreamManager.writeFromBufferToStream(fout, outputBuffer, outputBufferSize);
+        } finally {
+            BufferPool.release(inputBuffer);
+            BufferPool.release(outputBuffer);
+        }
     }
 
 }
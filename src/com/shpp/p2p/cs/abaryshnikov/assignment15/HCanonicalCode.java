@@ -0,0 +1,285 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * This class presents canonical Huffman code that is fully defined by
+ * code lengths of the symbols. Codes are assigned in order of (length, symbol),
+ * so only lengths are stored in the header of compressed file and both compressor
+ * and decompressor build their flat tables straight from them.
+ *
+ * Codes are kept bit-reversed, because bits are written to bitstream
+ * starting from the least significant bit of each byte.
+ */
+public class HCanonicalCode {
+
+    static final int MAX_CODE_LENGTH = 32;
+
+    private final byte[] lengths;
+    private final int[] codes;
+    private final int symbolsNumber;
+
+    /**
+     * Constructor for creating canonical code from code lengths
+     *
+     * @param lengths   code length for every symbol of the alphabet, 0 means that
+     *                  symbol doesn`t appear in the data.
+     * @throws Exception when lengths don`t form complete prefix code.
+     */
+    HCanonicalCode(byte[] lengths) throws Exception {
+        this.lengths = lengths;
+        this.codes = new int[lengths.length];
+
+        /* counting codes of every length */
+        int[] lengthsCounter = new int[MAX_CODE_LENGTH + 1];
+        int counter = 0;
+        for (byte length : lengths) {
+            int len = length & 0xFF;
+            if (len > MAX_CODE_LENGTH) {
+                throw new Exception("Code length [" + len + "] exceeds " + MAX_CODE_LENGTH + " bits");
+            }
+            if (len > 0) {
+                ++lengthsCounter[len];
+                ++counter;
+            }
+        }
+        symbolsNumber = counter;
+
+        if (symbolsNumber < 2) {
+            throw new Exception("Huffman algorithm needs at least two unique bytes in the input file");
+        }
+
+        /* checking that code is complete: sum of 2^-length must be equal to 1 */
+        long kraftSum = 0;
+        for (int len = 1; len <= MAX_CODE_LENGTH; len++) {
+            kraftSum += (long) lengthsCounter[len] << (MAX_CODE_LENGTH - len);
+        }
+        if (kraftSum != 1L << MAX_CODE_LENGTH) {
+            throw new Exception("Code lengths don`t form complete prefix code");
+        }
+
+        /* finding first code of every length */
+        int[] nextCode = new int[MAX_CODE_LENGTH + 2];
+        int code = 0;
+        for (int len = 1; len <= MAX_CODE_LENGTH; len++) {
+            code = (code + lengthsCounter[len - 1]) << 1;
+            nextCode[len] = code;
+        }
+
+        /* assigning codes in order of symbols */
+        for (int symbol = 0; symbol < lengths.length; symbol++) {
+            int len = lengths[symbol] & 0xFF;
+            if (len > 0) {
+                codes[symbol] = Integer.reverse(nextCode[len]++) >>> (32 - len);
+            }
+        }
+    }
+
+    /** returns code of the symbol, bits must be written starting from the lowest one */
+    int getCode(int symbol) {
+        return codes[symbol];
+    }
+
+    /** returns codes of all the symbols of alphabet */
+    int[] getCodes() {
+        return codes;
+    }
+
+    /** returns code length of the symbol in bits */
+    int getLength(int symbol) {
+        return lengths[symbol] & 0xFF;
+    }
+
+    /** returns code lengths of all the symbols of alphabet */
+    byte[] getLengths() {
+        return lengths;
+    }
+
+    /**
+     * This method returns exact size of bitstream that is coded with this code
+     *
+     * @param frequencies   frequency of every symbol of data;
+     * @return              size of bitstream in bytes (the last byte is completed).
+     */
+    long getCodedSize(long[] frequencies) {
+        long bits = 0;
+        for (int symbol = 0; symbol < lengths.length; symbol++) {
+            bits += frequencies[symbol] * (lengths[symbol] & 0xFF);
+        }
+        return (bits + 7) >>> 3;
+    }
+
+    /** returns number of symbols of alphabet */
+    int getAlphabetSize() {
+        return lengths.length;
+    }
+
+    /**
+     * This method converts canonical code to array of children of internal nodes
+     * that is used for building decoding table. Node 0 is root, bit '0' goes
+     * to children[2*i], bit '1' goes to children[2*i+1], negative value ~s is a leaf
+     * with symbol 's'. No tree objects are created.
+     */
+    int[] getChildren() {
+        int[] children = new int[2 * (symbolsNumber - 1)];
+        Arrays.fill(children, Integer.MIN_VALUE);
+        int nodesCounter = 1;
+
+        for (int symbol = 0; symbol < lengths.length; symbol++) {
+            int len = lengths[symbol] & 0xFF;
+            int code = codes[symbol];
+            int node = 0;
+            for (int i = 0; i < len - 1; i++) {
+                int slot = 2 * node + ((code >>> i) & 1);
+                if (children[slot] == Integer.MIN_VALUE) {
+                    children[slot] = nodesCounter++;
+                }
+                node = children[slot];
+            }
+            if (len > 0) {
+                children[2 * node + ((code >>> (len - 1)) & 1)] = ~symbol;
+            }
+        }
+
+        return children;
+    }
+
+    /*
+     * Following chunk of code contains methods for writing code lengths
+     * to the header of compressed file and reading them back
+     *  |
+     *  V
+     */
+
+    /**
+     * This method writes code lengths to output stream in compact form:
+     * number of used symbols, maximal code length, set of used symbols
+     * (as a list or as a bitmap, whichever is smaller) and lengths of used symbols
+     * (packed by two in a byte when they fit in 4 bits).
+     *
+     * @param fout          output stream;
+     * @throws IOException  when writing to file failed.
+     */
+    void writeLengths(OutputStream fout) throws IOException {
+
+        int maxLength = 0;
+        for (byte length : lengths) {
+            maxLength = Math.max(maxLength, length & 0xFF);
+        }
+
+        IOStreamManager.writeVarLong(fout, symbolsNumber);
+        fout.write(maxLength);
+
+        /* writing set of used symbols */
+        int symbolSize = lengths.length > 256 ? 2 : 1;
+        int bitmapSize = (lengths.length + 7) / 8;
+        if (symbolsNumber < lengths.length) {
+            if (symbolsNumber * symbolSize < bitmapSize) {
+                for (int symbol = 0; symbol < lengths.length; symbol++) {
+                    if (lengths[symbol] != 0) {
+                        if (symbolSize == 2) {
+                            fout.write(symbol >>> 8);
+                        }
+                        fout.write(symbol & 0xFF);
+                    }
+                }
+            } else {
+                byte[] bitmap = new byte[bitmapSize];
+                for (int symbol = 0; symbol < lengths.length; symbol++) {
+                    if (lengths[symbol] != 0) {
+                        bitmap[symbol >>> 3] |= (byte) (1 << (symbol & 7));
+                    }
+                }
+                fout.write(bitmap);
+            }
+        }
+
+        /* writing lengths of used symbols */
+        boolean isPacked = maxLength < 16;
+        int halfByte = -1;
+        for (byte length : lengths) {
+            if (length == 0) {
+                continue;
+            }
+            if (!isPacked) {
+                fout.write(length);
+            } else if (halfByte < 0) {
+                halfByte = length;
+            } else {
+                fout.write(halfByte | (length << 4));
+                halfByte = -1;
+            }
+        }
+        if (halfByte >= 0) {
+            fout.write(halfByte);
+        }
+    }
+
+    /**
+     * This method reads code lengths that are written by writeLengths method
+     * and creates canonical code.
+     *
+     * @param fin           input stream;
+     * @param alphabetSize  number of symbols in the alphabet;
+     * @throws Exception    when reading is failed or lengths are corrupted.
+     */
+    static HCanonicalCode readLengths(InputStream fin, int alphabetSize) throws Exception {
+
+        long symbolsNumber = IOStreamManager.readVarLong(fin);
+        int maxLength = fin.read();
+        if (symbolsNumber < 1 || symbolsNumber > alphabetSize || maxLength < 1 || maxLength > MAX_CODE_LENGTH) {
+            throw new Exception("Header of compressed file is corrupted");
+        }
+
+        /* reading set of used symbols */
+        int[] symbols = new int[(int) symbolsNumber];
+        int symbolSize = alphabetSize > 256 ? 2 : 1;
+        int bitmapSize = (alphabetSize + 7) / 8;
+        if (symbolsNumber == alphabetSize) {
+            for (int i = 0; i < symbols.length; i++) {
+                symbols[i] = i;
+            }
+        } else if (symbolsNumber * symbolSize < bitmapSize) {
+            byte[] list = IOStreamManager.readExactly(fin, symbols.length * symbolSize);
+            for (int i = 0; i < symbols.length; i++) {
+                symbols[i] = symbolSize == 2
+                    ? ((list[2 * i] & 0xFF) << 8) | (list[2 * i + 1] & 0xFF)
+                    : list[i] & 0xFF;
+                if (symbols[i] >= alphabetSize) {
+                    throw new Exception("Header of compressed file is corrupted");
+                }
+            }
+        } else {
+            byte[] bitmap = IOStreamManager.readExactly(fin, bitmapSize);
+            int counter = 0;
+            for (int symbol = 0; symbol < alphabetSize; symbol++) {
+                if ((bitmap[symbol >>> 3] & (1 << (symbol & 7))) != 0 && counter < symbols.length) {
+                    symbols[counter++] = symbol;
+                }
+            }
+            if (counter != symbols.length) {
+                throw new Exception("Header of compressed file is corrupted");
+            }
+        }
+
+        /* reading lengths of used symbols */
+        byte[] lengths = new byte[alphabetSize];
+        if (maxLength < 16) {
+            byte[] packed = IOStreamManager.readExactly(fin, (symbols.length + 1) / 2);
+            for (int i = 0; i < symbols.length; i++) {
+                lengths[symbols[i]] = (byte) ((packed[i >>> 1] >>> ((i & 1) << 2)) & 0x0F);
+            }
+        } else {
+            byte[] unpacked = IOStreamManager.readExactly(fin, symbols.length);
+            for (int i = 0; i < symbols.length; i++) {
+                lengths[symbols[i]] = unpacked[i];
+            }
+        }
+
+        return new HCanonicalCode(lengths);
+    }
+
+}
@@ -0,0 +1,163 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * This class presents multi-level lookup table that is used for decoding
+ * Huffman codes several bits at a time instead of walking the tree bit by bit.
+ *
+ * Root table is indexed by the next ROOT_TABLE_BITS bits of the bitstream.
+ * Each entry of the table either contains decoded symbol with the number of bits
+ * its code takes on this level, or a link to second-level (third-level etc.) table
+ * that resolves the rest of a long code.
+ */
+public class HDecodingTable {
+
+    static final int ROOT_TABLE_BITS = 11;
+    static final int SUB_TABLE_BITS = 8;
+
+    /* entry of the table: [link flag (1 bit)][table bits (7 bits)][offset (24 bits)]
+     * or                  [0 (8 bits)][code length on this level (8 bits)][symbol (16 bits)] */
+    private static final int LINK_FLAG = 0x80000000;
+
+    private int[] table;
+    private int tableSize;
+    private final int rootBits;
+
+    /**
+     * Constructor for creating decoding table from restored (or newly built) Huffman tree
+     *
+     * @param tree Huffman tree
+     */
+    HDecodingTable(HTree tree) throws Exception {
+        this(tree.getChildren());
+    }
+
+    /**
+     * Constructor for creating decoding table straight from canonical code
+     *
+     * @param code canonical Huffman code
+     */
+    HDecodingTable(HCanonicalCode code) throws Exception {
+        this(code.getChildren());
+    }
+
+    /**
+     * Constructor for creating decoding table from flattened Huffman tree.
+     *
+     * @param children  children of internal nodes, where children[2*i] is left child of
+     *                  node 'i' (bit '0') and children[2*i+1] is right child (bit '1').
+     *                  Non-negative value is an index of internal node, negative value ~s
+     *                  is a leaf that contains symbol 's'. Root is node 0 and every child
+     *                  has greater index than its parent.
+     */
+    HDecodingTable(int[] children) throws Exception {
+
+        int nodesNumber = children.length / 2;
+        if (nodesNumber == 0) {
+            throw new Exception("Huffman tree must contain at least one internal node");
+        }
+
+        /* counting height of every subtree, children are always after their parents */
+        int[] height = new int[nodesNumber];
+        for (int i = nodesNumber - 1; i >= 0; i--) {
+            int left = children[2 * i] < 0 ? 0 : height[children[2 * i]];
+            int right = children[2 * i + 1] < 0 ? 0 : height[children[2 * i + 1]];
+            height[i] = Math.max(left, right) + 1;
+        }
+
+        rootBits = Math.min(ROOT_TABLE_BITS, height[0]);
+        table = new int[1 << rootBits];
+        tableSize = table.length;
+
+        /* filling tables with iterative traverse:
+         * {node, offset of table, bits of table, depth of node in table, bits of path to node} */
+        Deque<int[]> stack = new ArrayDeque<>();
+        stack.push(new int[]{0, 0, rootBits, 0, 0});
+
+        while (!stack.isEmpty()) {
+            int[] item = stack.pop();
+            int node = item[0];
+            int offset = item[1];
+            int bits = item[2];
+            int depth = item[3];
+            int prefix = item[4];
+
+            for (int bit = 0; bit < 2; bit++) {
+                int child = children[2 * node + bit];
+                int childPrefix = prefix | (bit << depth);
+                int childDepth = depth + 1;
+
+                if (child < 0) {
+                    /* leaf: every index that starts with the code points to the symbol */
+                    int entry = (childDepth << 16) | (~child & 0xFFFF);
+                    for (int i = childPrefix; i < (1 << bits); i += 1 << childDepth) {
+                        table[offset + i] = entry;
+                    }
+                } else if (childDepth == bits) {
+                    /* code doesn`t fit into current table, next-level table is created */
+                    int subBits = Math.min(SUB_TABLE_BITS, height[child]);
+                    int subOffset = allocate(1 << subBits);
+                    table[offset + childPrefix] = LINK_FLAG | (subBits << 24) | subOffset;
+                    stack.push(new int[]{child, subOffset, subBits, 0, 0});
+                } else {
+                    stack.push(new int[]{child, offset, bits, childDepth, childPrefix});
+                }
+            }
+        }
+
+        table = Arrays.copyOf(table, tableSize);
+    }
+
+    /**
+     * this method reserves place for next-level table and returns its offset
+     */
+    private int allocate(int size) {
+        if (tableSize + size > table.length) {
+            table = Arrays.copyOf(table, Math.max(table.length * 2, tableSize + size));
+        }
+        int offset = tableSize;
+        tableSize += size;
+        return offset;
+    }
+
+    /**
+     * This method decodes one symbol from bitstream.
+     *
+     * @param in            bit reader that is positioned at the start of the code;
+     * @return              decoded symbol;
+     * @throws IOException  when bitstream ends in the middle of the code or contains
+     *                      code that is absent in the table.
+     */
+    int decodeSymbol(BitReader in) throws IOException {
+        int offset = 0;
+        int bits = rootBits;
+
+        while (true) {
+            if (in.bitCount < bits) {
+                in.refill();
+            }
+            int entry = table[offset + ((int) in.bitBuffer & ((1 << bits) - 1))];
+
+            if (entry >= 0) {
+                int codeLength = entry >>> 16;
+                if (codeLength == 0 || codeLength > in.bitCount) {
+                    throw new IOException("Compressed data is corrupted or truncated");
+                }
+                in.consume(codeLength);
+                return entry & 0xFFFF;
+            }
+
+            if (bits > in.bitCount) {
+                throw new IOException("Compressed data is corrupted or truncated");
+            }
+            in.consume(bits);
+            offset = entry & 0xFFFFFF;
+            bits = (entry >>> 24) & 0x7F;
+        }
+    }
+
+}
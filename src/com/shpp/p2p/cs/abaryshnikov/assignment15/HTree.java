@@ -1,17 +1,22 @@
 package com.shpp.p2p.cs.abaryshnikov.assignment15;
 
 import java.util.*;
-import java.util.concurrent.LinkedBlockingQueue;
 
 /**
- * This class contains Huffman tree root node
- * and main methods to work with Huffman tree
+ * This class contains Huffman tree and main methods to work with it
  * (creating, flattening/unflattening, encoding bytes,
  * decoding bit sequences etc.)
+ *
+ * The tree is kept in one array of children of internal nodes (the same form
+ * as HCanonicalCode.getChildren() gives): children[2*i] is left child of node 'i'
+ * (bit '0') and children[2*i+1] is its right child (bit '1'). Non-negative value
+ * is an index of internal node, negative value ~s is a leaf with byte 's'.
+ * Root is node 0 and every child has greater index than its parent, so the tree
+ * is built, traversed and flattened with plain loops, without node objects and recursion.
  */
 public class HTree {
 
-    private HTreeNode root = null;
+    private int[] children;
 
     @SuppressWarnings("unused")
     private HTree() {} // explicitly forbidden default constructor
@@ -23,164 +28,239 @@ public class HTree {
      */
 
     /**
-     * Constructor for creating Huffman Tree from unique bytes and their frequencies
+     * Constructor for creating Huffman Tree from unique bytes and their frequencies.
+     * Leaves are sorted by frequency once and then merged with two queues:
+     * sorted leaves and internal nodes, that are created in order of growing frequency.
      *
      * @param uniqueBytesAndFrequencies unique bytes of file associated with
      *                                  their appearance frequency
      */
-     HTree(Map<Byte, Integer> uniqueBytesAndFrequencies) throws Exception {
-
-         PriorityQueue<HTreeNode> nodes = new PriorityQueue<>();
-         for (byte bt : uniqueBytesAndFrequencies.keySet()) {
-            nodes.add(new HTreeNode(bt, uniqueBytesAndFrequencies.get(bt)));
-         }
-
-         if (nodes.size() < 2) {
-             throw new Exception("Huffman algorithm needs at least two unique bytes in the input file");
-         }
-
-         while (nodes.size() > 1){
-             HTreeNode left = nodes.poll();
-             HTreeNode right = nodes.poll();
-             //noinspection ConstantConditions
-             root = new HTreeNode( left.getFrequency() + right.getFrequency(),
-                                          left,
-                                          right);
-             nodes.add(root);
-         }
-     }
-
-     /*
-      * This chunk of code is commented because the other way to create H-Tree
-      * using PriorityQueue is developed
-      */
-
-//    HTree(Map<Byte, Integer> uniqueBytesAndFrequencies) throws Exception {
-//
-//        ArrayList<HTreeNode> nodes = new ArrayList<>();
-//
-//        int maxFrequency = 1;
-//        for (byte bt : uniqueBytesAndFrequencies.keySet()) {
-//            nodes.add(new HTreeNode(bt, uniqueBytesAndFrequencies.get(bt)));
-//            maxFrequency += uniqueBytesAndFrequencies.get(bt);
-//        }
-//
-//        if (nodes.size() < 2) {
-//            throw new Exception("Huffman algorithm needs at least two unique bytes in the input file");
-//        }
-//
-//        HTreeNode newRoot;
-//        while (nodes.size() > 2) {
-//            HTreeNode[] twoNodes = findTwoLessFrequentNodes(nodes, maxFrequency);
-//            newRoot = new HTreeNode(twoNodes[0].getFrequency() + twoNodes[1].getFrequency());
-//            newRoot.setLeftChildNode(twoNodes[0].clone());
-//            newRoot.setRightChildNode(twoNodes[1].clone());
-//            nodes.add(newRoot.clone());
-//        }
-//
-//        root = new HTreeNode(nodes.get(0).getFrequency() + nodes.get(1).getFrequency());
-//        root.setLeftChildNode(nodes.get(0).clone());
-//        root.setRightChildNode(nodes.get(1).clone());
-//    }
-//
-//    /**
-//     * this method helps to find two the least frequent occurring nodes in the list of nodes
-//     */
-//    private HTreeNode[] findTwoLessFrequentNodes(ArrayList<HTreeNode> nodes, int maxFrequency) {
-//        HTreeNode[] twoLessFrequentNodes = new HTreeNode[2];
-//
-//        HTreeNode firstLessFrequent = null;
-//        HTreeNode secondLessFrequent = null;
-//
-//        int minFrequency = maxFrequency;
-//        for (HTreeNode node : nodes) {
-//            if (node.getFrequency() <= minFrequency) {
-//                minFrequency = node.getFrequency();
-//                firstLessFrequent = node;
-//            }
-//        }
-//        twoLessFrequentNodes[0] = firstLessFrequent.clone();
-//        nodes.remove(firstLessFrequent);
-//
-//        minFrequency = maxFrequency;
-//        for (HTreeNode node : nodes) {
-//            if (node.getFrequency() <= minFrequency) {
-//                minFrequency = node.getFrequency();
-//                secondLessFrequent = node;
-//            }
-//        }
-//        twoLessFrequentNodes[1] = secondLessFrequent.clone();
-//        nodes.remove(secondLessFrequent);
-//
-//        return twoLessFrequentNodes;
-//    }
-
-
-    private final Queue<Byte> leaves = new LinkedBlockingQueue<>();
-    private final Queue<Boolean> structure = new LinkedBlockingQueue<>();
+    HTree(Map<Byte, Integer> uniqueBytesAndFrequencies) throws Exception {
+
+        int leavesNumber = uniqueBytesAndFrequencies.size();
+        if (leavesNumber < 2) {
+            throw new Exception("Huffman algorithm needs at least two unique bytes in the input file");
+        }
+
+        /* frequency and byte of leaf are packed to one long, so sorting needs no objects */
+        long[] leaves = new long[leavesNumber];
+        int leafIndex = 0;
+        for (Map.Entry<Byte, Integer> entry : uniqueBytesAndFrequencies.entrySet()) {
+            leaves[leafIndex++] = ((long) entry.getValue() << 8) | (entry.getKey() & 0xFF);
+        }
+        Arrays.sort(leaves);
+
+        /* internal nodes are created bottom-up, so the last one is root */
+        int nodesNumber = leavesNumber - 1;
+        int[] created = new int[2 * nodesNumber];
+        long[] weights = new long[nodesNumber];
+        int nextLeaf = 0;
+        int nextNode = 0;
+
+        for (int node = 0; node < nodesNumber; node++) {
+            for (int bit = 0; bit < 2; bit++) {
+                if (nextLeaf < leavesNumber
+                    && (nextNode == node || (leaves[nextLeaf] >>> 8) <= weights[nextNode])) {
+                    weights[node] += leaves[nextLeaf] >>> 8;
+                    created[2 * node + bit] = ~(int) (leaves[nextLeaf++] & 0xFF);
+                } else {
+                    weights[node] += weights[nextNode];
+                    created[2 * node + bit] = nextNode++;
+                }
+            }
+        }
+
+        /* renumbering nodes from root, so every child has greater index than its parent */
+        children = new int[2 * nodesNumber];
+        for (int node = 0; node < nodesNumber; node++) {
+            int index = nodesNumber - 1 - node;
+            for (int bit = 0; bit < 2; bit++) {
+                int child = created[2 * node + bit];
+                children[2 * index + bit] = child < 0 ? child : nodesNumber - 1 - child;
+            }
+        }
+    }
 
     /**
-     * Constructor for restoring Huffman Tree from its encoded (flattened) form
+     * Constructor for creating Huffman Tree which codes are not longer than given number of bits.
+     * The tree is built as usual and if it is too deep, code lengths
+     * are recalculated with package-merge algorithm that gives optimal
+     * length-limited prefix code.
      *
-     * @param treeStructure structure of Huffman tree encoded in bits that are
-     *                      collected to byte[] array
-     * @param treeLeaves    leaves (unique bytes of file) of Huffman tree that are
-     *                      collected to byte[] array
+     * @param uniqueBytesAndFrequencies unique bytes of file associated with
+     *                                  their appearance frequency
+     * @param maxCodeLength             maximal length of code in bits
      */
-    HTree(byte[] treeStructure, byte[] treeLeaves) throws Exception {
+    HTree(Map<Byte, Integer> uniqueBytesAndFrequencies, int maxCodeLength) throws Exception {
+        this(uniqueBytesAndFrequencies);
+
+        if (getDepth() > maxCodeLength) {
+            long[] frequencies = new long[256];
+            for (byte bt : uniqueBytesAndFrequencies.keySet()) {
+                frequencies[bt & 0xFF] = uniqueBytesAndFrequencies.get(bt);
+            }
+            byte[] lengths = limitCodeLengths(frequencies, maxCodeLength);
+            children = new HCanonicalCode(lengths).getChildren();
+        }
+    }
+
+    /**
+     * This method calculates optimal code lengths that don`t exceed given limit
+     * using package-merge algorithm.
+     *
+     * Every symbol is presented as a coin of width 2^-L for each of L levels.
+     * On every level the two cheapest items are packed together and merged
+     * with coins of the next level, then 2n-2 cheapest items of the last level
+     * are taken. Code length of a symbol is the number of its coins in the taken items.
+     *
+     * @param frequencies   frequencies of symbols, 0 means that symbol is absent;
+     * @param maxCodeLength maximal length of code in bits;
+     * @return              code length for every symbol;
+     * @throws Exception    when symbols can`t be coded with given maximal length.
+     */
+    static byte[] limitCodeLengths(long[] frequencies, int maxCodeLength) throws Exception {
 
-        for (byte treeLeaf : treeLeaves) {
-            leaves.add(treeLeaf);
+        /* sorting present symbols by frequency */
+        int symbolsNumber = 0;
+        for (long frequency : frequencies) {
+            if (frequency > 0) {
+                ++symbolsNumber;
+            }
+        }
+        if (symbolsNumber < 2) {
+            throw new Exception("Huffman algorithm needs at least two unique bytes in the input file");
+        }
+        if (maxCodeLength < 31 && (1 << maxCodeLength) < symbolsNumber) {
+            throw new Exception("[" + symbolsNumber + "] symbols can`t be coded with "
+                + maxCodeLength + " bits");
         }
 
-        byte bit;
-        for (byte b : treeStructure) {
-            for (int j = 0; j < 8; j++) {
-                bit = (byte) (b >> j);
-                if ((bit & 0x01) == 1) {
-                    structure.add(true);
+        Integer[] order = new Integer[symbolsNumber];
+        for (int symbol = 0, i = 0; symbol < frequencies.length; symbol++) {
+            if (frequencies[symbol] > 0) {
+                order[i++] = symbol;
+            }
+        }
+        Arrays.sort(order, Comparator.comparingLong(symbol -> frequencies[symbol]));
+
+        /* merging coins with packages level by level, from the deepest level to the top one.
+         * items[level][i] is a symbol of the coin or -1 for a package */
+        int[][] items = new int[maxCodeLength][];
+        long[] previousWeights = new long[0];
+
+        for (int level = 0; level < maxCodeLength; level++) {
+            int packagesNumber = previousWeights.length / 2;
+            long[] weights = new long[symbolsNumber + packagesNumber];
+            int[] levelItems = new int[symbolsNumber + packagesNumber];
+
+            int coin = 0;
+            int pack = 0;
+            for (int i = 0; i < weights.length; i++) {
+                long packageWeight = pack < packagesNumber
+                    ? previousWeights[2 * pack] + previousWeights[2 * pack + 1]
+                    : Long.MAX_VALUE;
+                if (coin < symbolsNumber && frequencies[order[coin]] <= packageWeight) {
+                    weights[i] = frequencies[order[coin]];
+                    levelItems[i] = order[coin++];
                 } else {
-                    structure.add(false);
+                    weights[i] = packageWeight;
+                    levelItems[i] = -1;
+                    ++pack;
                 }
             }
-        }
 
-        if (!structure.poll()) {
-            throw new Exception("Tree can`t start with leaf");
+            items[level] = levelItems;
+            previousWeights = weights;
         }
-        root = new HTreeNode();
 
-        try {
-            buildTree(root);
-        } catch (Exception e) {
-            throw new Exception("Error occurred during restoring Haffman Tree structure");
+        /* taking 2n-2 cheapest items of the top level and unpacking them down to the deepest one */
+        byte[] lengths = new byte[frequencies.length];
+        int taken = 2 * symbolsNumber - 2;
+        for (int level = maxCodeLength - 1; level >= 0; level--) {
+            int packagesTaken = 0;
+            for (int i = 0; i < taken; i++) {
+                if (items[level][i] >= 0) {
+                    ++lengths[items[level][i]];
+                } else {
+                    ++packagesTaken;
+                }
+            }
+            taken = 2 * packagesTaken;
         }
 
+        return lengths;
     }
 
     /**
-     * this method helps to restore (unflate) Huffman tree from its encoded form
+     * this method returns depth of the deepest leaf of the tree.
+     * Parent goes before its children, so depths are found in one pass
      */
-    private void buildTree(HTreeNode node) throws NullPointerException {
-
-        if (structure.peek() != null && structure.poll()) {
-            node.setLeftChildNode(new HTreeNode());
-            buildTree(node.getLeftChildNode());
-        } else {
-            if (leaves.peek() != null) {
-                node.setLeftChildNode(new HTreeNode(leaves.poll()));
+    private int getDepth() {
+        int[] depths = new int[children.length / 2];
+        int maxDepth = 0;
+        for (int node = 0; node < depths.length; node++) {
+            for (int bit = 0; bit < 2; bit++) {
+                int child = children[2 * node + bit];
+                if (child < 0) {
+                    maxDepth = Math.max(maxDepth, depths[node] + 1);
+                } else {
+                    depths[child] = depths[node] + 1;
+                }
             }
         }
+        return maxDepth;
+    }
 
-        if (structure.peek() != null && structure.poll()) {
-            node.setRightChildNode(new HTreeNode());
-            buildTree(node.getRightChildNode());
-        } else {
-            if (leaves.peek() != null) {
-                node.setRightChildNode(new HTreeNode(leaves.poll()));
+    /**
+     * Constructor for restoring Huffman Tree from its encoded (flattened) form.
+     * Bits of structure are read straight from the array in pre-order: '1' creates
+     * internal node, '0' takes the next leaf. Slots of children that are still empty
+     * are kept on a stack of ints, so deep trees need no recursion.
+     *
+     * @param treeStructure structure of Huffman tree encoded in bits that are
+     *                      collected to byte[] array
+     * @param treeLeaves    leaves (unique bytes of file) of Huffman tree that are
+     *                      collected to byte[] array
+     */
+    HTree(byte[] treeStructure, byte[] treeLeaves) throws Exception {
+
+        int bitsNumber = 8 * treeStructure.length;
+        if (bitsNumber == 0 || (treeStructure[0] & 0x01) == 0) {
+            throw new Exception("Tree can`t start with leaf");
+        }
+
+        /* complete tree with n leaves has n-1 internal nodes */
+        int capacity = Math.max(treeLeaves.length - 1, 1);
+        int[] restored = new int[2 * capacity];
+        int[] emptySlots = new int[capacity + 1];
+        int slotsNumber = 0;
+        int nodesNumber = 1;
+        int bitIndex = 1;
+        int leafIndex = 0;
+
+        emptySlots[slotsNumber++] = 0;
+        while (slotsNumber > 0) {
+            int slot = emptySlots[--slotsNumber];
+            if ((slot & 1) == 0) {
+                /* right child is restored after the whole left subtree */
+                emptySlots[slotsNumber++] = slot + 1;
+            }
+
+            if (bitIndex < bitsNumber && ((treeStructure[bitIndex >>> 3] >>> (bitIndex++ & 7)) & 1) == 1) {
+                if (nodesNumber == capacity) {
+                    throw new Exception("Error occurred during restoring Haffman Tree structure");
+                }
+                restored[slot] = nodesNumber;
+                emptySlots[slotsNumber++] = 2 * nodesNumber;
+                ++nodesNumber;
+            } else if (leafIndex < treeLeaves.length) {
+                restored[slot] = ~(treeLeaves[leafIndex++] & 0xFF);
+            } else {
+                throw new Exception("Error occurred during restoring Haffman Tree structure");
             }
         }
 
+        children = Arrays.copyOf(restored, 2 * nodesNumber);
     }
 
     /*
@@ -192,8 +272,7 @@ public class HTree {
      */
 
     private byte[] treeStruct;
-    private final Queue<Boolean> treeStructAsQueue = new LinkedBlockingQueue<>();
-    private int nodesCounter = 0;
+    private byte[] treeLeaves;
 
     /**
      * This method is used to get Huffman tree structure
@@ -202,64 +281,55 @@ public class HTree {
      * This sequence is formed during pre-order counter-clockwise tree traverse
      */
     public byte[] getTreeStructure() {
-        if (nodesCounter == 0) {
-            preOrderTraversal(root);
-
-            BitSet buffer = new BitSet(8);
-            ArrayList<Byte> temp = new ArrayList<>();
-
-            while (treeStructAsQueue.peek() != null) {
-                for (int i = 0; i < 8; i++) {
-                    if (treeStructAsQueue.peek() != null) {
-                        buffer.set(i, treeStructAsQueue.poll());
-                    }
-                }
-                temp.add(buffer.toByteArray()[0]);
-            }
+        if (treeStruct == null) {
+            flatten();
+        }
+        return treeStruct;
+    }
 
-            treeStruct = new byte[temp.size()];
-            for (int i = 0; i < treeStruct.length; ++i) {
-                treeStruct[i] = temp.get(i);
+    /**
+     * this method realises pre-order counter-clockwise tree traverse with stack of ints,
+     * bits of structure are packed from the lowest one and leaves are collected
+     * in the same pass (from left to right)
+     */
+    private void flatten() {
+        int nodesNumber = getNodesNumber();
+        byte[] structure = new byte[(nodesNumber + 7) / 8];
+        byte[] leaves = new byte[nodesNumber / 2 + 1];
+        int[] stack = new int[nodesNumber];
+        int stackSize = 0;
+        int bitIndex = 0;
+        int leafIndex = 0;
+
+        stack[stackSize++] = 0;
+        while (stackSize > 0) {
+            int node = stack[--stackSize];
+            if (node >= 0) {
+                structure[bitIndex >>> 3] |= (byte) (1 << (bitIndex & 7));
+                stack[stackSize++] = children[2 * node + 1];
+                stack[stackSize++] = children[2 * node];
+            } else {
+                leaves[leafIndex++] = (byte) ~node;
             }
-
+            ++bitIndex;
         }
 
-        return treeStruct;
+        treeStruct = structure;
+        treeLeaves = leaves;
     }
 
     /**
-     * this method realises pre-order counter-clockwise tree traverse
+     * this method returns number of all nodes of the tree (internal ones and leaves)
      */
-    private void preOrderTraversal(HTreeNode node) {
-        if (node.isLeaf()) {
-            treeStructAsQueue.add(false);
-        } else {
-            treeStructAsQueue.add(true);
-        }
-        ++nodesCounter;
-        if (node.getLeftChildNode() != null) {
-            preOrderTraversal(node.getLeftChildNode());
-        }
-        if (node.getRightChildNode() != null) {
-            preOrderTraversal(node.getRightChildNode());
-        }
+    private int getNodesNumber() {
+        return children.length + 1;
     }
 
 
     public short getTreeSize() throws Exception {
-        if (nodesCounter == 0) {
-            getTreeStructure();
-            if (nodesCounter == 0) {
-                throw new Exception("Tree is not created");
-            }
-        }
-
-        return (short) (nodesCounter);
+        return (short) getNodesNumber();
     }
 
-
-    private final ArrayList<Byte> treeLeavesList = new ArrayList<>();
-
     /**
      * This method is used to get Huffman tree leaves
      * (nodes that contain unique bytes)
@@ -267,31 +337,10 @@ public class HTree {
      * This sequence is formed during in-order counter-clockwise tree traverse.
      */
     public byte[] getTreeLeaves() {
-        inOrder(root);
-
-        byte[] treeLeavesArray = new byte[treeLeavesList.size()];
-        for (int i = 0; i < treeLeavesArray.length; ++i) {
-            treeLeavesArray[i] = treeLeavesList.get(i);
-        }
-
-        return treeLeavesArray;
-    }
-
-    /**
-     * this method realises in-order counter-clockwise tree traverse
-     */
-    private void inOrder(HTreeNode node) {
-        if (node.getLeftChildNode() != null) {
-            inOrder(node.getLeftChildNode());
-        } else {
-            treeLeavesList.add(node.getUniqueByte());
-            return;
-        }
-        if (node.getRightChildNode() != null) {
-            inOrder(node.getRightChildNode());
-        } else {
-            treeLeavesList.add(node.getUniqueByte());
+        if (treeLeaves == null) {
+            flatten();
         }
+        return treeLeaves.clone();
     }
 
 
@@ -302,7 +351,8 @@ public class HTree {
      *  V
      */
 
-    private HashMap<Integer, Integer[]> bytesAndEncodingBits = new HashMap<>();
+    private int[] codes;
+    private byte[] lengths;
 
     /**
      * This method is used to get bits (and their number)
@@ -317,15 +367,15 @@ public class HTree {
      */
     public int[] encodeByte(int byteToCode) throws Exception {
 
-        if (bytesAndEncodingBits.isEmpty()) {
-            getBytesAndEncodingBits();
+        if (codes == null) {
+            assignCodes();
+        }
+        int symbol = byteToCode & 0xFF;
+        if (lengths[symbol] == 0) {
+            throw new Exception("Byte [" + byteToCode + "] is absent in Huffman tree");
         }
-        Integer[] bitsAndTheirNumber = bytesAndEncodingBits.get(byteToCode);
-        int[] bitsAndTheirNumberToReturn = new int[2];
-        bitsAndTheirNumberToReturn[0] = bitsAndTheirNumber[0];
-        bitsAndTheirNumberToReturn[1] = bitsAndTheirNumber[1];
 
-        return bitsAndTheirNumberToReturn;
+        return new int[]{codes[symbol], lengths[symbol]};
     }
 
     /**
@@ -335,48 +385,45 @@ public class HTree {
      * Bits are presented in form of array of integers, where Integer[0] contains
      * certain sequence of bits and Integer[1] contains number
      * of significant bits in the Integer[0].
-     *
-     * The map is formed during in-order counter-clockwise tree traverse.
      */
     public HashMap<Integer, Integer[]> getBytesAndEncodingBits() {
-        bytesAndEncodingBits = new HashMap<>();
-        inOrderWithMarking(root);
-        return bytesAndEncodingBits;
-    }
-
-    private final Deque<Integer> encodingBitsAsDeque = new ArrayDeque<>();
-
-    /** this method realises in-order counter-clockwise tree traverse */
-    private void inOrderWithMarking(HTreeNode node) {
-        if (node.getLeftChildNode() != null) {
-            encodingBitsAsDeque.add(0);
-            inOrderWithMarking(node.getLeftChildNode());
-            encodingBitsAsDeque.removeLast();
-        } else {
-            bytesAndEncodingBits.put((int) node.getUniqueByte(), dequeToBitsAndTheirNumber(encodingBitsAsDeque));
-            return;
+        if (codes == null) {
+            assignCodes();
         }
-        if (node.getRightChildNode() != null) {
-            encodingBitsAsDeque.add(1);
-            inOrderWithMarking(node.getRightChildNode());
-            encodingBitsAsDeque.removeLast();
-        } else {
-            bytesAndEncodingBits.put((int) node.getUniqueByte(), dequeToBitsAndTheirNumber(encodingBitsAsDeque));
+        HashMap<Integer, Integer[]> bytesAndEncodingBits = new HashMap<>();
+        for (int symbol = 0; symbol < lengths.length; symbol++) {
+            if (lengths[symbol] > 0) {
+                bytesAndEncodingBits.put((int) (byte) symbol, new Integer[]{codes[symbol], (int) lengths[symbol]});
+            }
         }
+        return bytesAndEncodingBits;
     }
 
-    /** this method converts values from deque to bits and store them in integer */
-    private Integer[] dequeToBitsAndTheirNumber(Deque<Integer> deque) {
-        Integer[] temp = deque.toArray(new Integer[0]);
-        int bits = 0;
-        for (int i = 0; i < temp.length; i++) {
-            bits = (bits | (temp[i] << i));
+    /**
+     * this method finds code of every leaf in one pass over internal nodes:
+     * code of child is code of its parent with one more bit ('0' for left child),
+     * the first bit of code is the lowest one
+     */
+    private void assignCodes() {
+        int nodesNumber = children.length / 2;
+        int[] nodeCodes = new int[nodesNumber];
+        int[] nodeLengths = new int[nodesNumber];
+        codes = new int[256];
+        lengths = new byte[256];
+
+        for (int node = 0; node < nodesNumber; node++) {
+            for (int bit = 0; bit < 2; bit++) {
+                int child = children[2 * node + bit];
+                int code = nodeCodes[node] | (bit << nodeLengths[node]);
+                if (child < 0) {
+                    codes[~child] = code;
+                    lengths[~child] = (byte) (nodeLengths[node] + 1);
+                } else {
+                    nodeCodes[child] = code;
+                    nodeLengths[child] = nodeLengths[node] + 1;
+                }
+            }
         }
-        Integer[] result = new Integer[2];
-        result[0] = bits;
-        result[1] = deque.size();
-
-        return result;
     }
 
     /*
@@ -389,7 +436,7 @@ public class HTree {
     private int flag = 0;
     private boolean isByteDecoded;
     private byte decodedByte;
-    private HTreeNode currentNode;
+    private int currentNode;
 
     /**
      * This method traverses tree when the encoding bits are consequently
@@ -398,23 +445,19 @@ public class HTree {
      */
     public void decode(byte bit) {
         if (flag == 0) {
-            currentNode = root;
+            currentNode = 0;
             isByteDecoded = false;
             decodedByte = 0;
         }
 
-        if (bit == 0) {
-            currentNode = currentNode.getLeftChildNode();
-        }
-        if (bit == 1) {
-            currentNode = currentNode.getRightChildNode();
-        }
+        int child = children[2 * currentNode + (bit == 0 ? 0 : 1)];
 
-        if (currentNode.isLeaf()) {
-            decodedByte = currentNode.getUniqueByte();
+        if (child < 0) {
+            decodedByte = (byte) ~child;
             isByteDecoded = true;
             return;
         }
+        currentNode = child;
         ++flag;
     }
 
@@ -438,6 +481,14 @@ public class HTree {
     }
 
 
+    /**
+     * This method returns children of internal nodes of Huffman tree.
+     * It is used for building decoding table from the tree.
+     */
+    int[] getChildren() {
+        return children.clone();
+    }
+
     /*
      * Following chunk of code contains methods that helps
      * to debug program
@@ -0,0 +1,175 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+import java.util.zip.CRC32C;
+
+/**
+ * This stream decompresses data that are written by HuffmanOutputStream.
+ * Frames are read from underlying stream and decoded one by one when they
+ * are needed, so only one frame is kept in memory.
+ */
+public class HuffmanInputStream extends FilterInputStream implements Constants {
+
+    /* frame of the greatest size that can be written by HuffmanOutputStream */
+    private static final int MAX_FRAME_SIZE = MAX_BLOCK_SIZE_MB << 20;
+
+    private byte[] compressedFrame = new byte[0];
+    private byte[] window = new byte[0];
+    private int windowFilled = 0;
+    private int windowPosition = 0;
+    private boolean isEnded = false;
+
+    /* frames and the whole data are followed by checksums since version 3 of format */
+    private final boolean hasChecksums;
+    private final CRC32C frameChecksum = new CRC32C();
+    private final CRC32C streamChecksum = new CRC32C();
+
+    /**
+     * Constructor for decompressing stream that starts with header
+     *
+     * @param in            stream with compressed data;
+     * @throws IOException  when header is wrong or can`t be read.
+     */
+    public HuffmanInputStream(InputStream in) throws IOException {
+        this(in, null);
+    }
+
+    /**
+     * Constructor for decompressing stream
+     *
+     * @param in            stream with compressed data;
+     * @param header        header of the stream that is already read by caller,
+     *                      or null if the stream starts with header;
+     * @throws IOException  when header is wrong or can`t be read.
+     */
+    HuffmanInputStream(InputStream in, ParHeader header) throws IOException {
+        super(in);
+        if (header == null) {
+            if (!ParHeader.isVersioned(in.read())) {
+                throw new IOException("Input is not a compressed stream");
+            }
+            header = ParHeader.read(in);
+            if (header.getMethod() != METHOD_STREAM) {
+                throw new IOException("Unsupported compression method [" + header.getMethod() + "] of stream");
+            }
+        }
+        this.hasChecksums = header.hasChecksums();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureData()) {
+            return -1;
+        }
+        return window[windowPosition++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureData()) {
+            return -1;
+        }
+        int portion = Math.min(len, windowFilled - windowPosition);
+        System.arraycopy(window, windowPosition, b, off, portion);
+        windowPosition += portion;
+        return portion;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && ensureData()) {
+            int portion = (int) Math.min(n - skipped, windowFilled - windowPosition);
+            windowPosition += portion;
+            skipped += portion;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return windowFilled - windowPosition;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("Mark/reset is not supported");
+    }
+
+    /**
+     * This method decodes next frames until some data are available.
+     * Returns false at the end of stream.
+     */
+    private boolean ensureData() throws IOException {
+        while (windowPosition == windowFilled) {
+            if (isEnded) {
+                return false;
+            }
+            readFrame();
+        }
+        return true;
+    }
+
+    /**
+     * this method reads and decodes next frame, buffers are reused between frames
+     */
+    private void readFrame() throws IOException {
+        long originalSize = IOStreamManager.readVarLong(in);
+        if (originalSize == 0) {
+            if (hasChecksums && IOStreamManager.readInt(in) != (int) streamChecksum.getValue()) {
+                throw new IOException("Checksum of decompressed data doesn`t match, compressed stream is corrupted");
+            }
+            isEnded = true;
+            return;
+        }
+        long compressedSize = IOStreamManager.readVarLong(in);
+        if (originalSize > MAX_FRAME_SIZE || compressedSize < 1 || compressedSize > 4 * originalSize + 1024) {
+            throw new IOException("Compressed stream is corrupted");
+        }
+
+        if (compressedFrame.length < compressedSize) {
+            compressedFrame = new byte[(int) compressedSize];
+        }
+        if (window.length < originalSize) {
+            window = new byte[(int) originalSize];
+        }
+        if (in.readNBytes(compressedFrame, 0, (int) compressedSize) != compressedSize) {
+            throw new IOException("Unexpected end of file");
+        }
+
+        try {
+            BlockCodec.decodeBlock(compressedFrame, (int) compressedSize, window, (int) originalSize);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e.getMessage());
+        }
+        if (hasChecksums) {
+            frameChecksum.reset();
+            frameChecksum.update(window, 0, (int) originalSize);
+            if (IOStreamManager.readInt(in) != (int) frameChecksum.getValue()) {
+                throw new IOException("Checksum of frame doesn`t match, compressed stream is corrupted");
+            }
+            streamChecksum.update(window, 0, (int) originalSize);
+        }
+        windowFilled = (int) originalSize;
+        windowPosition = 0;
+    }
+
+}
@@ -0,0 +1,187 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Objects;
+import java.util.zip.CRC32C;
+
+/**
+ * This stream compresses data that are written into it and writes them
+ * to underlying output stream in '.par' format, so it may be used inside
+ * other programs and with data of unknown length.
+ *
+ * Data are collected in window of fixed size. Full window is coded with its own
+ * canonical Huffman code and written as a frame:
+ *
+ *  original size | compressed size | code lengths | bitstream | checksum
+ *
+ * Frames follow the header, the stream ends with frame of zero size and CRC32C
+ * of the whole data. Memory that is used doesn`t depend on length of data.
+ */
+public class HuffmanOutputStream extends FilterOutputStream implements Constants {
+
+    private final byte[] window;
+    private int windowFilled = 0;
+    private final int maxCodeLength;
+    private final CRC32C frameChecksum = new CRC32C();
+    private final CRC32C streamChecksum = new CRC32C();
+
+    private long uncompressedSize = 0;
+    private long compressedSize = 0;
+    private boolean isFinished = false;
+
+    /**
+     * Constructor for compressing stream with default window size and code length limit
+     *
+     * @param out           stream that gets compressed data;
+     * @throws IOException  when writing of header failed.
+     */
+    public HuffmanOutputStream(OutputStream out) throws IOException {
+        this(out, DEFAULT_BLOCK_SIZE, DEFAULT_MAX_CODE_LENGTH);
+    }
+
+    /**
+     * Constructor for compressing stream
+     *
+     * @param out           stream that gets compressed data;
+     * @param windowSize    number of bytes in one frame (up to 16 MB);
+     * @param maxCodeLength maximal length of Huffman code in bits;
+     * @throws IOException  when writing of header failed.
+     */
+    public HuffmanOutputStream(OutputStream out, int windowSize, int maxCodeLength) throws IOException {
+        super(out);
+        if (windowSize < 1 || windowSize > MAX_BLOCK_SIZE_MB << 20) {
+            throw new IllegalArgumentException("Window size must be in range [1, " + (MAX_BLOCK_SIZE_MB << 20) + "] bytes");
+        }
+        if (maxCodeLength < MIN_MAX_CODE_LENGTH || maxCodeLength > MAX_MAX_CODE_LENGTH) {
+            throw new IllegalArgumentException("Maximal code length must be in range ["
+                + MIN_MAX_CODE_LENGTH + ", " + MAX_MAX_CODE_LENGTH + "] bits");
+        }
+        this.window = new byte[windowSize];
+        this.maxCodeLength = maxCodeLength;
+
+        /* size of original data is not known in advance, frames contain it */
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        new ParHeader(METHOD_STREAM, 0).write(header);
+        out.write(header.toByteArray());
+        compressedSize += header.size();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        window[windowFilled++] = (byte) b;
+        ++uncompressedSize;
+        if (windowFilled == window.length) {
+            writeFrame();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        ensureOpen();
+        while (len > 0) {
+            int portion = Math.min(len, window.length - windowFilled);
+            System.arraycopy(b, off, window, windowFilled, portion);
+            windowFilled += portion;
+            uncompressedSize += portion;
+            off += portion;
+            len -= portion;
+            if (windowFilled == window.length) {
+                writeFrame();
+            }
+        }
+    }
+
+    /**
+     * This method writes collected data as a (short) frame, so everything
+     * that is written before can be decoded by the reader
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        writeFrame();
+        out.flush();
+    }
+
+    /**
+     * This method writes the rest of data and the end of stream
+     * without closing of underlying stream
+     */
+    public void finish() throws IOException {
+        if (isFinished) {
+            return;
+        }
+        writeFrame();
+        IOStreamManager.writeVarLong(out, 0);
+        IOStreamManager.writeInt(out, (int) streamChecksum.getValue());
+        compressedSize += 1 + CHECKSUM_SIZE;
+        isFinished = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * This method returns number of bytes that are written into the stream
+     */
+    public long getUncompressedSize() {
+        return uncompressedSize;
+    }
+
+    /**
+     * This method returns number of bytes that are written to underlying stream
+     * (frames that are not written yet are not counted)
+     */
+    public long getCompressedSize() {
+        return compressedSize;
+    }
+
+    /**
+     * this method codes collected data and writes them as a frame
+     */
+    private void writeFrame() throws IOException {
+        if (windowFilled == 0) {
+            return;
+        }
+
+        byte[] frame;
+        try {
+            frame = BlockCodec.encodeBlock(window, windowFilled, maxCodeLength);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e.getMessage());
+        }
+
+        ByteArrayOutputStream frameHeader = new ByteArrayOutputStream();
+        IOStreamManager.writeVarLong(frameHeader, windowFilled);
+        IOStreamManager.writeVarLong(frameHeader, frame.length);
+        out.write(frameHeader.toByteArray());
+        out.write(frame);
+
+        frameChecksum.reset();
+        frameChecksum.update(window, 0, windowFilled);
+        streamChecksum.update(window, 0, windowFilled);
+        IOStreamManager.writeInt(out, (int) frameChecksum.getValue());
+
+        compressedSize += frameHeader.size() + frame.length + CHECKSUM_SIZE;
+        windowFilled = 0;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (isFinished) {
+            throw new IOException("Compressing stream is already finished");
+        }
+    }
+
+}
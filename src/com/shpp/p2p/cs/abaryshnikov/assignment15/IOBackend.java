@@ -0,0 +1,34 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+/**
+ * This enum lists the ways files are read and written
+ */
+public enum IOBackend {
+
+    /** buffered FileInputStream/FileOutputStream */
+    STREAM,
+
+    /** FileChannel with direct buffer */
+    CHANNEL,
+
+    /** file mapped into memory by windows (output is mapped only when its size is known) */
+    MAPPED;
+
+    /**
+     * This method returns backend by its name that is used in command line
+     * ('stream', 'channel' or 'mmap') or null if the name is unknown
+     */
+    static IOBackend fromName(String name) {
+        switch (name) {
+            case "stream":
+                return STREAM;
+            case "channel":
+                return CHANNEL;
+            case "mmap":
+                return MAPPED;
+            default:
+                return null;
+        }
+    }
+
+}
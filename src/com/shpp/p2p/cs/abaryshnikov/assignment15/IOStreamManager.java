@@ -1,7 +1,12 @@
 package com.shpp.p2p.cs.abaryshnikov.assignment15;
 
 import java.io.*;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 
 /**
  * This auxiliary class contains methods that allow for creating of IO streams
@@ -17,20 +22,60 @@ public class IOStreamManager implements Constants {
      * @throws IOException  when can`t create stream
      */
     public static InputStream createInputStream(String inputFName) throws IOException {
+        return createInputStream(inputFName, IOBackend.STREAM);
+    }
+
+    /**
+     * This method creates input data stream with given I/O backend
+     *
+     * @param inputFName    path to file that is in-streamed or '-' for standard input
+     * @param backend       the way the file is read
+     * @return              InputStream
+     * @throws IOException  when can`t create stream
+     */
+    public static InputStream createInputStream(String inputFName, IOBackend backend) throws IOException {
 
         InputStream fin;
 
+        if (isStandardStream(inputFName)) {
+            return new BufferedInputStream(new FileInputStream(FileDescriptor.in), STREAM_BUFFER_SIZE);
+        }
+
         try {
-            fin = new FileInputStream(inputFName);
+            switch (backend) {
+                case CHANNEL:
+                    fin = new ChannelInputStream(FileChannel.open(Paths.get(inputFName), StandardOpenOption.READ));
+                    break;
+                case MAPPED:
+                    fin = new MappedInputStream(FileChannel.open(Paths.get(inputFName), StandardOpenOption.READ));
+                    break;
+                default:
+                    fin = new BufferedInputStream(new FileInputStream(inputFName), STREAM_BUFFER_SIZE);
+            }
         } catch (IOException e) {
             throw new IOException("Can`t create input stream. " +
                 "Can`t open [" +inputFName+ "] - no such file or device was unplugged");
         }
-        fin = new BufferedInputStream(fin); //todo: experiment with buffer size
 
         return fin;
     }
 
+    /**
+     * This method creates input data stream that is read ahead by its own thread
+     * when pipeline is given
+     *
+     * @param inputFName    path to file that is in-streamed or '-' for standard input
+     * @param backend       the way the file is read
+     * @param pipeline      report of pipeline stalls or null for reading in the caller`s thread
+     * @return              InputStream
+     * @throws IOException  when can`t create stream
+     */
+    public static InputStream createInputStream(String inputFName, IOBackend backend,
+                                                PipelineStats pipeline) throws IOException {
+        InputStream fin = createInputStream(inputFName, backend);
+        return pipeline == null ? fin : new ReadAheadInputStream(fin, pipeline);
+    }
+
     /**
      * This method creates output data stream
      *
@@ -39,46 +84,121 @@ public class IOStreamManager implements Constants {
      * @throws IOException  when can`t create stream
      */
     public static OutputStream createOutputStream(String outputFName) throws IOException {
+        return createOutputStream(outputFName, IOBackend.STREAM, -1);
+    }
+
+    /**
+     * This method creates output data stream with given I/O backend
+     *
+     * @param outputFName   path to file that is out-streamed or '-' for standard output
+     * @param backend       the way the file is written
+     * @param expectedSize  size of the file if it is known in advance or -1,
+     *                      memory-mapped file is preallocated with this size,
+     *                      file of unknown size is written through FileChannel instead
+     * @return              OutputStream
+     * @throws IOException  when can`t create stream
+     */
+    public static OutputStream createOutputStream(String outputFName, IOBackend backend, long expectedSize) throws IOException {
 
         OutputStream fout;
 
+        if (isStandardStream(outputFName)) {
+            return new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), STREAM_BUFFER_SIZE);
+        }
+
         try {
-            fout = new FileOutputStream(outputFName);
+            if (backend == IOBackend.MAPPED && expectedSize >= 0) {
+                FileChannel channel = FileChannel.open(Paths.get(outputFName), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                fout = new MappedOutputStream(channel, expectedSize);
+            } else if (backend != IOBackend.STREAM) {
+                fout = new ChannelOutputStream(FileChannel.open(Paths.get(outputFName), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+            } else {
+                fout = new BufferedOutputStream(new FileOutputStream(outputFName), STREAM_BUFFER_SIZE);
+            }
         } catch (IOException e) {
             throw new IOException("Can`t create output stream. " +
                 "Device was unplugged or can`t create [" + outputFName + "]");
         }
 
-        fout = new BufferedOutputStream(fout); //todo: experiment with buffer size
-
         return fout;
     }
 
     /**
-     * This method is used for reading all available data from input stream to buffer
-     * Be careful! reading all data with .available() method is not recommended for big files.
-     * Recommended file size is less than 2 GB.
+     * This method creates output data stream that is written behind by its own thread
+     * when pipeline is given
+     *
+     * @param outputFName   path to file that is out-streamed or '-' for standard output
+     * @param backend       the way the file is written
+     * @param expectedSize  size of the file if it is known in advance or -1
+     * @param pipeline      report of pipeline stalls or null for writing in the caller`s thread
+     * @return              OutputStream
+     * @throws IOException  when can`t create stream
+     */
+    public static OutputStream createOutputStream(String outputFName, IOBackend backend, long expectedSize,
+                                                  PipelineStats pipeline) throws IOException {
+        OutputStream fout = createOutputStream(outputFName, backend, expectedSize);
+        return pipeline == null ? fout : new WriteBehindOutputStream(fout, pipeline);
+    }
+
+    /**
+     * This method is used for reading all remaining data from input stream to buffer
+     * Be careful! Recommended file size is less than 2 GB.
      *
      * @param fin           input stream
      * @return              byte array
      * @throws IOException  when reading from file failed
      */
     public static byte[] readAllFromStreamToBuffer(InputStream fin) throws IOException {
-        byte[] buffer;
         try {
-            buffer = new byte[fin.available()];
+            return fin.readAllBytes();
         } catch (IOException e) {
-            throw new IOException("Can`t get amount of available data from file ");
+            throw new IOException("Can`t read data from file");
         }
+    }
 
+    /**
+     * This method checks if file name means standard input/output instead of file
+     *
+     * @param fName         name of file
+     */
+    public static boolean isStandardStream(String fName) {
+        return STANDARD_STREAM_NAME.equals(fName);
+    }
+
+    /**
+     * This method checks if file name means regular file, only such file has known
+     * size before it is read and can be rewritten at given position
+     *
+     * @param fName         name of file
+     */
+    public static boolean isRegularFile(String fName) {
+        return !isStandardStream(fName) && Files.isRegularFile(Paths.get(fName));
+    }
+
+    /**
+     * This method copies all remaining data from input stream to output stream
+     * through buffer of constant size
+     *
+     * @param fin           input stream
+     * @param fout          output stream
+     * @return              number of copied bytes
+     * @throws IOException  when reading or writing failed
+     */
+    public static long transfer(InputStream fin, OutputStream fout) throws IOException {
+        byte[] buffer = BufferPool.acquire(STREAM_BUFFER_SIZE);
+        long transferred = 0;
         try {
-            //noinspection ResultOfMethodCallIgnored
-            fin.read(buffer);
-        } catch (IOException e) {
-            throw new IOException("Can`t read data from file");
+            int read;
+            while ((read = fin.read(buffer, 0, buffer.length)) > 0) {
+                writeFromBufferToStream(fout, buffer, read);
+                transferred += read;
+            }
+        } finally {
+            BufferPool.release(buffer);
         }
-
-        return buffer;
+        return transferred;
     }
 
     /**
@@ -91,7 +211,35 @@ public class IOStreamManager implements Constants {
     public static void writeFromBufferToStream(OutputStream fout, byte[] buffer) throws IOException {
         try {
             fout.write(buffer);
-            fout.flush();       // todo: flush is here!
+        } catch (IOException e) {
+            throw new IOException("Can`t write data to file");
+        }
+    }
+
+    /**
+     * This method is used for writing first 'length' bytes of buffer to output stream
+     *
+     * @param fout          output stream
+     * @param buffer        buffer with data
+     * @param length        number of bytes that must be written
+     * @throws IOException  when writing to file failed
+     */
+    public static void writeFromBufferToStream(OutputStream fout, byte[] buffer, int length) throws IOException {
+        writeFromBufferToStream(fout, buffer, 0, length);
+    }
+
+    /**
+     * This method is used for writing part of buffer to output stream
+     *
+     * @param fout          output stream
+     * @param buffer        buffer with data
+     * @param offset        index of the first byte that must be written
+     * @param length        number of bytes that must be written
+     * @throws IOException  when writing to file failed
+     */
+    public static void writeFromBufferToStream(OutputStream fout, byte[] buffer, int offset, int length) throws IOException {
+        try {
+            fout.write(buffer, offset, length);
         } catch (IOException e) {
             throw new IOException("Can`t write data to file");
         }
@@ -149,19 +297,375 @@ public class IOStreamManager implements Constants {
     }
 
     /**
-     * This method writes the containment of ArrayList<Byte> into file output stream as bytes
-     * in the same sequence as they appear in the ArrayList
+     * This method writes non-negative long value using as few bytes as possible:
+     * 7 bits per byte, the highest bit of the byte means that more bytes follow.
+     *
+     * @param fout          output stream
+     * @param value         non-negative value
+     * @throws IOException  when writing to file failed
+     */
+    public static void writeVarLong(OutputStream fout, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            fout.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        fout.write((int) value);
+    }
+
+    /**
+     * This method writes non-negative long value as writeVarLong does, but always in given
+     * number of bytes (groups that aren`t needed are zeros), so the value can be rewritten later
      *
      * @param fout          output stream
-     * @param outputBuffer  ArrayList<Byte> that contains bytes must be written to output stream
+     * @param value         non-negative value that fits 7 bits per byte
+     * @param bytesNumber   number of written bytes
+     * @throws IOException  when writing to file failed
+     */
+    public static void writeVarLong(OutputStream fout, long value, int bytesNumber) throws IOException {
+        for (int i = 1; i < bytesNumber; i++) {
+            fout.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        fout.write((int) value);
+    }
+
+    /**
+     * This method reads long value that is written by writeVarLong method
+     *
+     * @param fin           input stream
+     * @return              read value
+     * @throws IOException  when reading from file failed or value is corrupted
+     */
+    public static long readVarLong(InputStream fin) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = fin.read();
+            if (b < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Header of compressed file is corrupted");
+    }
+
+    /**
+     * This method writes int value as 4 bytes (the high byte first)
+     *
+     * @param fout          output stream
+     * @param value         value
+     * @throws IOException  when writing to file failed
+     */
+    public static void writeInt(OutputStream fout, int value) throws IOException {
+        fout.write(value >>> 24);
+        fout.write(value >>> 16);
+        fout.write(value >>> 8);
+        fout.write(value);
+    }
+
+    /**
+     * This method reads int value that is written by writeInt method
+     *
+     * @param fin           input stream
+     * @return              read value
+     * @throws IOException  when stream ends before value is read
+     */
+    public static int readInt(InputStream fin) throws IOException {
+        byte[] bytes = readExactly(fin, INT_SIZE_IN_BYTES);
+        return (bytes[0] & 0xFF) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | (bytes[3] & 0xFF);
+    }
+
+    /**
+     * This method reads exactly given number of bytes from input stream
+     *
+     * @param fin           input stream
+     * @param length        number of bytes
+     * @return              byte array
+     * @throws IOException  when stream ends before all bytes are read
+     */
+    public static byte[] readExactly(InputStream fin, int length) throws IOException {
+        byte[] buffer = fin.readNBytes(length);
+        if (buffer.length != length) {
+            throw new IOException("Unexpected end of file");
+        }
+        return buffer;
+    }
+
+    /*
+     * Following chunk of code contains streams of I/O backends
+     *  |
+     *  V
+     */
+
+    /**
+     * This stream reads file through FileChannel and direct buffer that is taken from BufferPool
+     */
+    private static class ChannelInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private ByteBuffer buffer = BufferPool.acquireDirect(STREAM_BUFFER_SIZE);
+
+        ChannelInputStream(FileChannel channel) {
+            this.channel = channel;
+            buffer.flip();
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkOpen();
+            if (!buffer.hasRemaining() && !fillBuffer()) {
+                return -1;
+            }
+            return buffer.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkOpen();
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining() && !fillBuffer()) {
+                return -1;
+            }
+            int read = Math.min(len, buffer.remaining());
+            buffer.get(b, off, read);
+            return read;
+        }
+
+        /**
+         * this method makes reading after closing fail, buffer of closed stream
+         * is already given back to BufferPool
+         */
+        private void checkOpen() throws IOException {
+            if (buffer == null) {
+                throw new IOException("Stream is closed");
+            }
+        }
+
+        private boolean fillBuffer() throws IOException {
+            buffer.clear();
+            int read = channel.read(buffer);
+            buffer.flip();
+            return read > 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+            if (buffer != null) {
+                BufferPool.releaseDirect(buffer);
+                buffer = null;
+            }
+        }
+    }
+
+    /**
+     * This stream writes file through FileChannel and direct buffer that is taken from BufferPool
+     */
+    private static class ChannelOutputStream extends OutputStream {
+
+        private final FileChannel channel;
+        private ByteBuffer buffer = BufferPool.acquireDirect(STREAM_BUFFER_SIZE);
+
+        ChannelOutputStream(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!buffer.hasRemaining()) {
+                drainBuffer();
+            }
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (!buffer.hasRemaining()) {
+                    drainBuffer();
+                }
+                int written = Math.min(len, buffer.remaining());
+                buffer.put(b, off, written);
+                off += written;
+                len -= written;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            drainBuffer();
+        }
+
+        private void drainBuffer() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (buffer == null) {
+                return;
+            }
+            try {
+                drainBuffer();
+            } finally {
+                channel.close();
+                BufferPool.releaseDirect(buffer);
+                buffer = null;
+            }
+        }
+    }
+
+    /**
+     * This stream reads file that is mapped into memory. Files larger than 2 GB
+     * are mapped by windows of MAPPED_WINDOW_SIZE bytes one after another.
+     */
+    private static class MappedInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private final long size;
+        private long windowPosition = 0;
+        private MappedByteBuffer window;
+
+        MappedInputStream(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            mapWindow(0);
+        }
+
+        private void mapWindow(long position) throws IOException {
+            windowPosition = position;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAPPED_WINDOW_SIZE, size - position));
+        }
+
+        private boolean nextWindow() throws IOException {
+            long nextPosition = windowPosition + window.capacity();
+            if (nextPosition >= size) {
+                return false;
+            }
+            mapWindow(nextPosition);
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!window.hasRemaining() && !nextWindow()) {
+                return -1;
+            }
+            return window.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!window.hasRemaining() && !nextWindow()) {
+                return -1;
+            }
+            int read = Math.min(len, window.remaining());
+            window.get(b, off, read);
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long current = windowPosition + window.position();
+            long target = Math.min(size, current + Math.max(n, 0));
+            if (target - windowPosition < window.capacity()) {
+                window.position((int) (target - windowPosition));
+            } else {
+                mapWindow(target);
+            }
+            return target - current;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, size - windowPosition - window.position());
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * This stream writes file that is preallocated with known size and mapped
+     * into memory by windows of MAPPED_WINDOW_SIZE bytes. If less data is written,
+     * the file is truncated when the stream is closed. Windows aren`t forced to disk,
+     * written pages are flushed by OS as data of other backends are.
      */
-    public static void writeOutputBufferToFile(OutputStream fout, ArrayList<Byte> outputBuffer) throws IOException {
-        byte[] out = new byte[outputBuffer.size()];
-        for (int j = 0; j < outputBuffer.size(); j++) {
-            out[j] = outputBuffer.get(j);
+    private static class MappedOutputStream extends OutputStream {
+
+        private final FileChannel channel;
+        private final long size;
+        private long windowPosition = 0;
+        private MappedByteBuffer window;
+
+        MappedOutputStream(FileChannel channel, long size) throws IOException {
+            this.channel = channel;
+            this.size = size;
+            mapWindow(0);
+        }
+
+        private void mapWindow(long position) throws IOException {
+            windowPosition = position;
+            window = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.min(MAPPED_WINDOW_SIZE, size - position));
+        }
+
+        private void nextWindow() throws IOException {
+            long nextPosition = windowPosition + window.capacity();
+            if (nextPosition >= size) {
+                throw new IOException("Data exceeds expected size of file");
+            }
+            mapWindow(nextPosition);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!window.hasRemaining()) {
+                nextWindow();
+            }
+            window.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (!window.hasRemaining()) {
+                    nextWindow();
+                }
+                int written = Math.min(len, window.remaining());
+                window.put(b, off, written);
+                off += written;
+                len -= written;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (window == null) {
+                return;
+            }
+            try {
+                long written = windowPosition + window.position();
+                window = null;
+                if (written < size) {
+                    channel.truncate(written);
+                }
+            } finally {
+                channel.close();
+            }
         }
-        writeFromBufferToStream(fout, out);
-        outputBuffer.clear();
     }
 
 }
@@ -0,0 +1,577 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * This class is used for compressing/decompressing with LZ77 (LZSS) front end:
+ * repeated strings are replaced with (length, distance) pairs that point back into
+ * sliding window, and literals, lengths and distances are coded with canonical Huffman codes.
+ *
+ * Matches are found with hash chains: every position is put into the chain of hash
+ * of its first 3 bytes, and the chain is walked from the nearest position. Level (1..9)
+ * limits length of walked chains and turns on lazy matching (a match is postponed if
+ * the next position has a longer one).
+ *
+ * Data are coded by blocks, each block has its own codes:
+ *
+ *  block size | level | [original size | payload size | payload | checksum] ...
+ *
+ * where payload is lengths of literal/length code and distance code followed by bitstream,
+ * or zero byte followed by stored data if coding doesn`t make the block smaller,
+ * and checksum is CRC32C of original block (since version 3 of format).
+ */
+public class LzCodec implements Constants {
+
+    private static final VarHandle LONG_LE =
+        MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    static final int WINDOW_SIZE = 262144; // 256 KB
+    private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+
+    static final int MIN_MATCH = 3;
+    static final int MAX_MATCH = 258;
+
+    private static final int HASH_BITS = 16;
+    private static final int NIL = -1;
+
+    /* literal/length alphabet: 256 literals followed by 28 length codes, 36 distance codes */
+    private static final int LENGTH_CODES = 28;
+    private static final int LITERAL_LENGTH_ALPHABET = BYTE_ALPHABET_SIZE + LENGTH_CODES;
+    private static final int DISTANCE_CODES = 36;
+
+    /* token of match is flag, length - MIN_MATCH and distance - 1, token of literal is the byte */
+    private static final int MATCH_FLAG = 1 << 30;
+    private static final int LENGTH_SHIFT = 18;
+    private static final int DISTANCE_MASK = (1 << LENGTH_SHIFT) - 1;
+
+    /* match of minimal length costs more than its literals when it is farther than this */
+    private static final int TOO_FAR = 4096;
+
+    /* longer match replaces the found one only if it saves more bits than its farther distance costs */
+    private static final int LITERAL_COST_BITS = 4;
+
+    /* presets of levels (the same as in deflate): length of pending match that makes search
+     * 4 times shorter, length of pending match that stops search at the next position,
+     * length of match that stops search, maximal chain length. Levels 1..3 don`t use lazy matching */
+    private static final int[][] LEVELS = {
+        {4, 4, 8, 4}, {4, 5, 16, 8}, {4, 6, 32, 32},
+        {4, 4, 16, 16}, {8, 16, 32, 32}, {8, 16, 128, 128},
+        {8, 32, 128, 256}, {32, 128, MAX_MATCH, 1024}, {32, MAX_MATCH, MAX_MATCH, 4096}
+    };
+    private static final int MIN_LAZY_LEVEL = 4;
+
+    private final int goodLength;
+    private final int lazyLength;
+    private final int niceLength;
+    private final int maxChainLength;
+    private final boolean isLazy;
+
+    /* window followed by current block, head of chain of every hash and previous position of every position */
+    private final byte[] data;
+    private final int[] head = new int[1 << HASH_BITS];
+    private final int[] previous = new int[WINDOW_SIZE];
+
+    /* distance of the last match that is found by findMatch */
+    private int matchDistance;
+
+    /**
+     * Constructor for creating match finder
+     *
+     * @param level     level of compression (1..9);
+     * @param blockSize size of block, must be a multiple of window size.
+     */
+    private LzCodec(int level, int blockSize) {
+        int[] preset = LEVELS[level - 1];
+        this.goodLength = preset[0];
+        this.lazyLength = preset[1];
+        this.niceLength = preset[2];
+        this.maxChainLength = preset[3];
+        this.isLazy = level >= MIN_LAZY_LEVEL;
+        this.data = BufferPool.acquire(WINDOW_SIZE + blockSize);
+        Arrays.fill(head, NIL);
+    }
+
+    /*
+     * Following chunk of code contains methods for compressing
+     *  |
+     *  V
+     */
+
+    /**
+     * This method compresses all the data of input stream block by block
+     *
+     * @param fin           input stream with uncompressed data;
+     * @param fout          output stream that is positioned after the header;
+     * @param options       level, block size and maximal code length;
+     * @return              number of compressed bytes;
+     * @throws Exception    when compressing is failed.
+     */
+    static long compress(InputStream fin, OutputStream fout, ArchiverOptions options) throws Exception {
+
+        int blockSize = options.getBlockSize();
+        int level = options.getLevel();
+        if (level < MIN_LZ_LEVEL || level > MAX_LZ_LEVEL) {
+            throw new Exception("Level of compression must be in range [" + MIN_LZ_LEVEL + ", " + MAX_LZ_LEVEL + "]");
+        }
+
+        LzCodec codec = new LzCodec(level, blockSize);
+        int[] tokens = new int[blockSize];
+        CRC32C checksum = new CRC32C();
+        long compressedBytes = 0;
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        IOStreamManager.writeVarLong(header, blockSize);
+        header.write(level);
+        IOStreamManager.writeFromBufferToStream(fout, header.toByteArray(), header.size());
+        compressedBytes += header.size();
+
+        /* blocks are read into window buffer one after another, the window is slid when buffer is full */
+        int dataEnd = 0;
+        try {
+            while (true) {
+                if (dataEnd + blockSize > codec.data.length) {
+                    codec.slide(dataEnd - WINDOW_SIZE);
+                    dataEnd = WINDOW_SIZE;
+                }
+
+                int read = fin.readNBytes(codec.data, dataEnd, blockSize);
+                if (read == 0) {
+                    break;
+                }
+
+                int tokensNumber = codec.parse(dataEnd, dataEnd + read, tokens);
+                ByteArrayOutputStream payload = codec.encodeBlock(dataEnd, read, tokens, tokensNumber,
+                    options.getMaxCodeLength());
+
+                ByteArrayOutputStream blockHeader = new ByteArrayOutputStream();
+                IOStreamManager.writeVarLong(blockHeader, read);
+                IOStreamManager.writeVarLong(blockHeader, payload.size());
+                blockHeader.writeTo(fout);
+                payload.writeTo(fout);
+                checksum.reset();
+                checksum.update(codec.data, dataEnd, read);
+                IOStreamManager.writeInt(fout, (int) checksum.getValue());
+                compressedBytes += blockHeader.size() + payload.size() + CHECKSUM_SIZE;
+
+                dataEnd += read;
+                if (read < blockSize) {
+                    break;
+                }
+            }
+        } finally {
+            BufferPool.release(codec.data);
+        }
+        return compressedBytes;
+    }
+
+    /**
+     * This method moves the last WINDOW_SIZE bytes of data to the start of buffer
+     * and shifts positions in hash chains. Shift is a multiple of window size,
+     * so positions keep their places in 'previous' array.
+     */
+    private void slide(int shift) {
+        System.arraycopy(data, shift, data, 0, WINDOW_SIZE);
+        for (int i = 0; i < head.length; i++) {
+            head[i] = head[i] >= shift ? head[i] - shift : NIL;
+        }
+        for (int i = 0; i < previous.length; i++) {
+            previous[i] = previous[i] >= shift ? previous[i] - shift : NIL;
+        }
+    }
+
+    /**
+     * This method splits block into literals and matches
+     *
+     * @param start     index of the first byte of block in data;
+     * @param end       index after the last byte of block;
+     * @param tokens    array for tokens;
+     * @return          number of tokens.
+     */
+    private int parse(int start, int end, int[] tokens) {
+        int tokensNumber = 0;
+        int position = start;
+
+        /* match that is found at the previous position and waits for comparing with the current one */
+        boolean isMatchPending = false;
+        int pendingLength = 0;
+        int pendingDistance = 0;
+
+        while (position < end) {
+            int candidate = position + MIN_MATCH <= end ? insert(position) : NIL;
+            int length = 0;
+            if (candidate != NIL && !(isLazy && isMatchPending && pendingLength >= lazyLength)) {
+                int chainLength = isMatchPending && pendingLength >= goodLength ? maxChainLength >> 2 : maxChainLength;
+                length = findMatch(position, candidate, Math.min(MAX_MATCH, end - position), chainLength);
+                if (length == MIN_MATCH && matchDistance > TOO_FAR) {
+                    length = 0;
+                }
+            }
+
+            if (!isLazy) {
+                if (length >= MIN_MATCH) {
+                    tokens[tokensNumber++] = toMatchToken(length, matchDistance);
+                    insertRange(position + 1, position + length, end);
+                    position += length;
+                } else {
+                    tokens[tokensNumber++] = data[position] & 0xFF;
+                    ++position;
+                }
+                continue;
+            }
+
+            if (isMatchPending && pendingLength >= MIN_MATCH && length <= pendingLength) {
+                /* match of the previous position is not worse, it is taken */
+                tokens[tokensNumber++] = toMatchToken(pendingLength, pendingDistance);
+                insertRange(position + 1, position - 1 + pendingLength, end);
+                position += pendingLength - 1;
+                isMatchPending = false;
+                continue;
+            }
+
+            /* previous position becomes a literal, the current match waits for the next position */
+            if (isMatchPending) {
+                tokens[tokensNumber++] = data[position - 1] & 0xFF;
+            }
+            isMatchPending = true;
+            pendingLength = length;
+            pendingDistance = matchDistance;
+            ++position;
+        }
+
+        if (isMatchPending) {
+            tokens[tokensNumber++] = data[end - 1] & 0xFF;
+        }
+        return tokensNumber;
+    }
+
+    private static int toMatchToken(int length, int distance) {
+        return MATCH_FLAG | (length - MIN_MATCH) << LENGTH_SHIFT | (distance - 1);
+    }
+
+    /**
+     * This method puts position into chain of its hash
+     *
+     * @param position  index of byte in data (at least 3 bytes must follow it);
+     * @return          previous head of the chain or NIL.
+     */
+    private int insert(int position) {
+        int hash = (((data[position] & 0xFF) << 16 | (data[position + 1] & 0xFF) << 8
+            | (data[position + 2] & 0xFF)) * 0x9E3779B1) >>> (32 - HASH_BITS);
+        int candidate = head[hash];
+        previous[position & WINDOW_MASK] = candidate;
+        head[hash] = position;
+        return candidate;
+    }
+
+    /**
+     * this method puts positions of matched bytes into chains
+     */
+    private void insertRange(int from, int to, int end) {
+        to = Math.min(to, end - MIN_MATCH + 1);
+        for (int position = from; position < to; position++) {
+            insert(position);
+        }
+    }
+
+    /**
+     * This method walks chain of candidates and finds the longest match
+     *
+     * @param position    index of byte in data;
+     * @param candidate   the nearest earlier position with the same hash;
+     * @param maxLength   maximal length of match;
+     * @param chainLength maximal number of walked candidates;
+     * @return            length of the longest match (its distance is put to matchDistance) or 0.
+     */
+    private int findMatch(int position, int candidate, int maxLength, int chainLength) {
+        byte[] data = this.data;
+        int bestLength = 0;
+
+        while (candidate != NIL && position - candidate < WINDOW_SIZE && chainLength-- > 0) {
+
+            /* the byte after the best match is checked first, it rejects most of candidates */
+            if (data[candidate + bestLength] == data[position + bestLength] && data[candidate] == data[position]) {
+                int length = matchLength(candidate, position, maxLength);
+                int distance = position - candidate;
+                if (length > bestLength && (bestLength == 0 || (length - bestLength) * LITERAL_COST_BITS
+                    > Integer.numberOfLeadingZeros(matchDistance) - Integer.numberOfLeadingZeros(distance))) {
+                    bestLength = length;
+                    matchDistance = distance;
+                    if (length >= niceLength || length == maxLength) {
+                        break;
+                    }
+                }
+            }
+
+            int next = previous[candidate & WINDOW_MASK];
+            if (next >= candidate) {
+                break;
+            }
+            candidate = next;
+        }
+        return bestLength;
+    }
+
+    /**
+     * This method compares bytes at two positions by 8 at once
+     *
+     * @return number of equal bytes (up to maxLength).
+     */
+    private int matchLength(int candidate, int position, int maxLength) {
+        int length = 0;
+        while (length + LONG_SIZE_IN_BYTES <= maxLength) {
+            long difference = (long) LONG_LE.get(data, candidate + length) ^ (long) LONG_LE.get(data, position + length);
+            if (difference != 0) {
+                return length + (Long.numberOfTrailingZeros(difference) >>> 3);
+            }
+            length += LONG_SIZE_IN_BYTES;
+        }
+        while (length < maxLength && data[candidate + length] == data[position + length]) {
+            ++length;
+        }
+        return length;
+    }
+
+    /**
+     * This method codes tokens of block
+     *
+     * @param start         index of the first byte of block in data;
+     * @param length        size of block;
+     * @param tokens        tokens of block;
+     * @param tokensNumber  number of tokens;
+     * @param maxCodeLength maximal length of Huffman code in bits;
+     * @return              payload of block.
+     */
+    private ByteArrayOutputStream encodeBlock(int start, int length, int[] tokens, int tokensNumber,
+                                              int maxCodeLength) throws Exception {
+
+        /* counting frequencies of symbols and creating codes */
+        long[] literalFrequencies = new long[LITERAL_LENGTH_ALPHABET];
+        long[] distanceFrequencies = new long[DISTANCE_CODES];
+        for (int i = 0; i < tokensNumber; i++) {
+            int token = tokens[i];
+            if (token < MATCH_FLAG) {
+                ++literalFrequencies[token];
+            } else {
+                ++literalFrequencies[BYTE_ALPHABET_SIZE + lengthCode((token >>> LENGTH_SHIFT) & 0xFF)];
+                ++distanceFrequencies[distanceCode(token & DISTANCE_MASK)];
+            }
+        }
+        BlockCodec.ensureTwoSymbols(literalFrequencies);
+        BlockCodec.ensureTwoSymbols(distanceFrequencies);
+        HCanonicalCode literalCode = new HCanonicalCode(HTree.limitCodeLengths(literalFrequencies, maxCodeLength));
+        HCanonicalCode distanceCode = new HCanonicalCode(HTree.limitCodeLengths(distanceFrequencies, maxCodeLength));
+
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(length / 2 + OUTPUT_CHUNK_SIZE);
+        literalCode.writeLengths(payload);
+        distanceCode.writeLengths(payload);
+
+        /* writing codes of tokens with extra bits of lengths and distances */
+        int[] literalCodes = literalCode.getCodes();
+        byte[] literalLengths = literalCode.getLengths();
+        int[] distanceCodes = distanceCode.getCodes();
+        byte[] distanceLengths = distanceCode.getLengths();
+        BitWriter bitWriter = new BitWriter(payload, OUTPUT_CHUNK_SIZE);
+
+        for (int i = 0; i < tokensNumber; i++) {
+            int token = tokens[i];
+            if (token < MATCH_FLAG) {
+                bitWriter.writeBits(literalCodes[token], literalLengths[token]);
+                continue;
+            }
+            int lengthValue = (token >>> LENGTH_SHIFT) & 0xFF;
+            int code = lengthCode(lengthValue);
+            int symbol = BYTE_ALPHABET_SIZE + code;
+            bitWriter.writeBits(literalCodes[symbol], literalLengths[symbol]);
+            bitWriter.writeBits(lengthValue - lengthBase(code), lengthExtraBits(code));
+
+            int distanceValue = token & DISTANCE_MASK;
+            code = distanceCode(distanceValue);
+            bitWriter.writeBits(distanceCodes[code], distanceLengths[code]);
+            bitWriter.writeBits(distanceValue - distanceBase(code), distanceExtraBits(code));
+        }
+        bitWriter.finish();
+
+        if (!BlockCodec.isWorthCoding(payload.size(), length)) {
+            payload.reset();
+            payload.write(0);
+            payload.write(data, start, length);
+        }
+        return payload;
+    }
+
+    /*
+     * Following chunk of code contains codes of lengths and distances:
+     * small values have their own codes, greater ones are grouped by the highest bit,
+     * group is split by next bits into several codes and the rest bits are extra bits.
+     *  |
+     *  V
+     */
+
+    /** returns code of length - MIN_MATCH (0..255): 8 own codes and 5 groups of 4 codes */
+    private static int lengthCode(int value) {
+        if (value < 8) {
+            return value;
+        }
+        int highestBit = 31 - Integer.numberOfLeadingZeros(value);
+        return 8 + (highestBit - 3) * 4 + ((value >>> (highestBit - 2)) & 3);
+    }
+
+    private static int lengthExtraBits(int code) {
+        return code < 8 ? 0 : (code - 8) / 4 + 1;
+    }
+
+    private static int lengthBase(int code) {
+        return code < 8 ? code : (4 + ((code - 8) & 3)) << ((code - 8) / 4 + 1);
+    }
+
+    /** returns code of distance - 1 (0..WINDOW_SIZE - 1): 4 own codes and 16 groups of 2 codes */
+    private static int distanceCode(int value) {
+        if (value < 4) {
+            return value;
+        }
+        int highestBit = 31 - Integer.numberOfLeadingZeros(value);
+        return 4 + (highestBit - 2) * 2 + ((value >>> (highestBit - 1)) & 1);
+    }
+
+    private static int distanceExtraBits(int code) {
+        return code < 4 ? 0 : (code - 4) / 2 + 1;
+    }
+
+    private static int distanceBase(int code) {
+        return code < 4 ? code : (2 + ((code - 4) & 1)) << ((code - 4) / 2 + 1);
+    }
+
+    /*
+     * Following chunk of code contains methods for decompressing
+     *  |
+     *  V
+     */
+
+    /**
+     * This method decompresses given number of bytes from input stream
+     *
+     * @param uncomprFileSize   size of decompressed (original) file;
+     * @param fin               input stream that is positioned after the header;
+     * @param fout              output stream for decompressed data;
+     * @param hasChecksums      true if blocks are followed by their checksums;
+     * @throws Exception        when decompressing is failed.
+     */
+    static void decompress(long uncomprFileSize, InputStream fin, OutputStream fout,
+                           boolean hasChecksums) throws Exception {
+
+        long blockSize = IOStreamManager.readVarLong(fin);
+        if (blockSize < (long) MIN_BLOCK_SIZE_MB << 20 || blockSize > (long) MAX_BLOCK_SIZE_MB << 20) {
+            throw new IOException("Compressed data is corrupted or truncated");
+        }
+        if (fin.read() < 0) { // level is informative only
+            throw new IOException("Compressed data is corrupted or truncated");
+        }
+
+        byte[] window = BufferPool.acquire(WINDOW_SIZE + (int) blockSize);
+        byte[] payload = BufferPool.acquire((int) blockSize + 1);
+        CRC32C checksum = new CRC32C();
+        int windowEnd = 0;
+
+        try {
+            for (long decodedBytes = 0; decodedBytes < uncomprFileSize; ) {
+                long originalSize = IOStreamManager.readVarLong(fin);
+                long payloadSize = IOStreamManager.readVarLong(fin);
+                if (originalSize < 1 || originalSize > blockSize || payloadSize < 1 || payloadSize > originalSize + 1
+                    || decodedBytes + originalSize > uncomprFileSize) {
+                    throw new IOException("Compressed data is corrupted or truncated");
+                }
+                if (fin.readNBytes(payload, 0, (int) payloadSize) != payloadSize) {
+                    throw new IOException("Unexpected end of file");
+                }
+
+                /* only the last WINDOW_SIZE bytes are needed for matches of the next block */
+                if (windowEnd + originalSize > window.length) {
+                    System.arraycopy(window, windowEnd - WINDOW_SIZE, window, 0, WINDOW_SIZE);
+                    windowEnd = WINDOW_SIZE;
+                }
+
+                decodeBlock(payload, (int) payloadSize, window, windowEnd, (int) originalSize);
+                if (hasChecksums) {
+                    checksum.reset();
+                    checksum.update(window, windowEnd, (int) originalSize);
+                    if (IOStreamManager.readInt(fin) != (int) checksum.getValue()) {
+                        throw new IOException("Checksum of block doesn`t match, compressed file is corrupted");
+                    }
+                }
+                IOStreamManager.writeFromBufferToStream(fout, window, windowEnd, (int) originalSize);
+                windowEnd += (int) originalSize;
+                decodedBytes += originalSize;
+            }
+        } finally {
+            BufferPool.release(payload);
+            BufferPool.release(window);
+        }
+    }
+
+    /**
+     * This method decodes one block into window
+     *
+     * @param payload       array with payload of block;
+     * @param payloadSize   size of payload;
+     * @param window        window that contains preceding data;
+     * @param start         index in window for the first decoded byte;
+     * @param originalSize  number of bytes in block;
+     * @throws Exception    when data are corrupted.
+     */
+    private static void decodeBlock(byte[] payload, int payloadSize, byte[] window, int start,
+                                    int originalSize) throws Exception {
+
+        /* stored block */
+        if (payload[0] == 0) {
+            if (payloadSize != originalSize + 1) {
+                throw new IOException("Compressed data is corrupted or truncated");
+            }
+            System.arraycopy(payload, 1, window, start, originalSize);
+            return;
+        }
+
+        ByteArrayInputStream lengthsStream = new ByteArrayInputStream(payload, 0, payloadSize);
+        HDecodingTable literalTable = new HDecodingTable(HCanonicalCode.readLengths(lengthsStream, LITERAL_LENGTH_ALPHABET));
+        HDecodingTable distanceTable = new HDecodingTable(HCanonicalCode.readLengths(lengthsStream, DISTANCE_CODES));
+        int bitstreamOffset = payloadSize - lengthsStream.available();
+        BitReader bitReader = new BitReader(payload, bitstreamOffset, payloadSize - bitstreamOffset);
+
+        int position = start;
+        int end = start + originalSize;
+        while (position < end) {
+            int symbol = literalTable.decodeSymbol(bitReader);
+            if (symbol < BYTE_ALPHABET_SIZE) {
+                window[position++] = (byte) symbol;
+                continue;
+            }
+
+            int code = symbol - BYTE_ALPHABET_SIZE;
+            int length = lengthBase(code) + bitReader.readBits(lengthExtraBits(code)) + MIN_MATCH;
+            code = distanceTable.decodeSymbol(bitReader);
+            int distance = distanceBase(code) + bitReader.readBits(distanceExtraBits(code)) + 1;
+            if (distance > position || length > end - position) {
+                throw new IOException("Compressed data is corrupted or truncated");
+            }
+
+            /* match is copied by arrays: when it overlaps itself, the copied part is doubled each time */
+            int from = position - distance;
+            int remaining = length;
+            while (remaining > 0) {
+                int portion = Math.min(remaining, position - from);
+                System.arraycopy(window, from, window, position, portion);
+                position += portion;
+                remaining -= portion;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,455 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * This class is used for packing many files (directory tree) into one '.par' archive
+ * and for listing/extracting of its entries.
+ *
+ * Each entry is a complete compressed stream of HuffmanOutputStream, so entries
+ * are compressed and extracted independently. Layout of the archive:
+ *
+ *  header | entry 0 | entry 1 | ... | central directory | entries number | directory offset
+ *
+ * where each record of central directory contains name of entry, its offset in archive,
+ * compressed size, original size and CRC32 of original data. Empty directories are kept
+ * as entries without data, their names end with '/'.
+ */
+public class ParArchive implements Constants {
+
+    /*
+     * Following chunk of code contains methods for packing
+     *  |
+     *  V
+     */
+
+    /**
+     * This method packs file or all files of directory tree into archive.
+     * Entries are compressed in parallel and written in order. Compressed entry
+     * of small file waits for its turn in memory, larger one - in temporary file
+     * next to the archive, so memory doesn`t grow with size of files.
+     *
+     * @param inputName     path to file or directory;
+     * @param archiveFName  path to archive;
+     * @param options       settings of compressing;
+     * @return              result of packing.
+     */
+    public static int pack(String inputName, String archiveFName, ArchiverOptions options) {
+
+        System.out.println("Packing [" + inputName + "] to [" + archiveFName + "] ...");
+        long start = System.currentTimeMillis();
+
+        /* collecting files and empty directories, names of entries are relative paths with '/' separator */
+        Path root = Paths.get(inputName);
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(path -> Files.isRegularFile(path) || (!root.equals(path) && isEmptyDirectory(path)))
+                .sorted().collect(Collectors.toList());
+        } catch (IOException e) {
+            System.err.println("Can`t read [" + inputName + "]");
+            return RETURN_VALUE_FAIL;
+        }
+
+        long totalSize = 0;
+        for (Path file : files) {
+            if (Files.isRegularFile(file)) {
+                totalSize += IOStreamManager.getFileSize(file.toString());
+            }
+        }
+
+        List<Entry> directory = new ArrayList<>();
+        int threadsNumber = options.getThreadsNumber();
+        ExecutorService pool = Executors.newFixedThreadPool(threadsNumber);
+        Path temporaryDir = Paths.get(archiveFName).toAbsolutePath().getParent();
+
+        /* number of entries that wait for writing at the same time is limited */
+        Deque<Future<Entry>> inProgress = new ArrayDeque<>();
+
+        try (OutputStream fout = IOStreamManager.createOutputStream(archiveFName)) {
+
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            new ParHeader(METHOD_ARCHIVE, totalSize).write(header);
+            IOStreamManager.writeFromBufferToStream(fout, header.toByteArray(), header.size());
+            long offset = header.size();
+
+            int nextFile = 0;
+            while (nextFile < files.size() || !inProgress.isEmpty()) {
+
+                while (nextFile < files.size() && inProgress.size() < 2 * threadsNumber) {
+                    Path file = files.get(nextFile++);
+                    String name = root.equals(file) ? file.getFileName().toString()
+                        : root.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+                    if (Files.isDirectory(file)) {
+                        inProgress.add(CompletableFuture.completedFuture(new Entry(name + "/", 0, 0, 0, 0)));
+                    } else {
+                        inProgress.add(pool.submit(() -> compressEntry(file, name, temporaryDir, options)));
+                    }
+                }
+
+                Entry entry = inProgress.peek().get();
+                try {
+                    writeEntryData(fout, entry);
+                } finally {
+                    inProgress.poll();
+                    entry.deleteData();
+                }
+                entry.offset = offset;
+                offset += entry.compressedSize;
+                directory.add(entry);
+            }
+
+            writeDirectory(fout, directory, offset);
+
+        } catch (Exception e) {
+            System.err.println(e.getCause() == null ? e.getMessage() : e.getCause().getMessage());
+            return RETURN_VALUE_FAIL;
+        } finally {
+            pool.shutdownNow();
+
+            /* temporary files of entries that are not written are deleted */
+            for (Future<Entry> future : inProgress) {
+                try {
+                    future.get().deleteData();
+                } catch (Exception e) {
+                    /* entry failed or was cancelled, it has deleted its file by itself */
+                }
+            }
+        }
+
+        long archiveSize = IOStreamManager.getFileSize(archiveFName);
+        System.out.println("Time to pack: \t\t\t\t[" + (System.currentTimeMillis() - start) + "] ms"
+            + "\nNumber of files: \t\t\t[" + directory.size() + "]"
+            + "\nSize of input files: \t\t[" + totalSize + "] bytes"
+            + "\nSize of archive: \t\t\t[" + archiveSize + "] bytes");
+
+        return RETURN_VALUE_SUCCESS;
+    }
+
+    /**
+     * This method compresses one file into memory (if it is not larger than one
+     * stream buffer) or into temporary file. Window of compressing is not larger
+     * than the file, so small files don`t take whole blocks.
+     *
+     * @param file          file that need to be compressed;
+     * @param name          name of entry in archive;
+     * @param temporaryDir  directory for temporary file;
+     * @param options       settings of compressing;
+     * @return              entry with compressed data.
+     */
+    private static Entry compressEntry(Path file, String name, Path temporaryDir,
+                                       ArchiverOptions options) throws Exception {
+
+        long fileSize = IOStreamManager.getFileSize(file.toString());
+        int windowSize = (int) Math.max(Math.min(fileSize, options.getBlockSize()), 1);
+        ByteArrayOutputStream compressedInMemory = null;
+        Path temporary = null;
+        CRC32 crc = new CRC32();
+        long originalSize;
+        long compressedSize;
+
+        try {
+            OutputStream compressed;
+            if (fileSize <= STREAM_BUFFER_SIZE) {
+                compressedInMemory = new ByteArrayOutputStream();
+                compressed = compressedInMemory;
+            } else {
+                temporary = Files.createTempFile(temporaryDir, ".par-entry-", ".tmp");
+                compressed = IOStreamManager.createOutputStream(temporary.toString());
+            }
+            try (InputStream fin = new CheckedInputStream(IOStreamManager.createInputStream(file.toString()), crc);
+                 OutputStream fout = compressed) {
+                HuffmanOutputStream hout = new HuffmanOutputStream(fout, windowSize, options.getMaxCodeLength());
+                originalSize = IOStreamManager.transfer(fin, hout);
+                hout.finish();
+                compressedSize = hout.getCompressedSize();
+            }
+        } catch (IOException e) {
+            if (temporary != null) {
+                Files.deleteIfExists(temporary);
+            }
+            throw new IOException("Can`t compress [" + file + "]: " + e.getMessage());
+        }
+
+        Entry entry = new Entry(name, 0, compressedSize, originalSize, (int) crc.getValue());
+        entry.data = compressedInMemory == null ? null : compressedInMemory.toByteArray();
+        entry.temporary = temporary;
+        return entry;
+    }
+
+    /**
+     * this method copies compressed data of entry (from memory or temporary file) to archive
+     */
+    private static void writeEntryData(OutputStream fout, Entry entry) throws IOException {
+        if (entry.data != null) {
+            IOStreamManager.writeFromBufferToStream(fout, entry.data, entry.data.length);
+        } else if (entry.temporary != null) {
+            Files.copy(entry.temporary, fout);
+        }
+    }
+
+    /**
+     * this method returns true for directory without files and subdirectories
+     */
+    private static boolean isEmptyDirectory(Path path) {
+        if (!Files.isDirectory(path)) {
+            return false;
+        }
+        try (Stream<Path> children = Files.list(path)) {
+            return children.findAny().isEmpty();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * this method writes central directory and footer that points to it
+     */
+    private static void writeDirectory(OutputStream fout, List<Entry> directory, long directoryOffset) throws IOException {
+        ByteArrayOutputStream table = new ByteArrayOutputStream();
+        DataOutputStream tableWriter = new DataOutputStream(table);
+        for (Entry entry : directory) {
+            byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+            IOStreamManager.writeVarLong(tableWriter, name.length);
+            tableWriter.write(name);
+            tableWriter.writeLong(entry.offset);
+            tableWriter.writeLong(entry.compressedSize);
+            tableWriter.writeLong(entry.originalSize);
+            tableWriter.writeInt(entry.crc);
+        }
+        tableWriter.writeInt(directory.size());
+        tableWriter.writeLong(directoryOffset);
+        IOStreamManager.writeFromBufferToStream(fout, table.toByteArray());
+    }
+
+    /*
+     * Following chunk of code contains methods for listing and extracting
+     *  |
+     *  V
+     */
+
+    /**
+     * This method prints entries of archive. Only central directory is read.
+     *
+     * @param archiveFName  path to archive;
+     * @return              result of listing.
+     */
+    public static int list(String archiveFName) {
+        try (FileChannel channel = FileChannel.open(Paths.get(archiveFName), StandardOpenOption.READ)) {
+            List<Entry> directory = readDirectory(channel);
+            System.out.println(String.format("%14s %14s %10s  %s", "Original", "Compressed", "CRC32", "Name"));
+            for (Entry entry : directory) {
+                System.out.println(String.format("%14d %14d %08x  %s",
+                    entry.originalSize, entry.compressedSize, entry.crc, entry.name));
+            }
+            System.out.println("Number of files: [" + directory.size() + "]");
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return RETURN_VALUE_FAIL;
+        }
+        return RETURN_VALUE_SUCCESS;
+    }
+
+    /**
+     * This method extracts all entries of archive (or one entry) into directory.
+     * Entries are read with random access and extracted in parallel.
+     *
+     * @param archiveFName  path to archive;
+     * @param outputDir     directory that gets extracted files;
+     * @param entryName     name of the only entry that need to be extracted or null for all entries;
+     * @param options       settings of decompressing;
+     * @return              result of extracting.
+     */
+    public static int unpack(String archiveFName, String outputDir, String entryName, ArchiverOptions options) {
+
+        System.out.println("Unpacking [" + archiveFName + "] to [" + outputDir + "] ...");
+        long start = System.currentTimeMillis();
+
+        Path archive = Paths.get(archiveFName);
+        List<Entry> directory;
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+            directory = readDirectory(channel);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return RETURN_VALUE_FAIL;
+        }
+
+        if (entryName != null) {
+            directory.removeIf(entry -> !entry.name.equals(entryName));
+            if (directory.isEmpty()) {
+                System.err.println("There is no entry [" + entryName + "] in archive");
+                return RETURN_VALUE_FAIL;
+            }
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(options.getThreadsNumber());
+        int failures = 0;
+        long extractedBytes = 0;
+        try {
+            List<Future<Long>> results = new ArrayList<>();
+            for (Entry entry : directory) {
+                results.add(pool.submit(() -> extractEntry(archive, entry, Paths.get(outputDir))));
+            }
+            for (Future<Long> result : results) {
+                try {
+                    extractedBytes += result.get();
+                } catch (Exception e) {
+                    System.err.println(e.getCause() == null ? e.getMessage() : e.getCause().getMessage());
+                    ++failures;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        System.out.println("Time to unpack: \t\t\t[" + (System.currentTimeMillis() - start) + "] ms"
+            + "\nNumber of files: \t\t\t[" + (directory.size() - failures) + "]"
+            + "\nSize of extracted files: \t[" + extractedBytes + "] bytes");
+
+        return failures == 0 ? RETURN_VALUE_SUCCESS : RETURN_VALUE_FAIL;
+    }
+
+    /**
+     * This method decodes one entry and checks its size and checksum
+     *
+     * @param archive   path to archive;
+     * @param entry     record of central directory;
+     * @param outputDir directory that gets extracted file;
+     * @return          number of extracted bytes.
+     */
+    private static long extractEntry(Path archive, Entry entry, Path outputDir) throws Exception {
+
+        /* names that lead outside of output directory are not allowed */
+        Path target = outputDir.resolve(entry.name).normalize();
+        if (!target.startsWith(outputDir.normalize()) || Paths.get(entry.name).isAbsolute()) {
+            throw new IOException("Entry [" + entry.name + "] has wrong name");
+        }
+        if (entry.isDirectory()) {
+            Files.createDirectories(target);
+            return 0;
+        }
+        if (target.getParent() != null) {
+            Files.createDirectories(target.getParent());
+        }
+
+        CRC32 crc = new CRC32();
+        long extracted;
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+            channel.position(entry.offset);
+            InputStream fin = new BufferedInputStream(Channels.newInputStream(channel), STREAM_BUFFER_SIZE);
+            try (InputStream entryStream = new CheckedInputStream(new HuffmanInputStream(fin), crc);
+                 OutputStream fout = IOStreamManager.createOutputStream(target.toString())) {
+                extracted = IOStreamManager.transfer(entryStream, fout);
+            }
+        }
+
+        if (extracted != entry.originalSize || (int) crc.getValue() != entry.crc) {
+            throw new IOException("Entry [" + entry.name + "] is corrupted, checksum doesn`t match");
+        }
+        return extracted;
+    }
+
+    /**
+     * this method reads footer and central directory from the end of archive
+     */
+    private static List<Entry> readDirectory(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+
+        ByteBuffer firstBytes = ByteBuffer.allocate(3);
+        channel.read(firstBytes, 0);
+        if (firstBytes.position() < 3 || !ParHeader.isVersioned(firstBytes.get(0)) || firstBytes.get(2) != METHOD_ARCHIVE) {
+            throw new IOException("File is not a multi-file archive");
+        }
+        if (fileSize < ARCHIVE_FOOTER_SIZE) {
+            throw new IOException("Directory of archive is corrupted");
+        }
+
+        ByteBuffer footer = ByteBuffer.allocate(ARCHIVE_FOOTER_SIZE);
+        channel.read(footer, fileSize - ARCHIVE_FOOTER_SIZE);
+        footer.flip();
+        int entriesNumber = footer.getInt();
+        long directoryOffset = footer.getLong();
+        long directorySize = fileSize - ARCHIVE_FOOTER_SIZE - directoryOffset;
+        if (entriesNumber < 0 || directoryOffset < 0 || directorySize < 0 || directorySize > Integer.MAX_VALUE) {
+            throw new IOException("Directory of archive is corrupted");
+        }
+
+        channel.position(directoryOffset);
+        DataInputStream tableReader = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        List<Entry> directory = new ArrayList<>(entriesNumber);
+        for (int i = 0; i < entriesNumber; i++) {
+            long nameLength = IOStreamManager.readVarLong(tableReader);
+            if (nameLength > directorySize) {
+                throw new IOException("Directory of archive is corrupted");
+            }
+            String name = new String(IOStreamManager.readExactly(tableReader, (int) nameLength), StandardCharsets.UTF_8);
+            directory.add(new Entry(name, tableReader.readLong(), tableReader.readLong(),
+                tableReader.readLong(), tableReader.readInt()));
+        }
+        return directory;
+    }
+
+    /**
+     * This class contains record of central directory
+     */
+    private static class Entry {
+
+        private final String name;
+        private long offset;
+        private final long compressedSize;
+        private final long originalSize;
+        private final int crc;
+
+        /* compressed data (or temporary file with them) while entry is waiting to be written */
+        private byte[] data;
+        private Path temporary;
+
+        Entry(String name, long offset, long compressedSize, long originalSize, int crc) {
+            this.name = name;
+            this.offset = offset;
+            this.compressedSize = compressedSize;
+            this.originalSize = originalSize;
+            this.crc = crc;
+        }
+
+        /** returns true for entry of empty directory */
+        boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        /** this method forgets compressed data of entry that is written (or not needed) */
+        void deleteData() throws IOException {
+            data = null;
+            if (temporary != null) {
+                Files.deleteIfExists(temporary);
+                temporary = null;
+            }
+        }
+    }
+
+}
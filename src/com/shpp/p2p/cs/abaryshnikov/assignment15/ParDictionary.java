@@ -0,0 +1,253 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * This class presents shared code table that is trained on sample files.
+ *
+ * Small files of the same kind (logs, messages, records) have similar frequencies
+ * of bytes, so one canonical Huffman code serves all of them. File that is compressed
+ * with dictionary keeps only ID of the dictionary instead of code lengths, and neither
+ * histogram nor tree is built for it. Every byte value gets a code while training,
+ * so any data can be coded with the dictionary.
+ *
+ * Layout of dictionary file:
+ *
+ *  signature | version | ID | samples number | samples size | code lengths
+ *
+ * where ID is CRC32C of code lengths, so the same training gives the same ID
+ * and compressed file can`t be decoded with wrong dictionary.
+ */
+public class ParDictionary implements Constants {
+
+    /* dictionaries that are loaded by this process, decoding table of each one is built once */
+    private static final Map<String, ParDictionary> LOADED = new ConcurrentHashMap<>();
+
+    private final int id;
+    private final HCanonicalCode code;
+    private final long samplesNumber;
+    private final long samplesSize;
+    private volatile HDecodingTable decodingTable = null;
+
+    private ParDictionary(HCanonicalCode code, long samplesNumber, long samplesSize) throws IOException {
+        this.code = code;
+        this.samplesNumber = samplesNumber;
+        this.samplesSize = samplesSize;
+
+        ByteArrayOutputStream lengths = new ByteArrayOutputStream();
+        code.writeLengths(lengths);
+        CRC32C checksum = new CRC32C();
+        checksum.update(lengths.toByteArray());
+        this.id = (int) checksum.getValue();
+    }
+
+    /*
+     * Following chunk of code contains methods for training of dictionary
+     *  |
+     *  V
+     */
+
+    /**
+     * This method trains dictionary on all files of directory tree and writes it to file
+     *
+     * @param samplesName       path to directory with samples (or to one sample file);
+     * @param dictionaryFName   path to dictionary file;
+     * @param options           settings with maximal length of code;
+     * @return                  result of training.
+     */
+    public static int train(String samplesName, String dictionaryFName, ArchiverOptions options) {
+
+        System.out.println("Training dictionary on [" + samplesName + "] ...");
+        long start = System.currentTimeMillis();
+
+        ParDictionary dictionary;
+        try (Stream<Path> walk = Files.walk(Paths.get(samplesName))) {
+            List<Path> samples = walk.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+            dictionary = train(samples, options.getMaxCodeLength());
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+            return RETURN_VALUE_FAIL;
+        }
+
+        try (OutputStream fout = IOStreamManager.createOutputStream(dictionaryFName)) {
+            dictionary.write(fout);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            return RETURN_VALUE_FAIL;
+        }
+
+        System.out.println("Time to train: \t\t\t\t[" + (System.currentTimeMillis() - start) + "] ms"
+            + "\nNumber of samples: \t\t\t[" + dictionary.samplesNumber + "]"
+            + "\nSize of samples: \t\t\t[" + dictionary.samplesSize + "] bytes"
+            + "\nDictionary ID: \t\t\t\t[" + dictionary.getName() + "]");
+
+        return RETURN_VALUE_SUCCESS;
+    }
+
+    /**
+     * This method counts frequencies of bytes of all samples and creates code
+     * that is limited to given length. Each byte value is counted at least once,
+     * so bytes that are absent in samples still have (long) codes.
+     *
+     * @param samples       files with samples;
+     * @param maxCodeLength maximal length of code in bits;
+     * @return              trained dictionary;
+     * @throws Exception    when samples can`t be read.
+     */
+    static ParDictionary train(List<Path> samples, int maxCodeLength) throws Exception {
+
+        if (samples.isEmpty()) {
+            throw new Exception("No samples for training of dictionary");
+        }
+
+        long[] frequencies = new long[BYTE_ALPHABET_SIZE];
+        long samplesSize = 0;
+        byte[] inputBuffer = BufferPool.acquire(INPUT_BUFFER_SIZE);
+        try {
+            for (Path sample : samples) {
+                try (InputStream fin = IOStreamManager.createInputStream(sample.toString())) {
+                    int read;
+                    while ((read = fin.read(inputBuffer, 0, inputBuffer.length)) > 0) {
+                        ByteHistogram.countParallel(inputBuffer, 0, read, frequencies);
+                        samplesSize += read;
+                    }
+                } catch (IOException e) {
+                    throw new IOException("Can`t read sample [" + sample + "]: " + e.getMessage());
+                }
+            }
+        } finally {
+            BufferPool.release(inputBuffer);
+        }
+
+        for (int symbol = 0; symbol < BYTE_ALPHABET_SIZE; symbol++) {
+            frequencies[symbol] = Math.max(frequencies[symbol], 1);
+        }
+        HCanonicalCode code = new HCanonicalCode(HTree.limitCodeLengths(frequencies, maxCodeLength));
+        return new ParDictionary(code, samples.size(), samplesSize);
+    }
+
+    /*
+     * Following chunk of code contains methods for writing and loading of dictionary
+     *  |
+     *  V
+     */
+
+    /**
+     * This method writes dictionary to output stream
+     *
+     * @param fout          output stream;
+     * @throws IOException  when writing to file failed.
+     */
+    void write(OutputStream fout) throws IOException {
+        fout.write(DICTIONARY_SIGNATURE);
+        fout.write(DICTIONARY_VERSION);
+        IOStreamManager.writeInt(fout, id);
+        IOStreamManager.writeVarLong(fout, samplesNumber);
+        IOStreamManager.writeVarLong(fout, samplesSize);
+        code.writeLengths(fout);
+    }
+
+    /**
+     * This method returns dictionary from file. Dictionary is read only once
+     * while the file is not changed, so many files that are compressed or decompressed
+     * with it share the code and the decoding table.
+     *
+     * @param dictionaryFName   path to dictionary file;
+     * @return                  dictionary;
+     * @throws Exception        when file can`t be read or it is not a dictionary.
+     */
+    static ParDictionary load(String dictionaryFName) throws Exception {
+        Path path = Paths.get(dictionaryFName).toAbsolutePath().normalize();
+        String key = path + "@" + Files.getLastModifiedTime(path).toMillis();
+        ParDictionary dictionary = LOADED.get(key);
+        if (dictionary == null) {
+            try (InputStream fin = IOStreamManager.createInputStream(path.toString())) {
+                dictionary = read(fin);
+            }
+            ParDictionary loaded = LOADED.putIfAbsent(key, dictionary);
+            if (loaded != null) {
+                dictionary = loaded;
+            }
+        }
+        return dictionary;
+    }
+
+    /**
+     * this method reads dictionary that is written by write method and checks its ID
+     */
+    private static ParDictionary read(InputStream fin) throws Exception {
+        if (fin.read() != DICTIONARY_SIGNATURE) {
+            throw new Exception("File is not a dictionary");
+        }
+        int version = fin.read();
+        if (version != DICTIONARY_VERSION) {
+            throw new Exception("Unsupported version [" + version + "] of dictionary");
+        }
+        int id = IOStreamManager.readInt(fin);
+        long samplesNumber = IOStreamManager.readVarLong(fin);
+        long samplesSize = IOStreamManager.readVarLong(fin);
+        HCanonicalCode code = HCanonicalCode.readLengths(fin, BYTE_ALPHABET_SIZE);
+
+        ParDictionary dictionary = new ParDictionary(code, samplesNumber, samplesSize);
+        if (dictionary.id != id) {
+            throw new Exception("Dictionary is corrupted");
+        }
+        return dictionary;
+    }
+
+    /*
+     * Following chunk of code contains methods for coding with dictionary
+     *  |
+     *  V
+     */
+
+    int getId() {
+        return id;
+    }
+
+    /**
+     * This method returns ID of dictionary as it is printed for user
+     */
+    String getName() {
+        return nameOf(id);
+    }
+
+    static String nameOf(int id) {
+        return String.format("%08x", id);
+    }
+
+    HCanonicalCode getCode() {
+        return code;
+    }
+
+    /**
+     * This method returns decoding table of dictionary, the table is built
+     * by the first file that needs it
+     */
+    HDecodingTable getDecodingTable() throws Exception {
+        HDecodingTable table = decodingTable;
+        if (table == null) {
+            synchronized (this) {
+                table = decodingTable;
+                if (table == null) {
+                    table = new HDecodingTable(code);
+                    decodingTable = table;
+                }
+            }
+        }
+        return table;
+    }
+
+}
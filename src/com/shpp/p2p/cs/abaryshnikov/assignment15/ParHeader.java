@@ -0,0 +1,142 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class presents versioned header of '.par' file.
+ *
+ * Header consists of signature byte, version of format, compression method
+ * and size of original (uncompressed) file. Data that are specific for
+ * compression method (for example code lengths) follow the header.
+ *
+ * Legacy '.par' files have no signature and start with the size of flattened
+ * Huffman tree, so they are recognised by the first byte.
+ */
+public class ParHeader implements Constants {
+
+    private final int version;
+    private final int method;
+    private final long originalSize;
+
+    /**
+     * Constructor for creating header of the current version
+     *
+     * @param method        compression method;
+     * @param originalSize  size of original (uncompressed) file.
+     */
+    ParHeader(int method, long originalSize) {
+        this(PAR_VERSION, method, originalSize);
+    }
+
+    private ParHeader(int version, int method, long originalSize) {
+        this.version = version;
+        this.method = method;
+        this.originalSize = originalSize;
+    }
+
+    /**
+     * This method checks if compressed file starts with versioned header
+     *
+     * @param firstByte first byte of compressed file
+     */
+    static boolean isVersioned(int firstByte) {
+        return firstByte == PAR_SIGNATURE;
+    }
+
+    /**
+     * This method writes header to output stream
+     *
+     * @param fout          output stream;
+     * @throws IOException  when writing to file failed.
+     */
+    void write(OutputStream fout) throws IOException {
+        fout.write(PAR_SIGNATURE);
+        fout.write(version);
+        fout.write(method);
+        IOStreamManager.writeVarLong(fout, originalSize);
+    }
+
+    /**
+     * This method writes header which size field has fixed width, it is used when size
+     * of input is unknown until the input is read, the size is set by patchOriginalSize
+     *
+     * @param fout          output stream;
+     * @throws IOException  when writing to file failed.
+     */
+    void writePatchable(OutputStream fout) throws IOException {
+        fout.write(PAR_SIGNATURE);
+        fout.write(version);
+        fout.write(method);
+        IOStreamManager.writeVarLong(fout, originalSize, PATCHABLE_SIZE_BYTES);
+    }
+
+    /**
+     * This method rewrites size field of header that is written by writePatchable
+     *
+     * @param fName         compressed file (it is closed already);
+     * @param originalSize  size of original (uncompressed) file;
+     * @throws IOException  when writing to file failed.
+     */
+    static void patchOriginalSize(String fName, long originalSize) throws IOException {
+        ByteArrayOutputStream field = new ByteArrayOutputStream(PATCHABLE_SIZE_BYTES);
+        IOStreamManager.writeVarLong(field, originalSize, PATCHABLE_SIZE_BYTES);
+        try (FileChannel channel = FileChannel.open(Paths.get(fName), StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.wrap(field.toByteArray());
+            long position = PAR_SIZE_OFFSET;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+    }
+
+    /**
+     * This method reads header from input stream which signature byte
+     * is already read.
+     *
+     * @param fin           input stream;
+     * @return              header of compressed file;
+     * @throws IOException  when reading from file failed or format is not supported.
+     */
+    static ParHeader read(InputStream fin) throws IOException {
+        int version = fin.read();
+        if (version < MIN_PAR_VERSION || version > PAR_VERSION) {
+            throw new IOException("Unsupported version [" + version + "] of compressed file");
+        }
+        int method = fin.read();
+        if (method < 0) {
+            throw new IOException("Unexpected end of file");
+        }
+        long originalSize = IOStreamManager.readVarLong(fin);
+        return new ParHeader(version, method, originalSize);
+    }
+
+    /**
+     * This method checks if segments and whole data are followed by their checksums
+     */
+    boolean hasChecksums() {
+        return version >= CHECKSUMS_PAR_VERSION;
+    }
+
+    /**
+     * This method checks if single-tree bitstream is followed by seek index
+     */
+    boolean hasSeekIndex() {
+        return version >= SEEK_INDEX_PAR_VERSION && (method == METHOD_HUFFMAN || method == METHOD_DICTIONARY);
+    }
+
+    public int getMethod() {
+        return method;
+    }
+
+    public long getOriginalSize() {
+        return originalSize;
+    }
+
+}
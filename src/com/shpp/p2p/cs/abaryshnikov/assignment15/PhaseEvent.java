@@ -0,0 +1,91 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Frequency;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * This class presents Java Flight Recorder event of one phase of compressing
+ * or decompressing (histogram, tree, header, encode, decode, flush ...).
+ * Events are created by ArchiverPhase only when Flight Recorder is running.
+ *
+ * Recording: java -XX:StartFlightRecording:filename=par.jfr ...
+ */
+@Name("com.shpp.archiver.Phase")
+@Label("Archiver Phase")
+@Category("ShPP Archiver")
+@Description("One phase of compressing or decompressing of a file")
+@StackTrace(false)
+public class PhaseEvent extends Event {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Phase")
+    String phase;
+
+    @Label("File")
+    String fileName;
+
+    @Label("Bytes In")
+    @DataAmount
+    long bytesIn;
+
+    @Label("Bytes Out")
+    @DataAmount
+    long bytesOut;
+
+    @Label("Throughput")
+    @Description("Processed bytes (the greater of in and out) per second")
+    @DataAmount
+    @Frequency
+    long bytesPerSecond;
+
+    @Label("Tree Size")
+    @Description("Number of symbols that have codes")
+    int treeSize;
+
+    @Label("Min Code Length")
+    int minCodeLength;
+
+    @Label("Max Code Length")
+    int maxCodeLength;
+
+    @Label("Average Code Length")
+    @Description("Average length of code in bits, weighted with frequencies when they are known")
+    float averageCodeLength;
+
+    /**
+     * This method sets statistics of code that is built or read in this phase
+     *
+     * @param lengths       code length of every symbol (0 if symbol has no code);
+     * @param frequencies   frequency of every symbol or null if they are unknown.
+     */
+    void setCode(byte[] lengths, long[] frequencies) {
+        int min = Integer.MAX_VALUE;
+        int max = 0;
+        long weightedSum = 0;
+        long weights = 0;
+        for (int symbol = 0; symbol < lengths.length; symbol++) {
+            int length = lengths[symbol];
+            if (length == 0) {
+                continue;
+            }
+            ++treeSize;
+            min = Math.min(min, length);
+            max = Math.max(max, length);
+            long weight = frequencies == null ? 1 : frequencies[symbol];
+            weightedSum += weight * length;
+            weights += weight;
+        }
+        minCodeLength = treeSize == 0 ? 0 : min;
+        maxCodeLength = max;
+        averageCodeLength = weights == 0 ? 0 : (float) weightedSum / weights;
+    }
+
+}
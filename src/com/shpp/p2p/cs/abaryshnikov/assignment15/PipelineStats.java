@@ -0,0 +1,80 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+/**
+ * This class collects stalls of stages of read / code / write pipeline of one run.
+ *
+ * Every stage waits only when its neighbour is slower: reader waits for free buffers
+ * when coder doesn`t keep up, coder waits for data of reader or free buffers of writer,
+ * writer waits for coded data. So the stage that waits the least is the bottleneck.
+ * Average number of chunks that are ready when the next stage asks for them
+ * shows the same from the side of queues.
+ */
+public class PipelineStats {
+
+    private long readerStallNanos = 0;
+    private long coderStallNanos = 0;
+    private long writerStallNanos = 0;
+
+    private long inputTakes = 0;
+    private long inputReadyChunks = 0;
+    private long outputTakes = 0;
+    private long outputReadyChunks = 0;
+
+    /**
+     * This method adds counters of read-ahead stream that is closed
+     *
+     * @param freeRing  ring of buffers that are given back to reader;
+     * @param fullRing  ring of buffers with read data.
+     */
+    synchronized void addInput(ChunkRing freeRing, ChunkRing fullRing) {
+        readerStallNanos += freeRing.getStallNanos();
+        coderStallNanos += fullRing.getStallNanos();
+        inputTakes += fullRing.getTakes();
+        inputReadyChunks += fullRing.getReadyChunks();
+    }
+
+    /**
+     * This method adds counters of write-behind stream that is closed
+     *
+     * @param freeRing  ring of buffers that are given back to coder;
+     * @param fullRing  ring of buffers with data to write.
+     */
+    synchronized void addOutput(ChunkRing freeRing, ChunkRing fullRing) {
+        coderStallNanos += freeRing.getStallNanos();
+        writerStallNanos += fullRing.getStallNanos();
+        outputTakes += fullRing.getTakes();
+        outputReadyChunks += fullRing.getReadyChunks();
+    }
+
+    /**
+     * This method returns name of the stage that waited the least or 'none'
+     * if no stage waited (stalls are shorter than one millisecond that is reported)
+     */
+    synchronized String getBottleneck() {
+        if (Math.max(readerStallNanos, Math.max(coderStallNanos, writerStallNanos)) < 1_000_000) {
+            return "none";
+        }
+        if (readerStallNanos <= coderStallNanos && readerStallNanos <= writerStallNanos) {
+            return "read";
+        }
+        return coderStallNanos <= writerStallNanos ? "code" : "write";
+    }
+
+    /**
+     * This method returns stalls of stages in milliseconds, average depths of queues
+     * and the bottleneck stage
+     */
+    synchronized String report() {
+        return "Pipeline stalls: \t\t\t[read " + readerStallNanos / 1_000_000
+            + ", code " + coderStallNanos / 1_000_000
+            + ", write " + writerStallNanos / 1_000_000 + "] ms"
+            + "\nPipeline queues: \t\t\t[in " + String.format("%.1f", average(inputReadyChunks, inputTakes))
+            + ", out " + String.format("%.1f", average(outputReadyChunks, outputTakes)) + "] chunks"
+            + ", bottleneck [" + getBottleneck() + "]";
+    }
+
+    private static double average(long sum, long number) {
+        return number == 0 ? 0 : (double) sum / number;
+    }
+
+}
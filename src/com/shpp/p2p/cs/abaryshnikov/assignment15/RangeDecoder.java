@@ -0,0 +1,314 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class decodes only given range of original data from compressed file.
+ *
+ * Single-tree files (and files that are compressed with dictionary) are decoded
+ * region by region from entries of their seek index, files that are compressed in blocks
+ * are decoded block by block with their block table, stored data are read straight.
+ * Only regions that overlap the range are read and decoded, each one is checked
+ * with its own checksum.
+ *
+ * Decoded regions are kept in bounded LRU cache, so repeated and nearby reads of the same
+ * file don`t decode them again. The cache is shared by all threads of the process.
+ */
+public class RangeDecoder implements Constants {
+
+    /* total size of decoded regions that are kept in cache */
+    static final long REGION_CACHE_SIZE = 64L << 20;
+
+    /* beginning of file that contains header and code lengths */
+    private static final int HEADER_PREFIX_SIZE = 4096;
+
+    /* regions are kept by file, its modification time and offset of region, in order of access */
+    private static final Map<String, byte[]> REGION_CACHE = new LinkedHashMap<>(16, 0.75f, true);
+    private static long cachedBytes = 0;
+
+    private static final LongAdder CACHE_HITS = new LongAdder();
+    private static final LongAdder CACHE_MISSES = new LongAdder();
+
+    /**
+     * This method decompresses range of original data to file
+     *
+     * @param inputFName    path to compressed file;
+     * @param outputFName   path to file for the range or '-' for standard output;
+     * @param offset        offset of the first byte of range in original data;
+     * @param length        number of bytes in range, range is cut at the end of data;
+     * @param options       settings with dictionary;
+     * @return              result of decompressing.
+     */
+    public static int decompressRange(String inputFName, String outputFName, long offset, long length,
+                                      ArchiverOptions options) {
+
+        if (options.isVerbose()) {
+            System.out.println("Decompressing range [" + offset + ", " + (offset + length) + ") of ["
+                + inputFName + "] to [" + outputFName + "] ... ");
+        }
+        long start = System.currentTimeMillis();
+
+        long decompressedBytes;
+        try (OutputStream fout = IOStreamManager.createOutputStream(outputFName)) {
+            decompressedBytes = copyRange(inputFName, offset, length, fout, options);
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+            return RETURN_VALUE_FAIL;
+        }
+
+        if (options.isVerbose()) {
+            System.out.println("Time to decompress: \t\t[" + (System.currentTimeMillis() - start) + "] ms"
+                + "\nSize of range: \t\t\t\t[" + decompressedBytes + "] bytes"
+                + "\nRegion cache: \t\t\t\t[" + getCacheHits() + "/" + (getCacheHits() + getCacheMisses()) + "] hits");
+        }
+        return RETURN_VALUE_SUCCESS;
+    }
+
+    /**
+     * This method returns range of original data
+     *
+     * @param inputFName    path to compressed file;
+     * @param offset        offset of the first byte of range in original data;
+     * @param length        number of bytes in range, range is cut at the end of data;
+     * @param options       settings with dictionary;
+     * @return              bytes of range;
+     * @throws Exception    when range can`t be decoded.
+     */
+    public static byte[] readRange(String inputFName, long offset, int length, ArchiverOptions options) throws Exception {
+        ByteArrayOutputStream range = new ByteArrayOutputStream(Math.min(length, SEEK_INTERVAL));
+        copyRange(inputFName, offset, length, range, options);
+        return range.toByteArray();
+    }
+
+    /**
+     * This method decodes regions of compressed file that overlap the range
+     * and writes the range to output stream
+     *
+     * @param inputFName    path to compressed file;
+     * @param offset        offset of the first byte of range in original data;
+     * @param length        number of bytes in range;
+     * @param fout          output stream for the range;
+     * @param options       settings with dictionary;
+     * @return              number of written bytes;
+     * @throws Exception    when range can`t be decoded.
+     */
+    static long copyRange(String inputFName, long offset, long length, OutputStream fout,
+                          ArchiverOptions options) throws Exception {
+
+        if (offset < 0 || length < 0) {
+            throw new Exception("Offset and length of range can`t be negative");
+        }
+        if (IOStreamManager.isStandardStream(inputFName)) {
+            throw new Exception("Range can`t be read from standard input");
+        }
+
+        Path path = Paths.get(inputFName).toAbsolutePath().normalize();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+            /* reading header and data of method from the beginning of file */
+            ByteBuffer prefix = BlockCodec.readFully(channel, 0, (int) Math.min(channel.size(), HEADER_PREFIX_SIZE));
+            ByteArrayInputStream fin = new ByteArrayInputStream(prefix.array(), 0, prefix.limit());
+            if (!ParHeader.isVersioned(fin.read())) {
+                throw new Exception("Range can`t be decoded from legacy file, decompress the whole file");
+            }
+            ParHeader header = ParHeader.read(fin);
+            long originalSize = header.getOriginalSize();
+            if (offset > originalSize) {
+                throw new Exception("Range starts after the end of data [" + originalSize + "]");
+            }
+            long end = length > originalSize - offset ? originalSize : offset + length;
+            String key = path + "@" + Files.getLastModifiedTime(path).toMillis() + "#";
+
+            switch (header.getMethod()) {
+                case METHOD_HUFFMAN:
+                case METHOD_DICTIONARY:
+                    if (!header.hasSeekIndex()) {
+                        throw new Exception("File has no seek index, decompress the whole file");
+                    }
+                    HDecodingTable decodingTable = header.getMethod() == METHOD_HUFFMAN
+                        ? new HDecodingTable(HCanonicalCode.readLengths(fin, BYTE_ALPHABET_SIZE))
+                        : Decompressor.getDictionary(IOStreamManager.readInt(fin), options).getDecodingTable();
+                    long bitstreamOffset = prefix.limit() - fin.available();
+                    return copyIndexedRange(channel, key, decodingTable, bitstreamOffset, originalSize, offset, end, fout);
+                case METHOD_BLOCKS:
+                    return copyBlocksRange(channel, key, header.hasChecksums(), offset, end, fout);
+                case METHOD_STORED:
+                    long dataOffset = prefix.limit() - fin.available();
+                    return copyStoredRange(channel, dataOffset, originalSize, offset, end, fout);
+                default:
+                    throw new Exception("Range can`t be decoded from file of method [" + header.getMethod()
+                        + "], decompress the whole file");
+            }
+        }
+    }
+
+    /**
+     * this method writes part of single-tree bitstream with help of seek index
+     */
+    private static long copyIndexedRange(FileChannel channel, String key, HDecodingTable decodingTable,
+                                         long bitstreamOffset, long originalSize, long offset, long end,
+                                         OutputStream fout) throws Exception {
+        SeekIndex index = SeekIndex.read(channel, bitstreamOffset, originalSize);
+        long bitstreamEnd = channel.size() - CHECKSUM_SIZE - INT_SIZE_IN_BYTES - (long) index.size() * SEEK_ENTRY_SIZE;
+
+        long writtenBytes = 0;
+        for (int region = offset < end ? index.find(offset) : index.size();
+             region < index.size() && index.getOffset(region) < end; region++) {
+            int current = region;
+            byte[] data = getRegion(key + index.getOffset(region), () -> decodeRegion(channel, decodingTable,
+                index, current, bitstreamOffset, bitstreamEnd, originalSize));
+            writtenBytes += writePart(data, index.getOffset(region), offset, end, fout);
+        }
+        return writtenBytes;
+    }
+
+    /**
+     * This method reads and decodes one region of single-tree bitstream and checks its checksum.
+     * Region starts with any bit of byte, so bits before it are skipped.
+     *
+     * @param channel           channel of compressed file;
+     * @param decodingTable     decoding table of the code of file;
+     * @param index             seek index of file;
+     * @param region            number of region;
+     * @param bitstreamOffset   offset of bitstream in file;
+     * @param bitstreamEnd      offset of the end of bitstream in file;
+     * @param originalSize      size of original data;
+     * @return                  decoded region.
+     */
+    private static byte[] decodeRegion(FileChannel channel, HDecodingTable decodingTable, SeekIndex index, int region,
+                                       long bitstreamOffset, long bitstreamEnd, long originalSize) throws Exception {
+        long bitOffset = index.getBitOffset(region);
+        long firstByte = bitOffset >>> 3;
+        long endByte = region + 1 < index.size()
+            ? (index.getBitOffset(region + 1) + 7) >>> 3
+            : bitstreamEnd - bitstreamOffset;
+
+        ByteBuffer compressed = BlockCodec.readFully(channel, bitstreamOffset + firstByte, (int) (endByte - firstByte));
+        BitReader bitReader = new BitReader(compressed.array(), 0, compressed.limit());
+        if ((bitOffset & 7) != 0) {
+            bitReader.readBits((int) (bitOffset & 7));
+        }
+
+        byte[] data = new byte[(int) index.getRegionSize(region, originalSize)];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) decodingTable.decodeSymbol(bitReader);
+        }
+        if (BlockCodec.checksum(data, data.length) != index.getChecksum(region)) {
+            throw new IOException("Checksum of region doesn`t match, compressed file is corrupted");
+        }
+        return data;
+    }
+
+    /**
+     * this method writes part of file that is compressed in blocks, blocks are regions of cache
+     */
+    private static long copyBlocksRange(FileChannel channel, String key, boolean hasChecksums,
+                                        long offset, long end, OutputStream fout) throws Exception {
+        long[][] blockTable = BlockCodec.readBlockTable(channel, hasChecksums);
+
+        long writtenBytes = 0;
+        long blockOffset = 0;
+        for (long[] entry : blockTable) {
+            if (blockOffset < end && blockOffset + entry[2] > offset) {
+                byte[] data = getRegion(key + blockOffset, () -> {
+                    byte[] block = BlockCodec.decodeBlock(channel, entry, hasChecksums);
+                    byte[] decoded = Arrays.copyOf(block, (int) entry[2]);
+                    BufferPool.release(block);
+                    return decoded;
+                });
+                writtenBytes += writePart(data, blockOffset, offset, end, fout);
+            }
+            blockOffset += entry[2];
+        }
+        return writtenBytes;
+    }
+
+    /**
+     * this method writes part of stored data straight from file
+     */
+    private static long copyStoredRange(FileChannel channel, long dataOffset, long originalSize,
+                                        long offset, long end, OutputStream fout) throws Exception {
+        if (channel.size() < dataOffset + originalSize) {
+            throw new IOException("Compressed data is corrupted or truncated");
+        }
+        for (long position = offset; position < end; ) {
+            int portion = (int) Math.min(end - position, STREAM_BUFFER_SIZE);
+            ByteBuffer data = BlockCodec.readFully(channel, dataOffset + position, portion);
+            IOStreamManager.writeFromBufferToStream(fout, data.array(), portion);
+            position += portion;
+        }
+        return end - offset;
+    }
+
+    /**
+     * this method writes the part of region that is inside the range
+     */
+    private static long writePart(byte[] region, long regionOffset, long offset, long end,
+                                  OutputStream fout) throws IOException {
+        int from = (int) Math.max(offset - regionOffset, 0);
+        int to = (int) Math.min(end - regionOffset, region.length);
+        IOStreamManager.writeFromBufferToStream(fout, region, from, to - from);
+        return to - from;
+    }
+
+    /*
+     * Following chunk of code contains methods of cache of decoded regions
+     *  |
+     *  V
+     */
+
+    /**
+     * This method returns decoded region from cache or decodes it and puts into cache.
+     * The least recently used regions are dropped when cache is full.
+     *
+     * @param key       file and offset of region;
+     * @param decoder   decoding of region;
+     * @return          decoded region, it must not be changed.
+     */
+    private static byte[] getRegion(String key, Callable<byte[]> decoder) throws Exception {
+        synchronized (REGION_CACHE) {
+            byte[] region = REGION_CACHE.get(key);
+            if (region != null) {
+                CACHE_HITS.increment();
+                return region;
+            }
+        }
+        CACHE_MISSES.increment();
+        byte[] region = decoder.call();
+
+        synchronized (REGION_CACHE) {
+            byte[] replaced = REGION_CACHE.put(key, region);
+            cachedBytes += region.length - (replaced != null ? replaced.length : 0);
+            Iterator<byte[]> eldest = REGION_CACHE.values().iterator();
+            while (cachedBytes > REGION_CACHE_SIZE && eldest.hasNext()) {
+                cachedBytes -= eldest.next().length;
+                eldest.remove();
+            }
+        }
+        return region;
+    }
+
+    static long getCacheHits() {
+        return CACHE_HITS.sum();
+    }
+
+    static long getCacheMisses() {
+        return CACHE_MISSES.sum();
+    }
+
+}
@@ -0,0 +1,163 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+
+/**
+ * This stream is the first stage of read / code / write pipeline: its own thread
+ * reads underlying stream into chunks ahead of the coder, so disk and coding work
+ * at the same time. Read chunks go to the coder through one ring and empty chunks
+ * come back through another one, buffers of chunks are taken from BufferPool.
+ */
+public class ReadAheadInputStream extends InputStream implements Constants {
+
+    private final InputStream in;
+    private final PipelineStats stats;
+    private final ChunkRing freeRing = new ChunkRing(PIPELINE_CHUNKS);
+    private final ChunkRing fullRing = new ChunkRing(PIPELINE_CHUNKS);
+    private final ChunkRing.Chunk[] chunks = new ChunkRing.Chunk[PIPELINE_CHUNKS];
+    private final Thread reader;
+
+    private ChunkRing.Chunk current = null;
+    private int position = 0;
+    private boolean isEnded = false;
+
+    /* is set by the caller`s thread and is checked by reader thread before each chunk */
+    private volatile boolean isClosed = false;
+
+    /**
+     * Constructor for creating stream, reading starts at once
+     *
+     * @param in        underlying stream;
+     * @param stats     report that gets stalls of the stream when it is closed.
+     */
+    ReadAheadInputStream(InputStream in, PipelineStats stats) {
+        this.in = in;
+        this.stats = stats;
+        for (int i = 0; i < PIPELINE_CHUNKS; i++) {
+            chunks[i] = new ChunkRing.Chunk(BufferPool.acquire(STREAM_BUFFER_SIZE));
+            freeRing.put(chunks[i]);
+        }
+        reader = new Thread(this::readChunks, "par-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * this method is run by reader thread: chunks are filled until the end of stream or error
+     */
+    private void readChunks() {
+        try {
+            while (true) {
+                ChunkRing.Chunk chunk = freeRing.take();
+                if (isClosed) {
+                    return;
+                }
+                try {
+                    chunk.length = in.read(chunk.data, 0, STREAM_BUFFER_SIZE);
+                    chunk.isEnd = chunk.length < 0;
+                } catch (IOException e) {
+                    chunk.error = e;
+                }
+                fullRing.put(chunk);
+                if (chunk.isEnd || chunk.error != null) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            /* the stream is closed before the end of data */
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureData()) {
+            return -1;
+        }
+        return current.data[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureData()) {
+            return -1;
+        }
+        int portion = Math.min(len, current.length - position);
+        System.arraycopy(current.data, position, b, off, portion);
+        position += portion;
+        return portion;
+    }
+
+    @Override
+    public int available() {
+        return current == null || isEnded ? 0 : current.length - position;
+    }
+
+    /**
+     * This method takes the next read chunk when the current one is consumed.
+     * Returns false at the end of stream.
+     */
+    private boolean ensureData() throws IOException {
+        if (isClosed) {
+            throw new IOException("Stream is closed");
+        }
+        while (!isEnded && (current == null || position == current.length)) {
+            if (current != null) {
+                freeRing.put(current);
+            }
+            current = fullRing.take();
+            position = 0;
+            if (current.error != null) {
+                throw current.error;
+            }
+            isEnded = current.isEnd;
+        }
+        return !isEnded;
+    }
+
+    /**
+     * This method stops reader thread and waits for its end, only then underlying
+     * stream is closed and buffers are given back to BufferPool, so reader never
+     * works with closed stream or with buffers that are already given to other streams
+     */
+    @Override
+    public void close() throws IOException {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        freeRing.close();
+        joinQuietly(reader);
+        try {
+            in.close();
+        } finally {
+            stats.addInput(freeRing, fullRing);
+            for (ChunkRing.Chunk chunk : chunks) {
+                BufferPool.release(chunk.data);
+            }
+        }
+    }
+
+    /**
+     * This method waits for the end of stage thread, interruption of the caller is kept
+     */
+    static void joinQuietly(Thread thread) {
+        boolean isInterrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                isInterrupted = true;
+            }
+        }
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * This class presents sparse seek index of single-tree bitstream.
+ *
+ * Original data are cut into regions of SEEK_INTERVAL bytes and for every region
+ * the index keeps its original offset, offset of its first code in bits from the start
+ * of bitstream and CRC32C of its original bytes. Canonical Huffman decoder has no state
+ * besides position in bitstream, so any region is decoded alone and checked by its checksum.
+ *
+ * The index follows the bitstream and is read from the end of file:
+ *
+ *  bitstream | entries | entries number | checksum of the whole data
+ */
+public class SeekIndex implements Constants {
+
+    private long[] offsets = new long[16];
+    private long[] bitOffsets = new long[16];
+    private int[] checksums = new int[16];
+    private int size = 0;
+
+    /**
+     * This method adds entry of region to the end of index
+     *
+     * @param offset    offset of the region in original data;
+     * @param bitOffset offset of the first code of region in bits from the start of bitstream;
+     * @param checksum  CRC32C of original bytes of region.
+     */
+    void add(long offset, long bitOffset, int checksum) {
+        if (size == offsets.length) {
+            offsets = Arrays.copyOf(offsets, 2 * size);
+            bitOffsets = Arrays.copyOf(bitOffsets, 2 * size);
+            checksums = Arrays.copyOf(checksums, 2 * size);
+        }
+        offsets[size] = offset;
+        bitOffsets[size] = bitOffset;
+        checksums[size] = checksum;
+        ++size;
+    }
+
+    /**
+     * This method writes entries and their number to output stream
+     *
+     * @param fout          output stream that is positioned right after bitstream;
+     * @throws IOException  when writing to file failed.
+     */
+    void write(OutputStream fout) throws IOException {
+        ByteBuffer index = ByteBuffer.allocate(size * SEEK_ENTRY_SIZE + INT_SIZE_IN_BYTES);
+        for (int i = 0; i < size; i++) {
+            index.putLong(offsets[i]);
+            index.putLong(bitOffsets[i]);
+            index.putInt(checksums[i]);
+        }
+        index.putInt(size);
+        IOStreamManager.writeFromBufferToStream(fout, index.array());
+    }
+
+    /**
+     * This method reads seek index from the end of compressed file
+     *
+     * @param channel           channel of compressed file;
+     * @param bitstreamOffset   offset of the first byte of bitstream in file;
+     * @param originalSize      size of original data;
+     * @return                  seek index;
+     * @throws IOException      when reading failed or index is corrupted.
+     */
+    static SeekIndex read(FileChannel channel, long bitstreamOffset, long originalSize) throws IOException {
+        long footerEnd = channel.size() - CHECKSUM_SIZE;
+        if (footerEnd - INT_SIZE_IN_BYTES < bitstreamOffset) {
+            throw new IOException("Seek index of compressed file is corrupted");
+        }
+        int entriesNumber = BlockCodec.readFully(channel, footerEnd - INT_SIZE_IN_BYTES, INT_SIZE_IN_BYTES).getInt();
+        long indexOffset = footerEnd - INT_SIZE_IN_BYTES - (long) entriesNumber * SEEK_ENTRY_SIZE;
+        if (entriesNumber < 0 || indexOffset < bitstreamOffset) {
+            throw new IOException("Seek index of compressed file is corrupted");
+        }
+
+        ByteBuffer entries = BlockCodec.readFully(channel, indexOffset, entriesNumber * SEEK_ENTRY_SIZE);
+        SeekIndex index = new SeekIndex();
+        for (int i = 0; i < entriesNumber; i++) {
+            index.add(entries.getLong(), entries.getLong(), entries.getInt());
+        }
+
+        /* regions must go one after another, cover the whole data and be not longer than their codes */
+        long bitstreamBits = (indexOffset - bitstreamOffset) << 3;
+        for (int i = 0; i < entriesNumber; i++) {
+            long regionSize = index.getRegionSize(i, originalSize);
+            if (regionSize <= 0 || regionSize > SEEK_INTERVAL || (i == 0 && index.offsets[i] != 0)
+                || index.bitOffsets[i] < 0 || index.bitOffsets[i] > bitstreamBits
+                || (i > 0 && index.bitOffsets[i] < index.bitOffsets[i - 1])
+                || (i > 0 && index.bitOffsets[i] - index.bitOffsets[i - 1]
+                    > index.getRegionSize(i - 1, originalSize) * HCanonicalCode.MAX_CODE_LENGTH)) {
+                throw new IOException("Seek index of compressed file is corrupted");
+            }
+        }
+        if ((entriesNumber == 0) != (originalSize == 0)) {
+            throw new IOException("Seek index of compressed file is corrupted");
+        }
+        return index;
+    }
+
+    /**
+     * This method returns size of seek index (with entries number) that is written
+     * for original data of given size
+     *
+     * @param originalSize  size of original data.
+     */
+    static long getSize(long originalSize) {
+        long entriesNumber = (originalSize + SEEK_INTERVAL - 1) / SEEK_INTERVAL;
+        return entriesNumber * SEEK_ENTRY_SIZE + INT_SIZE_IN_BYTES;
+    }
+
+    /**
+     * This method returns number of the region that contains byte with given offset
+     *
+     * @param offset    offset in original data (less than its size).
+     */
+    int find(long offset) {
+        int found = Arrays.binarySearch(offsets, 0, size, offset);
+        return found >= 0 ? found : -found - 2;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long getOffset(int region) {
+        return offsets[region];
+    }
+
+    long getBitOffset(int region) {
+        return bitOffsets[region];
+    }
+
+    int getChecksum(int region) {
+        return checksums[region];
+    }
+
+    /**
+     * This method returns size of region in original data
+     *
+     * @param region        number of region;
+     * @param originalSize  size of the whole original data.
+     */
+    long getRegionSize(int region, long originalSize) {
+        long end = region + 1 < size ? offsets[region + 1] : originalSize;
+        return end - offsets[region];
+    }
+
+}
@@ -0,0 +1,222 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class decodes single-stream '.par' files (legacy ones and files with one
+ * canonical code) on several threads without any change of the format.
+ *
+ * Huffman bitstream is self-synchronizing: decoding that is started from arbitrary bit
+ * produces some garbage symbols and then falls on the real borders of codes.
+ * The bitstream is read by segments, each segment is cut into regions and every region
+ * is decoded speculatively on its own thread from its first bit. Then regions are stitched
+ * in order: the real end of the previous region must be among borders that are passed
+ * by the speculative decoding of the next region, symbols before it are dropped.
+ * If decoding hasn`t synchronized within the window, the region is decoded again
+ * from the real border.
+ */
+public class SpeculativeDecoder implements Constants {
+
+    /* compressed bytes that are given to one thread */
+    static final int REGION_SIZE = 2097152; // 2 MB
+
+    /* number of borders of codes that are remembered at the start of region */
+    static final int SYNC_WINDOW = 4096;
+
+    /* bits at the end of segment that are left for the next segment,
+     * so a code is never cut by the end of segment */
+    private static final int RESERVED_BITS = 4096;
+
+    /* number of regions that are decoded speculatively by this process */
+    private static final LongAdder DECODED_REGIONS = new LongAdder();
+
+    /**
+     * This method decodes bitstream on several threads and writes decoded bytes
+     * to output stream
+     *
+     * @param uncomprFileSize   size of decompressed (original) file;
+     * @param decodingTable     lookup table of Huffman code using which the input file was encoded;
+     * @param fin               input stream that is positioned at the start of bitstream;
+     * @param fout              output stream for decompressed data;
+     * @param options           number of threads and shared pool;
+     * @throws Exception        when decompressing is failed.
+     */
+    static void decompress(long uncomprFileSize, HDecodingTable decodingTable, InputStream fin,
+                           OutputStream fout, ArchiverOptions options) throws Exception {
+
+        int threadsNumber = options.getThreadsNumber();
+        byte[] segment = new byte[threadsNumber * REGION_SIZE];
+        int filled = 0;
+        int startBit = 0;
+        long decodedBytesCounter = 0;
+
+        ExecutorService pool = options.acquirePool();
+        try {
+            while (decodedBytesCounter < uncomprFileSize) {
+
+                /* filling segment after the bytes that are left from the previous one */
+                filled += fin.readNBytes(segment, filled, segment.length - filled);
+                boolean isLastSegment = filled < segment.length;
+                long endBit = isLastSegment ? (long) filled << 3 : ((long) filled << 3) - RESERVED_BITS;
+                if (endBit <= startBit) {
+                    throw new IOException("Compressed data is corrupted or truncated");
+                }
+
+                /* decoding regions speculatively */
+                long remainingBytes = uncomprFileSize - decodedBytesCounter;
+                long regionBits = Math.max((endBit - startBit) / threadsNumber, 1);
+                List<Future<Region>> regions = new ArrayList<>();
+                for (long regionStart = startBit; regionStart < endBit; regionStart += regionBits) {
+                    long start = regionStart;
+                    long end = Math.min(regionStart + regionBits, endBit);
+                    boolean isLastRegion = isLastSegment && end == endBit;
+                    int filledBytes = filled;
+                    regions.add(pool.submit(() -> decodeRegion(decodingTable, segment, filledBytes,
+                        start, end, isLastRegion, remainingBytes)));
+                }
+                DECODED_REGIONS.add(regions.size());
+
+                /* stitching regions: the first one starts at the real border of code */
+                long realBorder = startBit;
+                for (Future<Region> future : regions) {
+                    Region region = future.get();
+                    int firstValidSymbol = region.findBorder(realBorder);
+                    if (firstValidSymbol < 0) {
+                        region = decodeRegion(decodingTable, segment, filled, realBorder,
+                            region.endBit, region.isLast, remainingBytes);
+                        firstValidSymbol = 0;
+                    }
+
+                    int validSymbols = (int) Math.min(region.symbolsNumber - firstValidSymbol,
+                        uncomprFileSize - decodedBytesCounter);
+                    IOStreamManager.writeFromBufferToStream(fout, region.symbols, firstValidSymbol, validSymbols);
+                    decodedBytesCounter += validSymbols;
+                    realBorder = region.endBorder;
+                }
+
+                if (isLastSegment) {
+                    break;
+                }
+
+                /* moving the rest of segment to its start */
+                int carriedByte = (int) (realBorder >>> 3);
+                System.arraycopy(segment, carriedByte, segment, 0, filled - carriedByte);
+                filled -= carriedByte;
+                startBit = (int) (realBorder & 7);
+            }
+        } finally {
+            options.releasePool(pool);
+        }
+
+        if (decodedBytesCounter != uncomprFileSize) {
+            throw new IOException("Compressed data is corrupted or truncated");
+        }
+    }
+
+    /**
+     * This method decodes symbols from given bit until the border of code
+     * that is not less than end bit
+     *
+     * @param decodingTable lookup table of Huffman code;
+     * @param segment       array with bitstream;
+     * @param filled        number of bytes of bitstream in the array;
+     * @param startBit      bit to start decoding from;
+     * @param endBit        decoding stops at the first border of code that is not less than this bit;
+     * @param isLast        true if region ends at the end of bitstream, then decoding
+     *                      stops when remaining bits don`t form a code;
+     * @param maxSymbols    maximal number of symbols that can be decoded;
+     * @return              decoded symbols with borders of the first codes.
+     */
+    static Region decodeRegion(HDecodingTable decodingTable, byte[] segment, int filled, long startBit,
+                               long endBit, boolean isLast, long maxSymbols) throws IOException {
+
+        int startByte = (int) (startBit >>> 3);
+        BitReader bitReader = new BitReader(segment, startByte, filled - startByte);
+        bitReader.refill();
+        bitReader.consume((int) (startBit & 7));
+        long baseBit = (long) startByte << 3;
+
+        Region region = new Region(endBit, isLast, (int) Math.min(Math.max((endBit - startBit) / 2, 16), maxSymbols + 1));
+        long border = startBit;
+        while (border < endBit && region.symbolsNumber < maxSymbols) {
+            int symbol;
+            try {
+                symbol = decodingTable.decodeSymbol(bitReader);
+            } catch (IOException e) {
+                if (isLast) {
+                    break; // only padding bits of the last byte are left
+                }
+                throw e;
+            }
+            region.add(border, symbol);
+            border = baseBit + bitReader.getBitPosition();
+        }
+        region.endBorder = border;
+
+        return region;
+    }
+
+    /**
+     * This method returns number of regions that are decoded speculatively,
+     * it shows that parallel decoding was really used
+     */
+    static long getDecodedRegions() {
+        return DECODED_REGIONS.sum();
+    }
+
+    /**
+     * This class contains result of decoding of one region
+     */
+    static class Region {
+
+        private final long endBit;
+        private final boolean isLast;
+        private byte[] symbols;
+        private int symbolsNumber = 0;
+        private final long[] borders = new long[SYNC_WINDOW];
+        private long endBorder;
+
+        Region(long endBit, boolean isLast, int capacity) {
+            this.endBit = endBit;
+            this.isLast = isLast;
+            this.symbols = new byte[capacity];
+        }
+
+        /** this method adds decoded symbol and remembers border where its code starts */
+        void add(long border, int symbol) {
+            if (symbolsNumber < SYNC_WINDOW) {
+                borders[symbolsNumber] = border;
+            }
+            if (symbolsNumber == symbols.length) {
+                symbols = Arrays.copyOf(symbols, symbols.length * 2);
+            }
+            symbols[symbolsNumber++] = (byte) symbol;
+        }
+
+        /**
+         * This method returns index of the symbol which code starts at given border
+         * or -1 if the border is not found among remembered ones
+         */
+        int findBorder(long border) {
+            int remembered = Math.min(symbolsNumber, SYNC_WINDOW);
+            int index = Arrays.binarySearch(borders, 0, remembered, border);
+            if (index >= 0) {
+                return index;
+            }
+            /* region is completely covered by the previous one */
+            if (border == endBorder) {
+                return symbolsNumber;
+            }
+            return -1;
+        }
+    }
+
+}
@@ -0,0 +1,193 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import java.util.Arrays;
+
+/**
+ * This class builds suffix arrays in linear time with SA-IS algorithm
+ * (induced sorting by Nong, Zhang and Chan).
+ *
+ * Every suffix is S-type if it is smaller than the next suffix and L-type otherwise.
+ * LMS (left-most S) suffixes are sorted first: their substrings are sorted by induction,
+ * named, and the reduced string of names is sorted recursively. Then sorted LMS suffixes
+ * induce order of all other suffixes.
+ */
+public class SuffixArray {
+
+    private static final int EMPTY = -1;
+
+    /**
+     * This method builds suffix array of bytes
+     *
+     * @param data      array with bytes;
+     * @param length    number of bytes;
+     * @return          suffix array of data followed by sentinel (the smallest symbol),
+     *                  its first element is 'length' - the suffix that consists of sentinel only.
+     */
+    static int[] build(byte[] data, int length) {
+        int[] text = new int[length + 1];
+        for (int i = 0; i < length; i++) {
+            text[i] = (data[i] & 0xFF) + 1;
+        }
+        text[length] = 0;
+
+        int[] suffixArray = new int[length + 1];
+        sais(text, suffixArray, length + 1, Constants.BYTE_ALPHABET_SIZE + 1);
+        return suffixArray;
+    }
+
+    /**
+     * This method sorts suffixes of text
+     *
+     * @param text          symbols, the last one is unique and the smallest (0);
+     * @param suffixArray   array for result;
+     * @param n             length of text;
+     * @param alphabetSize  symbols are in range [0, alphabetSize).
+     */
+    private static void sais(int[] text, int[] suffixArray, int n, int alphabetSize) {
+
+        if (n == 1) {
+            suffixArray[0] = 0;
+            return;
+        }
+
+        /* classifying suffixes: true for S-type */
+        boolean[] isS = new boolean[n];
+        isS[n - 1] = true;
+        for (int i = n - 2; i >= 0; i--) {
+            isS[i] = text[i] < text[i + 1] || text[i] == text[i + 1] && isS[i + 1];
+        }
+
+        /* sorting LMS substrings: LMS positions are put to ends of their buckets and induce the rest */
+        int[] bucket = new int[alphabetSize];
+        Arrays.fill(suffixArray, 0, n, EMPTY);
+        getBucketEnds(text, n, bucket);
+        for (int i = 1; i < n; i++) {
+            if (isLms(isS, i)) {
+                suffixArray[--bucket[text[i]]] = i;
+            }
+        }
+        induce(text, suffixArray, n, isS, bucket);
+
+        /* moving sorted LMS substrings to the start of array */
+        int lmsNumber = 0;
+        for (int i = 0; i < n; i++) {
+            if (isLms(isS, suffixArray[i])) {
+                suffixArray[lmsNumber++] = suffixArray[i];
+            }
+        }
+
+        /* naming LMS substrings, equal substrings get equal names.
+         * LMS positions are at least 2 apart, so name of position p is kept at lmsNumber + p / 2 */
+        Arrays.fill(suffixArray, lmsNumber, n, EMPTY);
+        int namesNumber = 0;
+        int previous = EMPTY;
+        for (int i = 0; i < lmsNumber; i++) {
+            int position = suffixArray[i];
+            if (previous == EMPTY || !areLmsSubstringsEqual(text, isS, position, previous)) {
+                ++namesNumber;
+                previous = position;
+            }
+            suffixArray[lmsNumber + (position >>> 1)] = namesNumber - 1;
+        }
+
+        /* reduced string: names of LMS substrings in text order */
+        int[] reducedText = new int[lmsNumber];
+        for (int i = lmsNumber, j = 0; i < n; i++) {
+            if (suffixArray[i] >= 0) {
+                reducedText[j++] = suffixArray[i];
+            }
+        }
+
+        /* sorting reduced string recursively if names are not unique */
+        int[] reducedSuffixArray = new int[lmsNumber];
+        if (namesNumber < lmsNumber) {
+            sais(reducedText, reducedSuffixArray, lmsNumber, namesNumber);
+        } else {
+            for (int i = 0; i < lmsNumber; i++) {
+                reducedSuffixArray[reducedText[i]] = i;
+            }
+        }
+
+        /* placing sorted LMS suffixes to ends of their buckets (from the last one) and inducing the rest */
+        int[] lmsPositions = reducedText;
+        for (int i = 1, j = 0; i < n; i++) {
+            if (isLms(isS, i)) {
+                lmsPositions[j++] = i;
+            }
+        }
+        Arrays.fill(suffixArray, 0, n, EMPTY);
+        getBucketEnds(text, n, bucket);
+        for (int i = lmsNumber - 1; i >= 0; i--) {
+            int position = lmsPositions[reducedSuffixArray[i]];
+            suffixArray[--bucket[text[position]]] = position;
+        }
+        induce(text, suffixArray, n, isS, bucket);
+    }
+
+    private static boolean isLms(boolean[] isS, int i) {
+        return i > 0 && isS[i] && !isS[i - 1];
+    }
+
+    /**
+     * this method compares LMS substrings (from LMS position to the next one inclusive)
+     */
+    private static boolean areLmsSubstringsEqual(int[] text, boolean[] isS, int first, int second) {
+        for (int d = 0; ; d++) {
+            if (text[first + d] != text[second + d] || isS[first + d] != isS[second + d]) {
+                return false;
+            }
+            if (d > 0 && (isLms(isS, first + d) || isLms(isS, second + d))) {
+                return isLms(isS, first + d) && isLms(isS, second + d);
+            }
+        }
+    }
+
+    /**
+     * This method induces L-type suffixes from the left to the right
+     * and then S-type suffixes from the right to the left
+     */
+    private static void induce(int[] text, int[] suffixArray, int n, boolean[] isS, int[] bucket) {
+        getBucketStarts(text, n, bucket);
+        for (int i = 0; i < n; i++) {
+            int j = suffixArray[i] - 1;
+            if (j >= 0 && !isS[j]) {
+                suffixArray[bucket[text[j]]++] = j;
+            }
+        }
+
+        getBucketEnds(text, n, bucket);
+        for (int i = n - 1; i >= 0; i--) {
+            int j = suffixArray[i] - 1;
+            if (j >= 0 && isS[j]) {
+                suffixArray[--bucket[text[j]]] = j;
+            }
+        }
+    }
+
+    private static void getBucketStarts(int[] text, int n, int[] bucket) {
+        countSymbols(text, n, bucket);
+        int sum = 0;
+        for (int i = 0; i < bucket.length; i++) {
+            int count = bucket[i];
+            bucket[i] = sum;
+            sum += count;
+        }
+    }
+
+    private static void getBucketEnds(int[] text, int n, int[] bucket) {
+        countSymbols(text, n, bucket);
+        int sum = 0;
+        for (int i = 0; i < bucket.length; i++) {
+            sum += bucket[i];
+            bucket[i] = sum;
+        }
+    }
+
+    private static void countSymbols(int[] text, int n, int[] bucket) {
+        Arrays.fill(bucket, 0);
+        for (int i = 0; i < n; i++) {
+            ++bucket[text[i]];
+        }
+    }
+
+}
@@ -1,6 +1,17 @@
 package com.shpp.p2p.cs.abaryshnikov.assignment15;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
 import java.util.TreeMap;
 
 
@@ -29,6 +40,60 @@ public class TestAndDebug implements Constants {
             System.err.println("Error: Trees are not equal");
         }
 
+        for (String fName : new String[]{"mytest/dictionary.txt", "mytest/mono.bmp"}) {
+            testCodeLengthLimits(fName, new int[]{11, 15, 24});
+        }
+
+        testSpeculativeDecoding("mytest/dictionary.txt", 8, 4);
+        testSpeculativeDecoding("mytest/mono.bmp", 512, 4);
+
+        for (String fName : new String[]{"mytest/dictionary.txt", "mytest/mono.bmp"}) {
+            ArchiverOptions adaptive = new ArchiverOptions();
+            adaptive.setAdaptive(true);
+            testCompDecompr(fName, "adaptive", adaptive);
+        }
+
+        for (String fName : new String[]{"mytest/dictionary.txt", "mytest/mono.bmp"}) {
+            testStreamApi(fName, 65536);
+            testStreamApi(fName, DEFAULT_BLOCK_SIZE);
+        }
+
+        for (String fName : new String[]{"mytest/dictionary.txt", "mytest/mono.bmp"}) {
+            ArchiverOptions order1 = new ArchiverOptions();
+            order1.setOrder1(true);
+            testCompDecompr(fName, "order1", order1);
+        }
+
+        for (String fName : new String[]{"mytest/dictionary.txt", "mytest/mono.bmp"}) {
+            for (int level : new int[]{MIN_LZ_LEVEL, DEFAULT_LZ_LEVEL, MAX_LZ_LEVEL}) {
+                ArchiverOptions lz = new ArchiverOptions();
+                lz.setLz(true);
+                lz.setLevel(level);
+                testCompDecompr(fName, "lz" + level, lz);
+            }
+        }
+
+        for (String fName : new String[]{"mytest/dictionary.txt", "mytest/mono.bmp"}) {
+            for (int threadsNumber : new int[]{1, 4}) {
+                ArchiverOptions bwt = new ArchiverOptions();
+                bwt.setBwt(true);
+                bwt.setThreadsNumber(threadsNumber);
+                testCompDecompr(fName, "bwt_t" + threadsNumber, bwt);
+            }
+        }
+
+        testDictionary("mytest/dictionary.txt", "mytest/mono.bmp");
+
+        testRange("mytest/dictionary.txt");
+
+        testCorruption("mytest/dictionary.txt");
+
+        testArchive("mytest/dictionary.txt", "mytest/mono.bmp");
+
+        testStored();
+
+        testBatch("mytest/dictionary.txt", "mytest/mono.bmp");
+
         System.out.println("Passed time: " + (System.currentTimeMillis()-start));
 
     }
@@ -63,24 +128,11 @@ public class TestAndDebug implements Constants {
                 return;
             }
 
-            InputStream o = IOStreamManager.createInputStream(inputFName);
-            byte[] originalFile = IOStreamManager.readAllFromStreamToBuffer(o);
-
-            InputStream d = IOStreamManager.createInputStream(inputFName);
-            byte[] decompressedFile = IOStreamManager.readAllFromStreamToBuffer(d);
-
-            if (originalFile.length != decompressedFile.length) {
-                System.err.println("Error when compressing/decompressing file [" + inputFName + "]. Length of files are not equal");
+            if (!areFilesEqual(inputFName, decomprFName)) {
+                System.err.println("Error when compressing/decompressing file [" + inputFName + "]. Files are not equal");
                 return;
             }
 
-            for (int i = 0; i < originalFile.length; ++i) {
-                if (originalFile[i] != decompressedFile[i]) {
-                    System.err.println("Error when compressing/decompressing file [" + inputFName + "]. Bytes are not equal");
-                    return;
-                }
-            }
-
             System.out.println( ANSI_GREEN + "File [" + inputFName +"] was successfully compressed and decompressed" + ANSI_RESET);
             return;
 
@@ -94,6 +146,50 @@ public class TestAndDebug implements Constants {
 
 
 
+    /**
+     * This method compresses and decompresses file in given mode and compares
+     * the result with the original file byte by byte
+     *
+     * @param inputFName    file that is tested;
+     * @param mode          name of mode, it is a part of names of result files;
+     * @param options       settings of compressing and decompressing;
+     * @return              true if decompressed file is equal to the original one.
+     */
+    private static boolean testCompDecompr(String inputFName, String mode, ArchiverOptions options) {
+        try {
+            System.out.println(ANSI_YELLOW + "\n \t Processing file [" + inputFName + "] in mode [" + mode + "]" + ANSI_RESET);
+
+            String comprFName = inputFName + "_tst_" + mode + ".par";
+            String decomprFName = inputFName + "_tst_" + mode + "_decompr";
+            options.setVerbose(false);
+
+            if (Compressor.compress(inputFName, comprFName, options) != RETURN_VALUE_SUCCESS) {
+                System.err.println("Error when compressing file [" + inputFName + "] in mode [" + mode + "]");
+                return false;
+            }
+            if (Decompressor.decompress(comprFName, decomprFName, options) != RETURN_VALUE_SUCCESS) {
+                System.err.println("Error when decompressing file [" + inputFName + "] in mode [" + mode + "]");
+                return false;
+            }
+            if (!areFilesEqual(inputFName, decomprFName)) {
+                System.err.println("Error when compressing/decompressing file [" + inputFName + "] in mode ["
+                    + mode + "]. Files are not equal");
+                return false;
+            }
+
+            System.out.println(ANSI_GREEN + "File [" + inputFName + "] was successfully compressed and decompressed "
+                + "in mode [" + mode + "], compressed size [" + IOStreamManager.getFileSize(comprFName) + "] bytes" + ANSI_RESET);
+            return true;
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.err.println("Exception was thrown when processing file [" + inputFName + "] in mode [" + mode + "]");
+        }
+        return false;
+    }
+
+
+
     private static boolean testTreeEquality(String inputData){
 
         byte[] inputDataAsBytes = inputData.getBytes();
@@ -132,4 +228,630 @@ public class TestAndDebug implements Constants {
 
 
 
+    /**
+     * This method prints size of Huffman-coded data for several limits
+     * of code length compared to unconstrained Huffman tree
+     */
+    private static void testCodeLengthLimits(String inputFName, int[] maxCodeLengths) {
+        try {
+            InputStream fin = IOStreamManager.createInputStream(inputFName);
+            byte[] data = IOStreamManager.readAllFromStreamToBuffer(fin);
+            IOStreamManager.closeIOStreams(fin, null);
+
+            TreeMap<Byte, Integer> uniqueBytesAndFrequencies = new TreeMap<>();
+            long[] frequencies = new long[256];
+            for (byte bt : data) {
+                uniqueBytesAndFrequencies.merge(bt, 1, Integer::sum);
+                ++frequencies[bt & 0xFF];
+            }
+
+            long unconstrainedBits = 0;
+            int unconstrainedMaxLength = 0;
+            for (Map.Entry<Integer, Integer[]> entry : new HTree(uniqueBytesAndFrequencies).getBytesAndEncodingBits().entrySet()) {
+                unconstrainedBits += frequencies[entry.getKey() & 0xFF] * entry.getValue()[1];
+                unconstrainedMaxLength = Math.max(unconstrainedMaxLength, entry.getValue()[1]);
+            }
+            System.out.println(ANSI_YELLOW + "\n \t Code length limits for [" + inputFName + "]" + ANSI_RESET
+                + "\nunconstrained (max " + unconstrainedMaxLength + " bits): \t[" + unconstrainedBits / 8 + "] bytes");
+
+            for (int maxCodeLength : maxCodeLengths) {
+                byte[] lengths = HTree.limitCodeLengths(frequencies, maxCodeLength);
+                long bits = 0;
+                for (int symbol = 0; symbol < lengths.length; symbol++) {
+                    bits += frequencies[symbol] * lengths[symbol];
+                }
+                System.out.printf("limited to %d bits: \t\t[%d] bytes, cost %+.4f%%%n",
+                    maxCodeLength, bits / 8, 100.0 * (bits - unconstrainedBits) / unconstrainedBits);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.err.println("Exception was thrown when processing file [" + inputFName +"]");
+        }
+    }
+
+    /**
+     * This method creates synthetic file from several copies of the given one,
+     * compresses it into single stream and compares sequential and speculative
+     * parallel decoding (output and time). Filtered file (e.g. RLE of bitmap) has
+     * much shorter bitstream than the original, so the number of copies must make
+     * it longer than SpeculativeDecoder.REGION_SIZE, otherwise the test fails.
+     */
+    private static void testSpeculativeDecoding(String inputFName, int copies, int threadsNumber) {
+        try {
+            Thread.sleep(500); // pause for correct exception (if any) appearance in the console
+
+            String syntheticFName = inputFName + "_tst_x" + copies;
+            String comprFName = syntheticFName + ".par";
+            System.out.println(ANSI_YELLOW + "\n \t Speculative decoding of [" + syntheticFName + "]" + ANSI_RESET);
+
+            InputStream fin = IOStreamManager.createInputStream(inputFName);
+            byte[] original = IOStreamManager.readAllFromStreamToBuffer(fin);
+            IOStreamManager.closeIOStreams(fin, null);
+            OutputStream fout = IOStreamManager.createOutputStream(syntheticFName);
+            for (int i = 0; i < copies; i++) {
+                IOStreamManager.writeFromBufferToStream(fout, original);
+            }
+            IOStreamManager.closeIOStreams(null, fout);
+
+            ArchiverOptions options = new ArchiverOptions();
+            options.setThreadsNumber(1);
+            if (Compressor.compress(syntheticFName, comprFName, options) != RETURN_VALUE_SUCCESS) {
+                System.err.println("Error when compressing file [" + syntheticFName + "]");
+                return;
+            }
+
+            long start = System.currentTimeMillis();
+            Decompressor.decompress(comprFName, syntheticFName + "_tst_seq", options);
+            long sequentialTime = System.currentTimeMillis() - start;
+
+            options.setThreadsNumber(threadsNumber);
+            long decodedRegions = SpeculativeDecoder.getDecodedRegions();
+            start = System.currentTimeMillis();
+            Decompressor.decompress(comprFName, syntheticFName + "_tst_par", options);
+            long parallelTime = System.currentTimeMillis() - start;
+            decodedRegions = SpeculativeDecoder.getDecodedRegions() - decodedRegions;
+
+            if (decodedRegions <= 1) {
+                System.err.println("Error: speculative decoding of [" + syntheticFName + "] was not used, "
+                    + "decoded regions [" + decodedRegions + "]");
+                return;
+            }
+
+            if (!areFilesEqual(syntheticFName + "_tst_seq", syntheticFName + "_tst_par")) {
+                System.err.println("Error: sequential and speculative decoding of [" + syntheticFName + "] differ");
+                return;
+            }
+            System.out.println(ANSI_GREEN + "Speculative decoding on [" + threadsNumber + "] threads is identical to sequential one, "
+                + "regions [" + decodedRegions + "], time [" + parallelTime + "] ms vs [" + sequentialTime + "] ms (speedup "
+                + String.format("%.2f", (double) sequentialTime / Math.max(parallelTime, 1)) + ")" + ANSI_RESET);
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.err.println("Exception was thrown when processing file [" + inputFName +"]");
+        }
+    }
+
+    /**
+     * This method trains dictionary on the text file and checks compressing with it:
+     * small file (coded in memory), file larger than 1 MB (coded straight to output),
+     * random data (they must not grow) and decompressing with wrong or without dictionary
+     * (it must fail)
+     *
+     * @param textFName     file that is used for training and as data;
+     * @param otherFName    file of another kind for training of wrong dictionary.
+     */
+    private static void testDictionary(String textFName, String otherFName) {
+        try {
+            System.out.println(ANSI_YELLOW + "\n \t Dictionary trained on [" + textFName + "]" + ANSI_RESET);
+
+            String dictionaryFName = textFName + "_tst.pdc";
+            String otherDictionaryFName = otherFName + "_tst.pdc";
+            ArchiverOptions trainOptions = new ArchiverOptions();
+            if (ParDictionary.train(textFName, dictionaryFName, trainOptions) != RETURN_VALUE_SUCCESS
+                || ParDictionary.train(otherFName, otherDictionaryFName, trainOptions) != RETURN_VALUE_SUCCESS) {
+                System.err.println("Error when training dictionary");
+                return;
+            }
+
+            /* small file is the beginning of the text, random file is larger than 1 MB */
+            InputStream fin = IOStreamManager.createInputStream(textFName);
+            byte[] text = IOStreamManager.readAllFromStreamToBuffer(fin);
+            IOStreamManager.closeIOStreams(fin, null);
+            String smallFName = textFName + "_tst_small";
+            writeFile(smallFName, Arrays.copyOf(text, Math.min(text.length, 4096)));
+            String randomFName = textFName + "_tst_random";
+            byte[] random = new byte[3 * STREAM_BUFFER_SIZE];
+            new Random(42).nextBytes(random);
+            writeFile(randomFName, random);
+
+            ArchiverOptions options = new ArchiverOptions();
+            options.setDictionary(ParDictionary.load(dictionaryFName));
+            for (String fName : new String[]{smallFName, textFName}) {
+                if (testCompDecompr(fName, "dict", options)
+                    && getMethod(fName + "_tst_dict.par") != METHOD_DICTIONARY) {
+                    System.err.println("Error: [" + fName + "] is not compressed with dictionary");
+                }
+            }
+            if (testCompDecompr(randomFName, "dict", options)
+                && IOStreamManager.getFileSize(randomFName + "_tst_dict.par") > random.length + 64) {
+                System.err.println("Error: random data grew when compressed with dictionary");
+            }
+
+            /* file that is compressed with dictionary can`t be decompressed without it */
+            String comprFName = textFName + "_tst_dict.par";
+            ArchiverOptions wrongOptions = new ArchiverOptions();
+            wrongOptions.setVerbose(false);
+            wrongOptions.setDictionary(ParDictionary.load(otherDictionaryFName));
+            ArchiverOptions missingOptions = new ArchiverOptions();
+            missingOptions.setVerbose(false);
+            System.out.println("Two errors about dictionary are expected:");
+            if (Decompressor.decompress(comprFName, textFName + "_tst_wrong_dict", wrongOptions) == RETURN_VALUE_SUCCESS) {
+                System.err.println("Error: file is decompressed with wrong dictionary");
+                return;
+            }
+            if (Decompressor.decompress(comprFName, textFName + "_tst_no_dict", missingOptions) == RETURN_VALUE_SUCCESS) {
+                System.err.println("Error: file is decompressed without dictionary");
+                return;
+            }
+            System.out.println(ANSI_GREEN + "Wrong and missing dictionaries are rejected" + ANSI_RESET);
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.err.println("Exception was thrown when testing dictionary of [" + textFName + "]");
+        }
+    }
+
+    /**
+     * This method compresses file (it must be larger than SEEK_INTERVAL) as single tree,
+     * in blocks and with dictionary and compares ranges that are decoded from it
+     * with the same ranges of the original file: the beginning, range across the border
+     * of seek interval, the end and the whole file. Files of LZ and adaptive methods
+     * must be rejected.
+     */
+    private static void testRange(String inputFName) {
+        try {
+            System.out.println(ANSI_YELLOW + "\n \t Ranges of [" + inputFName + "]" + ANSI_RESET);
+
+            InputStream fin = IOStreamManager.createInputStream(inputFName);
+            byte[] original = IOStreamManager.readAllFromStreamToBuffer(fin);
+            IOStreamManager.closeIOStreams(fin, null);
+            if (original.length <= SEEK_INTERVAL) {
+                System.err.println("Error: [" + inputFName + "] is too small for testing of ranges");
+                return;
+            }
+
+            String dictionaryFName = inputFName + "_tst_range.pdc";
+            if (ParDictionary.train(inputFName, dictionaryFName, new ArchiverOptions()) != RETURN_VALUE_SUCCESS) {
+                System.err.println("Error when training dictionary");
+                return;
+            }
+
+            ArchiverOptions single = new ArchiverOptions();
+            single.setThreadsNumber(1);
+            ArchiverOptions blocks = new ArchiverOptions();
+            blocks.setThreadsNumber(4);
+            blocks.setBlockSize(MIN_BLOCK_SIZE_MB << 20);
+            ArchiverOptions dictionary = new ArchiverOptions();
+            dictionary.setDictionary(ParDictionary.load(dictionaryFName));
+
+            long[][] ranges = {{0, 100}, {SEEK_INTERVAL - 1000, 3000}, {original.length - 10, 100},
+                {0, original.length}, {original.length, 0}};
+            String[] modes = {"range_single", "range_blocks", "range_dict"};
+            ArchiverOptions[] modeOptions = {single, blocks, dictionary};
+            int[] methods = {METHOD_HUFFMAN, METHOD_BLOCKS, METHOD_DICTIONARY};
+
+            for (int mode = 0; mode < modes.length; mode++) {
+                String comprFName = inputFName + "_tst_" + modes[mode] + ".par";
+                modeOptions[mode].setVerbose(false);
+                if (Compressor.compress(inputFName, comprFName, modeOptions[mode]) != RETURN_VALUE_SUCCESS
+                    || getMethod(comprFName) != methods[mode]) {
+                    System.err.println("Error when compressing file [" + inputFName + "] in mode [" + modes[mode] + "]");
+                    return;
+                }
+
+                /* every range is read twice, the second time regions are taken from cache */
+                for (long[] range : ranges) {
+                    byte[] expected = Arrays.copyOfRange(original, (int) range[0],
+                        (int) Math.min(original.length, range[0] + range[1]));
+                    for (int attempt = 0; attempt < 2; attempt++) {
+                        byte[] decoded = RangeDecoder.readRange(comprFName, range[0], (int) range[1], modeOptions[mode]);
+                        if (!Arrays.equals(expected, decoded)) {
+                            System.err.println("Error: range [" + range[0] + ", " + range[1] + "] of [" + comprFName
+                                + "] differs from original data");
+                            return;
+                        }
+                    }
+                }
+                System.out.println(ANSI_GREEN + "Ranges of [" + comprFName + "] are equal to original data" + ANSI_RESET);
+            }
+
+            /* files that can be decoded only whole */
+            for (String method : new String[]{"lz", "adaptive"}) {
+                String comprFName = inputFName + "_tst_range_" + method + ".par";
+                ArchiverOptions options = new ArchiverOptions();
+                options.setVerbose(false);
+                options.setLz(method.equals("lz"));
+                options.setAdaptive(method.equals("adaptive"));
+                if (Compressor.compress(inputFName, comprFName, options) != RETURN_VALUE_SUCCESS) {
+                    System.err.println("Error when compressing file [" + inputFName + "] in mode [" + method + "]");
+                    return;
+                }
+                try {
+                    RangeDecoder.readRange(comprFName, SEEK_INTERVAL - 1000, 3000, options);
+                    System.err.println("Error: range of [" + comprFName + "] is decoded, but it must be rejected");
+                    return;
+                } catch (Exception e) {
+                    System.out.println(ANSI_GREEN + "Range of [" + comprFName + "] is rejected: " + e.getMessage() + ANSI_RESET);
+                }
+            }
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.err.println("Exception was thrown when testing ranges of [" + inputFName + "]");
+        }
+    }
+
+    /**
+     * This method compresses file (it must be larger than one block) with every method
+     * that has its own checksums, flips a byte in the middle of compressed data and checks
+     * that both decompressing and testing of damaged file fail
+     */
+    private static void testCorruption(String inputFName) {
+        try {
+            System.out.println(ANSI_YELLOW + "\n \t Corrupted files of [" + inputFName + "]" + ANSI_RESET);
+
+            ArchiverOptions huffman = new ArchiverOptions();
+            huffman.setThreadsNumber(1);
+            ArchiverOptions blocks = new ArchiverOptions();
+            blocks.setThreadsNumber(4);
+            blocks.setBlockSize(MIN_BLOCK_SIZE_MB << 20);
+            ArchiverOptions adaptive = new ArchiverOptions();
+            adaptive.setAdaptive(true);
+            ArchiverOptions lz = new ArchiverOptions();
+            lz.setLz(true);
+            ArchiverOptions bwt = new ArchiverOptions();
+            bwt.setBwt(true);
+
+            String[] modes = {"corrupt_huffman", "corrupt_blocks", "corrupt_adaptive", "corrupt_lz", "corrupt_bwt"};
+            ArchiverOptions[] modeOptions = {huffman, blocks, adaptive, lz, bwt};
+            int[] methods = {METHOD_HUFFMAN, METHOD_BLOCKS, METHOD_ADAPTIVE, METHOD_LZ, METHOD_BWT};
+
+            System.out.println("Errors about damaged files are expected (two for every method):");
+            for (int mode = 0; mode < modes.length; mode++) {
+                String comprFName = inputFName + "_tst_" + modes[mode] + ".par";
+                modeOptions[mode].setVerbose(false);
+                if (Compressor.compress(inputFName, comprFName, modeOptions[mode]) != RETURN_VALUE_SUCCESS
+                    || getMethod(comprFName) != methods[mode]) {
+                    System.err.println("Error when compressing file [" + inputFName + "] in mode [" + modes[mode] + "]");
+                    return;
+                }
+
+                /* one bit of the byte in the middle of compressed data is changed */
+                InputStream fin = IOStreamManager.createInputStream(comprFName);
+                byte[] compressed = IOStreamManager.readAllFromStreamToBuffer(fin);
+                IOStreamManager.closeIOStreams(fin, null);
+                compressed[compressed.length / 2] ^= 0x10;
+                String damagedFName = inputFName + "_tst_" + modes[mode] + "_damaged.par";
+                writeFile(damagedFName, compressed);
+
+                if (Decompressor.decompress(damagedFName, damagedFName + "_decompr", modeOptions[mode]) == RETURN_VALUE_SUCCESS) {
+                    System.err.println("Error: damaged file [" + damagedFName + "] is decompressed");
+                    return;
+                }
+                if (Decompressor.test(damagedFName, modeOptions[mode]) == RETURN_VALUE_SUCCESS) {
+                    System.err.println("Error: damaged file [" + damagedFName + "] passed the test");
+                    return;
+                }
+                System.out.println(ANSI_GREEN + "Damaged file [" + damagedFName + "] is rejected" + ANSI_RESET);
+            }
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.err.println("Exception was thrown when testing corrupted files of [" + inputFName + "]");
+        }
+    }
+
+    /**
+     * This method packs directory tree with nested and empty subdirectories, large file
+     * (it waits for writing in temporary file) and small one, lists and unpacks it whole
+     * and by single entry. Then names of entries are changed to lead outside of output
+     * directory, such entries must not be extracted.
+     *
+     * @param largeFName    file that is larger than one stream buffer;
+     * @param smallFName    file that is compressed in memory.
+     */
+    private static void testArchive(String largeFName, String smallFName) {
+        try {
+            System.out.println(ANSI_YELLOW + "\n \t Archive of [" + largeFName + "] and [" + smallFName + "]" + ANSI_RESET);
+            if (IOStreamManager.getFileSize(largeFName) <= STREAM_BUFFER_SIZE) {
+                System.err.println("Error: [" + largeFName + "] is too small for testing of archive");
+                return;
+            }
+
+            /* source tree: large.bin, nested/deeper/small.bin, nested/empty/, zz/evil.txt, empty/ */
+            Path source = Paths.get("mytest/archive_tst_src");
+            Files.createDirectories(source.resolve("nested/deeper"));
+            Files.createDirectories(source.resolve("nested/empty"));
+            Files.createDirectories(source.resolve("zz"));
+            Files.createDirectories(source.resolve("empty"));
+            Files.copy(Paths.get(largeFName), source.resolve("large.bin"), StandardCopyOption.REPLACE_EXISTING);
+            Files.copy(Paths.get(smallFName), source.resolve("nested/deeper/small.bin"), StandardCopyOption.REPLACE_EXISTING);
+            writeFile(source.resolve("zz/evil.txt").toString(), "evil".getBytes(StandardCharsets.UTF_8));
+
+            String archiveFName = "mytest/archive_tst.par";
+            ArchiverOptions options = new ArchiverOptions();
+            options.setThreadsNumber(4);
+            if (ParArchive.pack(source.toString(), archiveFName, options) != RETURN_VALUE_SUCCESS
+                || ParArchive.list(archiveFName) != RETURN_VALUE_SUCCESS) {
+                System.err.println("Error when packing or listing [" + source + "]");
+                return;
+            }
+
+            /* the whole archive */
+            Path output = Paths.get("mytest/archive_tst_out");
+            if (ParArchive.unpack(archiveFName, output.toString(), null, options) != RETURN_VALUE_SUCCESS) {
+                System.err.println("Error when unpacking [" + archiveFName + "]");
+                return;
+            }
+            for (String name : new String[]{"large.bin", "nested/deeper/small.bin", "zz/evil.txt"}) {
+                if (!areFilesEqual(source.resolve(name).toString(), output.resolve(name).toString())) {
+                    System.err.println("Error: unpacked [" + name + "] differs from original file");
+                    return;
+                }
+            }
+            for (String name : new String[]{"nested/empty", "empty"}) {
+                if (!Files.isDirectory(output.resolve(name))) {
+                    System.err.println("Error: empty directory [" + name + "] is not unpacked");
+                    return;
+                }
+            }
+            System.out.println(ANSI_GREEN + "Archive [" + archiveFName + "] is unpacked, compressed size ["
+                + IOStreamManager.getFileSize(archiveFName) + "] bytes" + ANSI_RESET);
+
+            /* single entry */
+            Path single = Paths.get("mytest/archive_tst_single");
+            if (ParArchive.unpack(archiveFName, single.toString(), "nested/deeper/small.bin", options) != RETURN_VALUE_SUCCESS
+                || !areFilesEqual(smallFName, single.resolve("nested/deeper/small.bin").toString())
+                || Files.exists(single.resolve("large.bin"))) {
+                System.err.println("Error when unpacking single entry of [" + archiveFName + "]");
+                return;
+            }
+            System.out.println(ANSI_GREEN + "Single entry of [" + archiveFName + "] is unpacked" + ANSI_RESET);
+
+            /* names of entries in directory are changed to relative and absolute paths
+             * out of output directory (lengths of names are kept) */
+            InputStream fin = IOStreamManager.createInputStream(archiveFName);
+            byte[] archive = IOStreamManager.readAllFromStreamToBuffer(fin);
+            IOStreamManager.closeIOStreams(fin, null);
+            replaceLast(archive, "zz/evil.txt", "../evil.txt");
+            replaceLast(archive, "large.bin", "/tmp/_tst");
+            String evilFName = "mytest/archive_tst_evil.par";
+            writeFile(evilFName, archive);
+
+            Path evilOutput = Paths.get("mytest/archive_tst_evil/out");
+            Files.deleteIfExists(evilOutput.resolveSibling("evil.txt"));
+            Files.deleteIfExists(Paths.get("/tmp/_tst"));
+            System.out.println("Two errors about wrong names are expected:");
+            if (ParArchive.unpack(evilFName, evilOutput.toString(), null, options) == RETURN_VALUE_SUCCESS
+                || Files.exists(evilOutput.resolveSibling("evil.txt")) || Files.exists(Paths.get("/tmp/_tst"))) {
+                System.err.println("Error: entry of [" + evilFName + "] is extracted out of output directory");
+                return;
+            }
+            System.out.println(ANSI_GREEN + "Entries out of output directory are rejected" + ANSI_RESET);
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.err.println("Exception was thrown when testing archive of [" + largeFName + "]");
+        }
+    }
+
+    /**
+     * this method replaces the last occurrence of text in data by another text of the same length
+     */
+    private static void replaceLast(byte[] data, String text, String replacement) throws Exception {
+        byte[] pattern = text.getBytes(StandardCharsets.UTF_8);
+        for (int i = data.length - pattern.length; i >= 0; i--) {
+            if (Arrays.equals(data, i, i + pattern.length, pattern, 0, pattern.length)) {
+                byte[] newText = replacement.getBytes(StandardCharsets.UTF_8);
+                System.arraycopy(newText, 0, data, i, newText.length);
+                return;
+            }
+        }
+        throw new Exception("There is no [" + text + "] in data");
+    }
+
+    /**
+     * This method checks that random data, empty file and file of one byte are written
+     * as they are (size grows only by header and checksum) and that file of one repeated
+     * byte is compressed without errors
+     */
+    private static void testStored() {
+        try {
+            System.out.println(ANSI_YELLOW + "\n \t Stored files" + ANSI_RESET);
+
+            byte[] random = new byte[300 * 1024];
+            new Random(15).nextBytes(random);
+            byte[] repeated = new byte[1000];
+            Arrays.fill(repeated, (byte) 'a');
+            String[] fNames = {"mytest/stored_tst_random", "mytest/stored_tst_empty", "mytest/stored_tst_one",
+                "mytest/stored_tst_repeated"};
+            byte[][] contents = {random, new byte[0], new byte[]{42}, repeated};
+            boolean[] isStored = {true, true, true, false};
+
+            for (int i = 0; i < fNames.length; i++) {
+                writeFile(fNames[i], contents[i]);
+                if (!testCompDecompr(fNames[i], "stored", new ArchiverOptions())) {
+                    return;
+                }
+
+                /* stored file is header, original bytes and checksum */
+                String comprFName = fNames[i] + "_tst_stored.par";
+                ByteArrayOutputStream header = new ByteArrayOutputStream();
+                new ParHeader(METHOD_STORED, contents[i].length).write(header);
+                long maxSize = header.size() + contents[i].length + CHECKSUM_SIZE;
+                int method = getMethod(comprFName);
+                if ((method == METHOD_STORED) != isStored[i] || IOStreamManager.getFileSize(comprFName) > maxSize) {
+                    System.err.println("Error: [" + fNames[i] + "] is compressed with method [" + method + "] to ["
+                        + IOStreamManager.getFileSize(comprFName) + "] bytes, stored size is [" + maxSize + "] bytes");
+                    return;
+                }
+            }
+            System.out.println(ANSI_GREEN + "Data that can`t be compressed are stored" + ANSI_RESET);
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.err.println("Exception was thrown when testing stored files");
+        }
+    }
+
+    /**
+     * This method compresses files that are given by glob patterns and by list of files
+     * (one of them is missing, it must fail without stopping other files), then decompresses
+     * the results by recursive pattern and compares them with original files
+     *
+     * @param textFName     text file that is copied to batch directory;
+     * @param otherFName    file of another kind.
+     */
+    private static void testBatch(String textFName, String otherFName) {
+        try {
+            System.out.println(ANSI_YELLOW + "\n \t Batch of [" + textFName + "] and [" + otherFName + "]" + ANSI_RESET);
+
+            Path dir = Paths.get("mytest/batch_tst");
+            Files.createDirectories(dir.resolve("sub"));
+            Files.copy(Paths.get(textFName), dir.resolve("a.txt"), StandardCopyOption.REPLACE_EXISTING);
+            Files.copy(Paths.get(otherFName), dir.resolve("b.bmp"), StandardCopyOption.REPLACE_EXISTING);
+            writeFile(dir.resolve("sub/c.txt").toString(), "small file in subdirectory".getBytes(StandardCharsets.UTF_8));
+            String listFName = "mytest/batch_tst_list";
+            writeFile(listFName, (dir.resolve("sub/c.txt") + "\n" + dir.resolve("missing.txt") + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+            String[] names = {"a.txt", "b.bmp", "sub/c.txt"};
+            for (String name : names) {
+                Files.deleteIfExists(dir.resolve(name + ".par"));
+                Files.deleteIfExists(dir.resolve(name + ".uar"));
+            }
+
+            ArchiverOptions options = new ArchiverOptions();
+            options.setThreadsNumber(4);
+            System.out.println("Error about missing file is expected:");
+            if (BatchProcessor.run(true, new String[]{dir + "/*.txt", dir + "/*.bmp", "@" + listFName}, options)
+                == RETURN_VALUE_SUCCESS) {
+                System.err.println("Error: batch with missing file is successful");
+                return;
+            }
+            if (BatchProcessor.run(false, new String[]{dir + "/**.par"}, options) != RETURN_VALUE_SUCCESS) {
+                System.err.println("Error when decompressing batch of [" + dir + "]");
+                return;
+            }
+            for (String name : names) {
+                if (!areFilesEqual(dir.resolve(name).toString(), dir.resolve(name + ".uar").toString())) {
+                    System.err.println("Error: [" + name + "] is changed by batch compressing/decompressing");
+                    return;
+                }
+            }
+            System.out.println(ANSI_GREEN + "Batch of [" + dir + "] is compressed and decompressed" + ANSI_RESET);
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.err.println("Exception was thrown when testing batch of [" + textFName + "]");
+        }
+    }
+
+    /**
+     * this method returns method of compressing from header of versioned '.par' file
+     */
+    private static int getMethod(String comprFName) throws Exception {
+        InputStream fin = IOStreamManager.createInputStream(comprFName);
+        try {
+            fin.read();
+            return ParHeader.read(fin).getMethod();
+        } finally {
+            IOStreamManager.closeIOStreams(fin, null);
+        }
+    }
+
+    /**
+     * this method writes bytes to file
+     */
+    private static void writeFile(String fName, byte[] data) throws Exception {
+        OutputStream fout = IOStreamManager.createOutputStream(fName);
+        IOStreamManager.writeFromBufferToStream(fout, data);
+        IOStreamManager.closeIOStreams(null, fout);
+    }
+
+    /**
+     * This method compresses file in memory through HuffmanOutputStream by portions
+     * of different sizes and reads it back through HuffmanInputStream, so frames,
+     * single bytes and bulk reads are checked
+     */
+    private static void testStreamApi(String inputFName, int windowSize) {
+        try {
+            System.out.println(ANSI_YELLOW + "\n \t Stream API on [" + inputFName + "] with window ["
+                + windowSize + "]" + ANSI_RESET);
+
+            InputStream fin = IOStreamManager.createInputStream(inputFName);
+            byte[] original = IOStreamManager.readAllFromStreamToBuffer(fin);
+            IOStreamManager.closeIOStreams(fin, null);
+
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (HuffmanOutputStream hout = new HuffmanOutputStream(compressed, windowSize, DEFAULT_MAX_CODE_LENGTH)) {
+                int position = 0;
+                for (int portion = 1; position < original.length; portion = portion * 3 + 1) {
+                    int length = Math.min(portion, original.length - position);
+                    if (length == 1) {
+                        hout.write(original[position]);
+                    } else {
+                        hout.write(original, position, length);
+                    }
+                    position += length;
+                }
+            }
+
+            ByteArrayOutputStream restored = new ByteArrayOutputStream(original.length);
+            try (HuffmanInputStream hin = new HuffmanInputStream(new ByteArrayInputStream(compressed.toByteArray()))) {
+                int first = hin.read();
+                if (first >= 0) {
+                    restored.write(first);
+                }
+                restored.write(hin.readAllBytes());
+            }
+
+            if (!Arrays.equals(original, restored.toByteArray())) {
+                System.err.println("Error: stream API changed data of [" + inputFName + "]");
+                return;
+            }
+            System.out.println(ANSI_GREEN + "Stream API restored [" + inputFName + "], compressed size ["
+                + compressed.size() + "] bytes" + ANSI_RESET);
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.err.println("Exception was thrown when processing file [" + inputFName +"]");
+        }
+    }
+
+    /**
+     * this method compares content of two files
+     */
+    private static boolean areFilesEqual(String firstFName, String secondFName) throws Exception {
+        InputStream first = IOStreamManager.createInputStream(firstFName);
+        InputStream second = IOStreamManager.createInputStream(secondFName);
+        try {
+            byte[] firstBuffer = new byte[INPUT_BUFFER_SIZE];
+            byte[] secondBuffer = new byte[INPUT_BUFFER_SIZE];
+            while (true) {
+                int firstRead = first.readNBytes(firstBuffer, 0, firstBuffer.length);
+                int secondRead = second.readNBytes(secondBuffer, 0, secondBuffer.length);
+                if (firstRead != secondRead
+                    || !Arrays.equals(firstBuffer, 0, firstRead, secondBuffer, 0, secondRead)) {
+                    return false;
+                }
+                if (firstRead == 0) {
+                    return true;
+                }
+            }
+        } finally {
+            IOStreamManager.closeIOStreams(first, null);
+            IOStreamManager.closeIOStreams(second, null);
+        }
+    }
+
 }
@@ -0,0 +1,133 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+
+/**
+ * This stream holds back the last bytes of underlying stream (trailer with checksum),
+ * so decoders that read ahead see the end of data where compressed data end
+ * and trailer is available after them. It works with streams of unknown size
+ * (standard input) as well as with files.
+ */
+public class TrailerInputStream extends FilterInputStream {
+
+    private final byte[] trailer;
+    private final byte[] held;
+    private int trailerFilled = 0;
+
+    /**
+     * Constructor for creating stream
+     *
+     * @param in            underlying stream;
+     * @param trailerSize   number of bytes at the end that are held back.
+     */
+    TrailerInputStream(InputStream in, int trailerSize) {
+        super(in);
+        this.trailer = new byte[trailerSize];
+        this.held = new byte[trailerSize];
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fillTrailer()) {
+            return -1;
+        }
+        int next = in.read();
+        if (next < 0) {
+            return -1;
+        }
+        int first = trailer[0] & 0xFF;
+        System.arraycopy(trailer, 1, trailer, 0, trailer.length - 1);
+        trailer[trailer.length - 1] = (byte) next;
+        return first;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+        if (len <= trailer.length) {
+            int next = read();
+            if (next < 0) {
+                return -1;
+            }
+            b[off] = (byte) next;
+            return 1;
+        }
+        if (!fillTrailer()) {
+            return -1;
+        }
+
+        /* held bytes go first, the last bytes of what is read are held instead of them */
+        int read = in.read(b, off + trailer.length, len - trailer.length);
+        if (read <= 0) {
+            return -1;
+        }
+        System.arraycopy(trailer, 0, held, 0, trailer.length);
+        if (read >= trailer.length) {
+            System.arraycopy(b, off + read, trailer, 0, trailer.length);
+        } else {
+            System.arraycopy(held, read, trailer, 0, trailer.length - read);
+            System.arraycopy(b, off + trailer.length, trailer, trailer.length - read, read);
+        }
+        System.arraycopy(held, 0, b, off, Math.min(read, trailer.length));
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] buffer = new byte[(int) Math.min(Math.max(n, 0), Constants.OUTPUT_CHUNK_SIZE)];
+        long skipped = 0;
+        while (skipped < n) {
+            int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+            if (read < 0) {
+                break;
+            }
+            skipped += read;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return Math.max(in.available() - (trailer.length - trailerFilled), 0);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * This method skips data that are not read yet and returns trailer
+     *
+     * @return              the last bytes of underlying stream;
+     * @throws IOException  when stream is shorter than trailer.
+     */
+    byte[] readTrailer() throws IOException {
+        skip(Long.MAX_VALUE);
+        if (!fillTrailer()) {
+            throw new IOException("Unexpected end of file");
+        }
+        return trailer.clone();
+    }
+
+    /**
+     * this method reads bytes to hold until trailer is full, returns false at the end of stream
+     */
+    private boolean fillTrailer() throws IOException {
+        while (trailerFilled < trailer.length) {
+            int read = in.read(trailer, trailerFilled, trailer.length - trailerFilled);
+            if (read < 0) {
+                return false;
+            }
+            trailerFilled += read;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,186 @@
+package com.shpp.p2p.cs.abaryshnikov.assignment15;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Objects;
+
+/**
+ * This stream is the last stage of read / code / write pipeline: the coder fills
+ * chunks and its own thread writes them to underlying stream, so coding goes on
+ * while previous chunks are written. Chunks with data go to writer through one ring
+ * and written chunks come back through another one, buffers of chunks are taken
+ * from BufferPool.
+ *
+ * Error of writing is kept and thrown to the coder by the next write, flush or close;
+ * writer skips the rest of chunks after error, so the coder never waits forever.
+ */
+public class WriteBehindOutputStream extends OutputStream implements Constants {
+
+    private final OutputStream out;
+    private final PipelineStats stats;
+    private final ChunkRing freeRing = new ChunkRing(PIPELINE_CHUNKS);
+    private final ChunkRing fullRing = new ChunkRing(PIPELINE_CHUNKS);
+    private final ChunkRing.Chunk[] chunks = new ChunkRing.Chunk[PIPELINE_CHUNKS];
+    private final Thread writer;
+
+    private ChunkRing.Chunk current = null;
+    private volatile IOException error = null;
+    private boolean isClosed = false;
+
+    /**
+     * Constructor for creating stream
+     *
+     * @param out       underlying stream;
+     * @param stats     report that gets stalls of the stream when it is closed.
+     */
+    WriteBehindOutputStream(OutputStream out, PipelineStats stats) {
+        this.out = out;
+        this.stats = stats;
+        for (int i = 0; i < PIPELINE_CHUNKS; i++) {
+            chunks[i] = new ChunkRing.Chunk(BufferPool.acquire(STREAM_BUFFER_SIZE));
+            freeRing.put(chunks[i]);
+        }
+        writer = new Thread(this::writeChunks, "par-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * this method is run by writer thread: chunks are written until the end marker
+     */
+    private void writeChunks() {
+        try {
+            while (true) {
+                ChunkRing.Chunk chunk = fullRing.take();
+                if (chunk.isEnd) {
+                    return;
+                }
+                if (error == null) {
+                    try {
+                        if (chunk.isFlush) {
+                            out.flush();
+                        } else {
+                            out.write(chunk.data, 0, chunk.length);
+                        }
+                    } catch (IOException e) {
+                        error = e;
+                    }
+                }
+                freeRing.put(chunk);
+            }
+        } catch (IOException e) {
+            /* the stream is closed without end marker */
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureChunk();
+        current.data[current.length++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        while (len > 0) {
+            ensureChunk();
+            int portion = Math.min(len, STREAM_BUFFER_SIZE - current.length);
+            System.arraycopy(b, off, current.data, current.length, portion);
+            current.length += portion;
+            off += portion;
+            len -= portion;
+        }
+    }
+
+    /**
+     * This method hands collected data and flush request to writer and waits
+     * until everything is written and flushed
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        handOver();
+        ChunkRing.Chunk marker = freeRing.take();
+        marker.isFlush = true;
+        fullRing.put(marker);
+
+        /* all chunks are back when writer is idle, so they may be put back by this thread */
+        ChunkRing.Chunk[] returned = new ChunkRing.Chunk[PIPELINE_CHUNKS - (current != null ? 1 : 0)];
+        for (int i = 0; i < returned.length; i++) {
+            returned[i] = freeRing.take();
+        }
+        marker.isFlush = false;
+        for (ChunkRing.Chunk chunk : returned) {
+            freeRing.put(chunk);
+        }
+        checkError();
+    }
+
+    /**
+     * This method hands collected data to writer, waits for the end of writing
+     * and closes underlying stream
+     */
+    @Override
+    public void close() throws IOException {
+        if (isClosed) {
+            return;
+        }
+        try {
+            handOver();
+            ChunkRing.Chunk marker = current != null ? current : freeRing.take();
+            current = null;
+            marker.isEnd = true;
+            fullRing.put(marker);
+            ReadAheadInputStream.joinQuietly(writer);
+        } finally {
+            isClosed = true;
+            fullRing.close();
+            ReadAheadInputStream.joinQuietly(writer);
+            stats.addOutput(freeRing, fullRing);
+            for (ChunkRing.Chunk chunk : chunks) {
+                BufferPool.release(chunk.data);
+            }
+            out.close();
+        }
+        checkError();
+    }
+
+    /**
+     * this method takes empty chunk when there is no place in the current one
+     */
+    private void ensureChunk() throws IOException {
+        ensureOpen();
+        if (current != null && current.length == STREAM_BUFFER_SIZE) {
+            handOver();
+        }
+        if (current == null) {
+            checkError();
+            current = freeRing.take();
+            current.length = 0;
+        }
+    }
+
+    /**
+     * this method gives the current chunk to writer if it contains data,
+     * empty chunk stays with the coder, because free chunks come back only from writer
+     */
+    private void handOver() {
+        if (current != null && current.length > 0) {
+            fullRing.put(current);
+            current = null;
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (isClosed) {
+            throw new IOException("Stream is closed");
+        }
+    }
+
+    private void checkError() throws IOException {
+        if (error != null) {
+            throw error;
+        }
+    }
+
+}